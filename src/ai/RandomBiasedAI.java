@@ -8,7 +8,6 @@ import ai.core.AI;
 import ai.core.ParameterSpecification;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import rts.*;
 import rts.units.Unit;
 import rts.units.UnitTypeTable;
@@ -25,7 +24,10 @@ import util.Sampler;
 public class RandomBiasedAI extends AI {
     static final double REGULAR_ACTION_WEIGHT = 1;
     static final double BIASED_ACTION_WEIGHT = 5;
-    Random r = new Random();
+    
+    // reused from call to call, to avoid allocating them for each unit:
+    UnitAction actions[] = new UnitAction[16];
+    double distribution[] = new double[16];
 
     
     public RandomBiasedAI(UnitTypeTable utt) {
@@ -67,14 +69,17 @@ public class RandomBiasedAI extends AI {
         for(Unit u:pgs.getUnits()) {
             if (u.getPlayer()==player) {
                 if (gs.getActionAssignment(u)==null) {
-                    List<UnitAction> l = u.getUnitActions(gs);
+                    int nActions = u.getUnitActions(gs, actions);
+                    if (nActions > actions.length) {
+                        actions = new UnitAction[nActions * 2];
+                        distribution = new double[nActions * 2];
+                        u.getUnitActions(gs, actions);
+                    }
                     UnitAction none = null;
-                    int nActions = l.size();
-                    double []distribution = new double[nActions];
 
                     // Implement "bias":
-                    int i = 0;
-                    for(UnitAction a:l) {
+                    for(int i = 0;i<nActions;i++) {
+                        UnitAction a = actions[i];
                         if (a.getType()==UnitAction.TYPE_NONE) none = a;
                         if (a.getType()==UnitAction.TYPE_ATTACK_LOCATION ||
                             a.getType()==UnitAction.TYPE_HARVEST ||
@@ -83,11 +88,10 @@ public class RandomBiasedAI extends AI {
                         } else {
                             distribution[i]=REGULAR_ACTION_WEIGHT;
                         }
-                        i++;
                     }
                         
                     try {
-                        UnitAction ua = l.get(Sampler.weighted(distribution));
+                        UnitAction ua = actions[Sampler.weighted(distribution, nActions, gs.getContext().getRandom())];
                         if (ua.resourceUsage(u, pgs).consistentWith(pa.getResourceUsage(), gs)) {
                             ResourceUsage ru = ua.resourceUsage(u, pgs);
                             pa.getResourceUsage().merge(ru);                        
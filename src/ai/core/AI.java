@@ -3,6 +3,7 @@ package ai.core;
 import java.util.List;
 import rts.GameState;
 import rts.PlayerAction;
+import rts.SimulationContext;
 import rts.units.UnitTypeTable;
 
 /**
@@ -13,6 +14,12 @@ import rts.units.UnitTypeTable;
  * @author santi
  */
 public abstract class AI {
+    /**
+     * The context of the game states this AI simulates (see 
+     * {@link #getSimulationContext()})
+     */
+    private SimulationContext simulationContext = new SimulationContext();
+    
     public abstract void reset();
     
     /* 
@@ -71,6 +78,29 @@ public abstract class AI {
     }
     
     
+    /**
+     * Returns the simulation context of this AI, which AIs that search copies
+     * of the game state give to those copies (or split, see 
+     * {@link SimulationContext#split()}), so that the search neither changes
+     * the random number generator of the game nor races with it when the game
+     * runs in another thread. It is created with an arbitrary seed, unless one
+     * is given with {@link #setSeed(long)}, and must only be used from the 
+     * thread that calls {@link #getAction(int, GameState)}
+     * @return
+     */
+    public SimulationContext getSimulationContext() {
+        return simulationContext;
+    }
+    
+    /**
+     * Seeds the simulation context of this AI (see 
+     * {@link #getSimulationContext()}), so that its searches can be reproduced
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        simulationContext = new SimulationContext(seed);
+    }
+    
     @Override
     public String toString() {
         return this.getClass().getSimpleName();
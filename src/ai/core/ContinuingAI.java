@@ -30,6 +30,15 @@ public class ContinuingAI extends AI {
      */
     protected GameState m_gameStateUsedForComputation;
     
+    /**
+     * The hash of m_gameStateUsedForComputation (see {@link GameState#getHash()}), 
+     * taken before the computation starts. Comparing it with the hash of the 
+     * actual game state avoids a deep comparison of both states when they differ
+     * (equal hashes are confirmed with equals, which also checks the order of
+     * the units, since it determines the order in which actions are executed)
+     */
+    protected long m_hashOfGameStateUsedForComputation;
+    
     /**
      * Instantiates the ContinuingAI with an AI that implements {@link InterruptibleAI}.
      * Throws an exception if the received AI does not implement {@link InterruptibleAI}.
@@ -45,7 +54,8 @@ public class ContinuingAI extends AI {
     {
         if (gs.canExecuteAnyAction(player)) {
             // check to make sure game is deterministic:
-			if (m_gameStateUsedForComputation != null && !m_gameStateUsedForComputation.equals(gs)) {
+			if (m_gameStateUsedForComputation != null && 
+                (m_hashOfGameStateUsedForComputation != gs.getHash() || !m_gameStateUsedForComputation.equals(gs))) {
 				if (DEBUG >= 1) {
 					System.out.println(
 						"The game state is different from the predicted one (this can happen in non-deterministic games), restarting search."
@@ -59,8 +69,12 @@ public class ContinuingAI extends AI {
             if (DEBUG >= 1) System.out.println("ContinuingAI: this cycle we need an action");
             
             // prepares a new computation if there isn't any going on
-            if (!m_isThereAComputationGoingOn) 
-            	((InterruptibleAI)m_AI).startNewComputation(player, gs.clone());
+            if (!m_isThereAComputationGoingOn) {
+                // the search uses the random number generator of this AI (see NaiveMCTS.getAction):
+                GameState s = gs.clone();
+                s.setContext(getSimulationContext());
+            	((InterruptibleAI)m_AI).startNewComputation(player, s);
+            }
             
             // improves the current solution
             ((InterruptibleAI)m_AI).computeDuringOneGameFrame();
@@ -74,12 +88,13 @@ public class ContinuingAI extends AI {
         } else { // player cannot act in this cycle
             if (!m_isThereAComputationGoingOn) {
                 GameState newGameState = gs.clone();
+                newGameState.setContext(getSimulationContext());
                 
                 // fast-forwards the world until a player can act or the game is over
 				while (newGameState.winner() == -1 && !newGameState.gameover() 
 						&& !newGameState.canExecuteAnyAction(0)
 						&& !newGameState.canExecuteAnyAction(1)) {
-					newGameState.cycle();
+					newGameState.advanceToNextEvent();
 				}
 				
 				// if the reached state is not a game over and this player can act, 
@@ -91,6 +106,7 @@ public class ContinuingAI extends AI {
                     }
                     m_isThereAComputationGoingOn = true;
                     m_gameStateUsedForComputation = newGameState;
+                    m_hashOfGameStateUsedForComputation = newGameState.getHash();
                     ((InterruptibleAI)m_AI).startNewComputation(player, m_gameStateUsedForComputation);
                     ((InterruptibleAI)m_AI).computeDuringOneGameFrame();
                 } else { // game is over or this player cannot move
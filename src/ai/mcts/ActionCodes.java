@@ -0,0 +1,96 @@
+package ai.mcts;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import rts.UnitAction;
+import rts.units.Unit;
+import util.Pair;
+
+/**
+ * Identifies the player actions of a node of the combinatorial MCTS algorithms
+ * (NaiveMCTS and its variants) with a long, to index the children of the node.
+ * A player action is given by the index of the action chosen for each unit,
+ * and its code is the mixed radix number formed by those indices (the radix of
+ * each unit being its number of actions). When the number of player actions
+ * does not fit in a long, the codes are computed as BigIntegers, and each new
+ * code is assigned the next free long (under the lock of this object, since
+ * the nodes of a tree searched by several threads are sampled concurrently).
+ */
+public class ActionCodes {
+    long multipliers[];
+
+    // only used when the number of player actions does not fit in a long:
+    BigInteger bigMultipliers[] = null;
+    HashMap<BigInteger,Long> keys = null;
+    List<BigInteger> codes = null;
+
+    /**
+     * @param choices the actions of each unit (see PlayerActionGenerator.getChoices)
+     */
+    public ActionCodes(List<Pair<Unit, List<UnitAction>>> choices) {
+        multipliers = new long[choices.size()];
+        long baseMultiplier = 1;
+        int idx = 0;
+        try {
+            for (Pair<Unit, List<UnitAction>> choice : choices) {
+                multipliers[idx] = baseMultiplier;
+                baseMultiplier = Math.multiplyExact(baseMultiplier, (long)choice.m_b.size());
+                idx++;
+            }
+        } catch (ArithmeticException e) {
+            bigMultipliers = new BigInteger[choices.size()];
+            BigInteger bigBaseMultiplier = BigInteger.ONE;
+            idx = 0;
+            for (Pair<Unit, List<UnitAction>> choice : choices) {
+                bigMultipliers[idx] = bigBaseMultiplier;
+                bigBaseMultiplier = bigBaseMultiplier.multiply(BigInteger.valueOf(choice.m_b.size()));
+                idx++;
+            }
+            keys = new HashMap<>();
+            codes = new ArrayList<>();
+        }
+    }
+
+    /**
+     * @param actionIndices the index of the action chosen for each unit
+     * @return the key of the player action
+     */
+    public long getKey(int actionIndices[]) {
+        if (bigMultipliers == null) {
+            long key = 0;
+            for (int i = 0; i < actionIndices.length; i++) {
+                key += actionIndices[i] * multipliers[i];
+            }
+            return key;
+        }
+        BigInteger code = BigInteger.ZERO;
+        for (int i = 0; i < actionIndices.length; i++) {
+            code = code.add(BigInteger.valueOf(actionIndices[i]).multiply(bigMultipliers[i]));
+        }
+        synchronized (this) {
+            Long key = keys.get(code);
+            if (key == null) {
+                key = (long)codes.size();
+                keys.put(code, key);
+                codes.add(code);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Returns the code of a player action, which (unlike its key) is the same
+     * for the same player action in any node with the same units and actions
+     *
+     * @param key
+     * @return a Long, or a BigInteger if the codes do not fit in a long
+     */
+    public Object getCode(long key) {
+        if (bigMultipliers == null) return key;
+        synchronized (this) {
+            return codes.get((int)key);
+        }
+    }
+}
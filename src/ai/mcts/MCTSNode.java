@@ -7,6 +7,7 @@ package ai.mcts;
 import ai.evaluation.EvaluationFunction;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 import rts.GameState;
 import rts.PlayerAction;
 
@@ -15,6 +16,11 @@ import rts.PlayerAction;
  * @author santi
  */
 public abstract class MCTSNode {
+    /**
+     * @deprecated not used by the search anymore: the random choices of a node
+     * are drawn from the context of its game state (see {@link #random()})
+     */
+    @Deprecated
     public static Random r = new Random();
 
     public int type;    // 0 : max, 1 : min, -1: Game-over
@@ -25,8 +31,10 @@ public abstract class MCTSNode {
     public List<PlayerAction> actions;
     public List<MCTSNode> children;
 
-    public double accum_evaluation = 0;
-    public int visit_count = 0;
+    // volatile, since some trees are searched by several threads at the same time
+    // (see NaiveMCTSNode.setConcurrent):
+    public volatile double accum_evaluation = 0;
+    public volatile int visit_count = 0;
     
     // These variables are just used to improve the efficiency of the algorithm, 
     // and avoid linear searches:
@@ -46,6 +54,78 @@ public abstract class MCTSNode {
     public int best_child_so_far = -1;   
     
     
+    /**
+     * Returns the random number generator used for the random choices made
+     * in this node (the one of the context of its game state, so that searches
+     * are reproducible, and independent searches do not share generators)
+     * @return
+     */
+    protected SplittableRandom random() {
+        return gs.getContext().getRandom();
+    }
+    
+    
+    /**
+     * Looks for a node in the subtree of this node (including itself) whose 
+     * game state is equal to a given one, so that its subtree can be reused by 
+     * the search that starts from that game state. The hash (see 
+     * {@link GameState#getHash()}) and the time are only used to discard nodes:
+     * the hash does not depend on the order of the units, which is the order 
+     * in which their actions are executed, so matches are confirmed with 
+     * {@link GameState#equals}. Time only increases along the tree, so the 
+     * subtrees of nodes later than the game state are not explored.
+     * @param target the game state
+     * @return the node, or null if there is none
+     */
+    public MCTSNode findDescendant(GameState target) {
+        return findDescendant(target, null);
+    }
+    
+    
+    /**
+     * Like {@link #findDescendant(GameState)}, but only looks below the child 
+     * of this node reached with exactly a given action (e.g. the action that 
+     * the search returned from this node, and was played), if it is not null.
+     * Actions are compared with {@link PlayerAction#sameActions}.
+     * @param target the game state
+     * @param action the action played in the state of this node, or null
+     * @return the node, or null if there is none
+     */
+    public MCTSNode findDescendant(GameState target, PlayerAction action) {
+        if (gs.getTime()>target.getTime()) return null;
+        if (gs.getTime()==target.getTime() && gs.getHash()==target.getHash() && gs.equals(target)) return this;
+        if (children!=null) {
+            for(int i = 0;i<children.size();i++) {
+                if (action!=null && !action.sameActions(actions.get(i))) continue;
+                MCTSNode node = children.get(i).findDescendant(target, null);
+                if (node!=null) return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Detaches this node from its parent, so that it becomes the root of a 
+     * tree that keeps the statistics of its subtree
+     */
+    public void makeRoot() {
+        parent = null;
+        setDepth(0);
+    }
+    
+    
+    private void setDepth(int a_depth) {
+        // nodes can be shared by several parents (transpositions), in which case
+        // their subtrees only need to be updated once:
+        if (depth==a_depth && parent!=null) return;
+        depth = a_depth;
+        if (children!=null) {
+            for(MCTSNode child:children) child.setDepth(a_depth+1);
+        }
+    }
+    
+    
     public void showNode(int depth, int maxdepth, EvaluationFunction ef) {
         if (children!=null) {
             for(int i = 0;i<children.size();i++) {
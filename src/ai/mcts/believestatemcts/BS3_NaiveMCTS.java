@@ -2,7 +2,6 @@ package ai.mcts.believestatemcts;
 
 import ai.core.AI;
 import ai.evaluation.EvaluationFunction;
-import static ai.mcts.MCTSNode.r;
 import ai.mcts.naivemcts.NaiveMCTS;
 import ai.mcts.naivemcts.NaiveMCTSNode;
 import java.util.ArrayList;
@@ -124,7 +123,7 @@ public class BS3_NaiveMCTS extends NaiveMCTS implements AIWithBelieveState {
 
         // otherwise we have multiple best actions, choose one randomly
         System.out.println("Random action from " + bestIdxs.size());
-        return r.nextInt(bestIdxs.size());
+        return gs_to_start_from.getContext().getRandom().nextInt(bestIdxs.size());
     }
 
     
@@ -265,7 +264,7 @@ public class BS3_NaiveMCTS extends NaiveMCTS implements AIWithBelieveState {
                     UnitType ut = u.getType().producedBy.get(0);
                     // if producer not seen, add to inferedUnits
                     if (!typeSeen[ut.ID]) {
-                        Unit newUnit = new Unit(opponent, ut, 0, 0, 0);
+                        Unit newUnit = new Unit(gs.getPhysicalGameState(), opponent, ut, 0, 0, 0);
                         // Search possible location for the new unit
                         boolean validPosition = getClosestNotObservableLocationNear(u.getX(), u.getY(), gs, newUnit);
                         if (validPosition) {
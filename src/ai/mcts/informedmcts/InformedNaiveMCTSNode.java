@@ -4,12 +4,13 @@
  */
 package ai.mcts.informedmcts;
 
+import ai.mcts.ActionCodes;
 import ai.mcts.MCTSNode;
 import ai.stochastic.UnitActionProbabilityDistribution;
-import java.math.BigInteger;
 import java.util.*;
 import rts.*;
 import rts.units.Unit;
+import util.LongHashMap;
 import util.Pair;
 import util.Sampler;
 
@@ -27,11 +28,11 @@ public class InformedNaiveMCTSNode extends MCTSNode {
     
     boolean hasMoreActions = true;
     public PlayerActionGenerator moveGenerator;
-    HashMap<BigInteger,InformedNaiveMCTSNode> childrenMap = new LinkedHashMap<>();    // associates action codes with children
+    LongHashMap<InformedNaiveMCTSNode> childrenMap = new LongHashMap<>();    // associates action codes with children
     // Decomposition of the player actions in unit actions, and their contributions:
     public List<InformedUnitActionTableEntry> unitActionTable;
     double evaluation_bound;    // this is the maximum positive value that the evaluation function can return
-    public BigInteger multipliers[];
+    public ActionCodes actionCodes;
     UnitActionProbabilityDistribution model;
     
 
@@ -59,16 +60,11 @@ public class InformedNaiveMCTSNode extends MCTSNode {
             actions = new ArrayList<>();
             children = new ArrayList<>();
             unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
+            actionCodes = new ActionCodes(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 double []prior_distribution = model.predictDistribution(choice.m_a, gs, choice.m_b);
                 InformedUnitActionTableEntry ae = new InformedUnitActionTableEntry(choice.m_a, choice.m_b, prior_distribution);
                 unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));                
-                idx++;
              }
         } else if (gs.canExecuteAnyAction(minplayer)) {
             type = 1;
@@ -76,16 +72,11 @@ public class InformedNaiveMCTSNode extends MCTSNode {
             actions = new ArrayList<>();
             children = new ArrayList<>();
             unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
+            actionCodes = new ActionCodes(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 double []prior_distribution = model.predictDistribution(choice.m_a, gs, choice.m_b);
                 InformedUnitActionTableEntry ae = new InformedUnitActionTableEntry(choice.m_a, choice.m_b, prior_distribution);
                 unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));                
-                idx++;
            }
         } else {
             type = -1;
@@ -113,7 +104,7 @@ public class InformedNaiveMCTSNode extends MCTSNode {
         } 
         */
         
-        if (children.size()>0 && r.nextFloat()>=epsilon_0) {
+        if (children.size()>0 && random().nextDouble()>=epsilon_0) {
             // sample from the global MAB:
             InformedNaiveMCTSNode selected = null;
             if (global_strategy==E_GREEDY) selected = selectFromAlreadySampledEpsilonGreedy(epsilon_g);
@@ -128,7 +119,7 @@ public class InformedNaiveMCTSNode extends MCTSNode {
 
     
     public InformedNaiveMCTSNode selectFromAlreadySampledEpsilonGreedy(float epsilon_g) throws Exception {
-        if (r.nextFloat()>=epsilon_g) {
+        if (random().nextDouble()>=epsilon_g) {
             InformedNaiveMCTSNode best = null;
             for(MCTSNode pate:children) {
                 if (type==0) {
@@ -147,7 +138,7 @@ public class InformedNaiveMCTSNode extends MCTSNode {
             return best;
         } else {
             // choose one at random from the ones seen so far:
-            InformedNaiveMCTSNode best = (InformedNaiveMCTSNode)children.get(r.nextInt(children.size()));
+            InformedNaiveMCTSNode best = (InformedNaiveMCTSNode)children.get(random().nextInt(children.size()));
             return best;
         }
     }
@@ -180,7 +171,7 @@ public class InformedNaiveMCTSNode extends MCTSNode {
     
     public InformedNaiveMCTSNode selectLeafUsingLocalMABs(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {   
         PlayerAction pa2;
-        BigInteger actionCode;       
+        int actionIndices[] = new int[unitActionTable.size()];
 
         // For each unit, rank the unitActions according to preference:
         List<double []> distributions = new LinkedList<>();
@@ -247,10 +238,9 @@ public class InformedNaiveMCTSNode extends MCTSNode {
         }
 
         pa2 = new PlayerAction();
-        actionCode = BigInteger.ZERO;
         pa2.setResourceUsage(base_ru.clone());            
         while(!notSampledYet.isEmpty()) {
-            int i = notSampledYet.remove(r.nextInt(notSampledYet.size()));
+            int i = notSampledYet.remove(random().nextInt(notSampledYet.size()));
 
             try {
                 InformedUnitActionTableEntry ate = unitActionTable.get(i);
@@ -289,13 +279,14 @@ public class InformedNaiveMCTSNode extends MCTSNode {
                 pa2.getResourceUsage().merge(r2);
                 pa2.addUnitAction(ate.u, ua);
 
-                actionCode = actionCode.add(BigInteger.valueOf(code).multiply(multipliers[i]));
+                actionIndices[i] = code;
                 
             } catch(Exception e) {
                 e.printStackTrace();
             }
         }   
 
+        long actionCode = actionCodes.getKey(actionIndices);
         InformedNaiveMCTSNode pate = childrenMap.get(actionCode);
         if (pate==null) {
             actions.add(pa2);            
@@ -329,12 +320,13 @@ public class InformedNaiveMCTSNode extends MCTSNode {
             int idx = children.indexOf(child);
             PlayerAction pa = actions.get(idx);
 
-            for (Pair<Unit, UnitAction> ua : pa.getActions()) {
-                InformedUnitActionTableEntry actionTable = getActionTableEntry(ua.m_a);
-                idx = actionTable.actions.indexOf(ua.m_b);
+            for (int i = 0; i < pa.size(); i++) {
+                UnitAction ua = pa.getUnitAction(i);
+                InformedUnitActionTableEntry actionTable = getActionTableEntry(pa.getUnit(i));
+                idx = actionTable.actions.indexOf(ua);
 
                 if (idx==-1) {
-                    System.out.println("Looking for action: " + ua.m_b);
+                    System.out.println("Looking for action: " + ua);
                     System.out.println("Available actions are: " + actionTable.actions);
                 }
                 
@@ -41,6 +41,12 @@ public class MLPSMCTS extends AIWithComputationBudget implements InterruptibleAI
     
     double C = 0.05;
     
+    // whether to reuse the subtree of the previous search whose root is the new game state (if any):
+    public boolean reuseTree = false;
+    // the action returned by the last search, which is the only child of its root
+    // where the next search looks for the new game state when reusing the tree:
+    PlayerAction lastAction = null;
+    
     // statistics:
     public long total_runs = 0;
     public long total_cycles_executed = 0;
@@ -79,14 +85,20 @@ public class MLPSMCTS extends AIWithComputationBudget implements InterruptibleAI
         
     
     public AI clone() {
-        return new MLPSMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, C, randomAI, ef);
+        MLPSMCTS clone = new MLPSMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, C, randomAI, ef);
+        clone.reuseTree = reuseTree;
+        return clone;
     }    
     
     
     public PlayerAction getAction(int player, GameState gs) throws Exception
     {
         if (gs.canExecuteAnyAction(player)) {
-            startNewComputation(player,gs.clone());
+            // the search uses the random number generator of this AI, so that it does not
+            // change the one of the game (or race with it, if the game runs in another thread):
+            GameState s = gs.clone();
+            s.setContext(getSimulationContext());
+            startNewComputation(player,s);
             computeDuringOneGameFrame();
             return getBestActionSoFar();
         } else {
@@ -96,10 +108,22 @@ public class MLPSMCTS extends AIWithComputationBudget implements InterruptibleAI
     
     
     public void startNewComputation(int a_player, GameState gs) throws Exception {
+        MLPSNode reused = null;
+        if (reuseTree && tree!=null && playerForThisComputation==a_player) {
+            // in deterministic games, the new state is often already in the tree:
+            reused = (MLPSNode)tree.findDescendant(gs, lastAction);
+        }
     	playerForThisComputation = a_player;
-        current_iteration = 0;
-        float evaluation_bound = ef.upperBound(gs);
-        tree = new MLPSNode(playerForThisComputation, 1-playerForThisComputation, gs, null, evaluation_bound, current_iteration++);
+        lastAction = null;
+        if (reused!=null) {
+            // creation IDs keep increasing, so that the reused nodes are older than the new ones
+            reused.makeRoot();
+            tree = reused;
+        } else {
+            current_iteration = 0;
+            float evaluation_bound = ef.upperBound(gs);
+            tree = new MLPSNode(playerForThisComputation, 1-playerForThisComputation, gs, null, evaluation_bound, current_iteration++);
+        }
         
         if (tree.moveGenerator!=null) {
             max_actions_so_far = Math.max(tree.moveGenerator.getSize(),max_actions_so_far);
@@ -166,7 +190,8 @@ public class MLPSMCTS extends AIWithComputationBudget implements InterruptibleAI
             MLPSNode best = (MLPSNode) tree.children.get(idx);
             System.out.println("MLPSMCTS selected children " + tree.actions.get(idx) + " explored " + best.visit_count + " Avg evaluation: " + (best.accum_evaluation/((double)best.visit_count)));
         }
-        return tree.actions.get(idx);
+        lastAction = tree.actions.get(idx);
+        return lastAction;
     }
     
     
@@ -277,6 +302,8 @@ public class MLPSMCTS extends AIWithComputationBudget implements InterruptibleAI
                 
         parameters.add(new ParameterSpecification("DefaultPolicy",AI.class, randomAI));
         parameters.add(new ParameterSpecification("EvaluationFunction", EvaluationFunction.class, new SimpleSqrtEvaluationFunction3()));
+        
+        parameters.add(new ParameterSpecification("ReuseTree",boolean.class,false));
 
         return parameters;
     }    
@@ -330,4 +357,14 @@ public class MLPSMCTS extends AIWithComputationBudget implements InterruptibleAI
     public void setEvaluationFunction(EvaluationFunction a_ef) {
         ef = a_ef;
     }
+    
+    
+    public boolean getReuseTree() {
+        return reuseTree;
+    }
+    
+    
+    public void setReuseTree(boolean a_reuseTree) {
+        reuseTree = a_reuseTree;
+    }
 }
@@ -189,7 +189,7 @@ public class MLPSNode extends MCTSNode {
             List<Integer> notSampledYetIDs2 = new LinkedList<>(notSampledYetIDs);
             while(!notSampledYetIDs2.isEmpty()) {            
                 if (DEBUG>=2) System.out.println("notSampledYet: " + notSampledYetIDs2);
-                int i = r.nextInt(notSampledYetIDs2.size());
+                int i = random().nextInt(notSampledYetIDs2.size());
                 i = notSampledYetIDs2.remove(i);
                 try {
                     UnitActionTableEntry ate = unitActionTable.get(i);
@@ -293,12 +293,13 @@ public class MLPSNode extends MCTSNode {
             int idx = children.indexOf(child);
             PlayerAction pa = actions.get(idx);
 
-            for (Pair<Unit, UnitAction> ua : pa.getActions()) {
-                UnitActionTableEntry actionTable = getActionTableEntry(ua.m_a);
-                idx = actionTable.actions.indexOf(ua.m_b);
+            for (int i = 0; i < pa.size(); i++) {
+                UnitAction ua = pa.getUnitAction(i);
+                UnitActionTableEntry actionTable = getActionTableEntry(pa.getUnit(i));
+                idx = actionTable.actions.indexOf(ua);
 
                 if (idx==-1) {
-                    System.out.println("Looking for action: " + ua.m_b);
+                    System.out.println("Looking for action: " + ua);
                     System.out.println("Available actions are: " + actionTable.actions);
                 }
                 
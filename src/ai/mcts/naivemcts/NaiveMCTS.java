@@ -11,11 +11,21 @@ import ai.core.ParameterSpecification;
 import ai.evaluation.EvaluationFunction;
 import ai.evaluation.SimpleSqrtEvaluationFunction3;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import rts.GameState;
 import rts.PlayerAction;
+import rts.SimulationContext;
 import rts.units.UnitTypeTable;
+import util.LongHashMap;
 import ai.core.InterruptibleAI;
 
 /**
@@ -26,13 +36,15 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     public static int DEBUG = 0;
     public EvaluationFunction ef;
        
-    Random r = new Random();
     public AI playoutPolicy = new RandomBiasedAI();
     protected long max_actions_so_far = 0;
     
     protected GameState gs_to_start_from;
     protected NaiveMCTSNode tree;
     protected int current_iteration = 0;
+    // with tree parallelization, the iteration counter shared by all the threads searching 
+    // the tree, so that the creation IDs of the nodes are unique (replaces current_iteration):
+    AtomicInteger sharedIteration = null;
             
     public int MAXSIMULATIONTIME = 1024;
     public int MAX_TREE_DEPTH = 10;
@@ -55,6 +67,30 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     public int global_strategy = NaiveMCTSNode.E_GREEDY;
     public boolean forceExplorationOfNonSampledActions = true;
     
+    // whether to reuse the subtree of the previous search whose root is the new game state (if any):
+    public boolean reuseTree = false;
+    // the action returned by the last search, which is the only child of its root
+    // where the next search looks for the new game state when reusing the tree:
+    PlayerAction lastAction = null;
+    
+    // whether equivalent states reached through different actions share their node (see 
+    // NaiveMCTSNode.transpositions). It cannot be combined with tree parallelization, where 
+    // each node must have a single parent (see setTranspositions):
+    public boolean useTranspositions = false;
+    protected LongHashMap<NaiveMCTSNode> transpositions = null;
+    
+    // parallelization: when threads>1, threads-1 "workers" search in parallel with this instance.
+    // - root parallelization (the default): each worker grows its own tree from gs_to_start_from 
+    //   (with independent random number generators), and the statistics of the children of the 
+    //   roots are merged to choose the action.
+    // - tree parallelization (treeParallel = true): all of them search the tree of this instance, 
+    //   each with its own simulation context ("context", which is null otherwise).
+    public int threads = 1;
+    public boolean treeParallel = false;
+    protected NaiveMCTS workers[] = null;
+    protected SimulationContext context = null;
+    ExecutorService pool = null;
+    
     // statistics:
     public long total_runs = 0;
     public long total_cycles_executed = 0;
@@ -124,23 +160,49 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     public void reset() {
         tree = null;
         gs_to_start_from = null;
+        workers = null;
+        shutdownPool();
         total_runs = 0;
         total_cycles_executed = 0;
         total_actions_issued = 0;
         total_time = 0;
         current_iteration = 0;
+        sharedIteration = null;
     }    
         
     
     public AI clone() {
-        return new NaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, epsilon_l, discount_l, epsilon_g, discount_g, epsilon_0, discount_0, playoutPolicy, ef, forceExplorationOfNonSampledActions);
+        NaiveMCTS clone = new NaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, epsilon_l, discount_l, epsilon_g, discount_g, epsilon_0, discount_0, playoutPolicy, ef, forceExplorationOfNonSampledActions);
+        clone.threads = threads;
+        clone.treeParallel = treeParallel;
+        clone.reuseTree = reuseTree;
+        clone.useTranspositions = useTranspositions;
+        return clone;
     }    
     
     
+    /**
+     * Creates one of the single threaded searches used for root parallelization.
+     * It gets its own copy of the playout policy, since policies might reuse 
+     * internal buffers
+     */
+    protected NaiveMCTS createWorker() {
+        NaiveMCTS worker = new NaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, initial_epsilon_l, discount_l, initial_epsilon_g, discount_g, initial_epsilon_0, discount_0, playoutPolicy.clone(), ef, forceExplorationOfNonSampledActions);
+        worker.global_strategy = global_strategy;
+        worker.reuseTree = reuseTree;
+        worker.useTranspositions = useTranspositions;
+        return worker;
+    }
+    
+    
     public PlayerAction getAction(int player, GameState gs) throws Exception
     {
         if (gs.canExecuteAnyAction(player)) {
-            startNewComputation(player,gs.clone());
+            // the search uses the random number generator of this AI, so that it does not
+            // change the one of the game (or race with it, if the game runs in another thread):
+            GameState s = gs.clone();
+            s.setContext(getSimulationContext());
+            startNewComputation(player,s);
             computeDuringOneGameFrame();
             return getBestActionSoFar();
         } else {
@@ -150,9 +212,39 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     
     
     public void startNewComputation(int a_player, GameState gs) throws Exception {
+        boolean shareTree = (threads>1 && treeParallel);
+        if (sharedIteration!=null) {
+            current_iteration = sharedIteration.get();
+            sharedIteration = null;
+        }
+        if (treeParallel && useTranspositions) throw new IllegalStateException("NaiveMCTS: transpositions cannot be used with tree parallelization");
+        NaiveMCTSNode reused = null;
+        if (reuseTree && tree!=null && player==a_player) {
+            // in deterministic games, the new state is often already in the tree:
+            reused = (NaiveMCTSNode)tree.findDescendant(gs, lastAction);
+            if (reused!=null && reused.concurrent!=shareTree) reused = null;
+            if (reused!=null && (reused.transpositions!=null)!=useTranspositions) reused = null;
+        }
         player = a_player;
-        current_iteration = 0;
-        tree = new NaiveMCTSNode(player, 1-player, gs, null, ef.upperBound(gs), current_iteration++, forceExplorationOfNonSampledActions);
+        if (reused!=null) {
+            // creation IDs keep increasing, so that the reused nodes are older than the new ones
+            reused.makeRoot();
+            tree = reused;
+        } else {
+            current_iteration = 0;
+            tree = new NaiveMCTSNode(player, 1-player, gs, null, ef.upperBound(gs), current_iteration++, forceExplorationOfNonSampledActions);
+        }
+        if (useTranspositions) {
+            transpositions = new LongHashMap<>();
+            if (reused==null) {
+                tree.transpositions = transpositions;
+            } else {
+                // only the nodes below the new root can be reached anymore:
+                tree.rebuildTranspositions(transpositions);
+            }
+        } else {
+            transpositions = null;
+        }
         
         if (tree.moveGenerator==null) {
             max_actions_so_far = 0;
@@ -164,40 +256,164 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
         epsilon_l = initial_epsilon_l;
         epsilon_g = initial_epsilon_g;
         epsilon_0 = initial_epsilon_0;        
+        
+        boolean rootParallel = (workers!=null && context==null);
+        context = null;
+        if (shareTree) {
+            if (!tree.concurrent) tree.setConcurrent();
+            context = getSimulationContext().split();
+            sharedIteration = new AtomicInteger(current_iteration);
+            workers = new NaiveMCTS[threads-1];
+            for(int i = 0;i<workers.length;i++) {
+                workers[i] = createWorker();
+                workers[i].startSharedComputation(this, getSimulationContext().split());
+            }
+        } else if (threads>1) {
+            // the workers of the previous search are kept, so that they can reuse their trees:
+            if (!rootParallel || workers.length!=threads-1) {
+                workers = new NaiveMCTS[threads-1];
+                for(int i = 0;i<workers.length;i++) workers[i] = createWorker();
+            }
+            for(NaiveMCTS worker:workers) {
+                // each worker searches a copy of the state with its own context, so that
+                // the workers do not share random number generators:
+                GameState gs2 = gs.clone();
+                gs2.setContext(getSimulationContext().split());
+                worker.reuseTree = reuseTree;
+                worker.lastAction = lastAction;
+                worker.startNewComputation(a_player, gs2);
+            }
+        } else {
+            workers = null;
+        }
+        lastAction = null;
     }    
     
     
+    /**
+     * Tree parallelization: makes this instance search the tree of another one
+     * @param owner
+     * @param a_context the simulation context used by this instance
+     */
+    protected void startSharedComputation(NaiveMCTS owner, SimulationContext a_context) {
+        player = owner.player;
+        tree = owner.tree;
+        gs_to_start_from = owner.gs_to_start_from;
+        sharedIteration = owner.sharedIteration;
+        context = a_context;
+        
+        epsilon_l = initial_epsilon_l;
+        epsilon_g = initial_epsilon_g;
+        epsilon_0 = initial_epsilon_0;        
+    }
+    
+    
     public void resetSearch() {
         if (DEBUG>=2) System.out.println("Resetting search...");
         tree = null;
         gs_to_start_from = null;
+        workers = null;
+        context = null;
+        shutdownPool();
+    }
+    
+    
+    /**
+     * Stops the threads of the pool used for parallel search (idle threads
+     * would otherwise stay alive for a minute). A new pool is created by the
+     * next parallel search.
+     */
+    protected void shutdownPool() {
+        if (pool!=null) {
+            pool.shutdown();
+            pool = null;
+        }
     }
     
 
     public void computeDuringOneGameFrame() throws Exception {        
         if (DEBUG>=2) System.out.println("Search...");
         long start = System.currentTimeMillis();
+        long end;
+        if (workers==null) {
+            end = search(start, ITERATIONS_BUDGET);
+        } else {
+            end = searchInParallel(start);
+        }
+        total_time += (end - start);
+        total_cycles_executed++;
+    }
+    
+    
+    /**
+     * Runs iterations on the tree of this instance until the time budget 
+     * (counted from "start") or the given number of iterations is exhausted
+     * @return the time at which the last iteration ended
+     */
+    protected long search(long start, long iterations) throws Exception {
         long end = start;
         long count = 0;
-        while(true) {
-            if (!iteration(player)) break;
-            count++;
-            end = System.currentTimeMillis();
-            if (TIME_BUDGET>=0 && (end - start)>=TIME_BUDGET) break; 
-            if (ITERATIONS_BUDGET>=0 && count>=ITERATIONS_BUDGET) break;             
+        if (context!=null) NaiveMCTSNode.threadContext.set(context);
+        try {
+            while(true) {
+                if (!iteration(player)) break;
+                count++;
+                end = System.currentTimeMillis();
+                if (TIME_BUDGET>=0 && (end - start)>=TIME_BUDGET) break; 
+                if (iterations>=0 && count>=iterations) break;             
+            }
+        } finally {
+            if (context!=null) NaiveMCTSNode.threadContext.remove();
         }
 //        System.out.println("HL: " + count + " time: " + (System.currentTimeMillis() - start) + " (" + available_time + "," + max_playouts + ")");
-        total_time += (end - start);
-        total_cycles_executed++;
+        return end;
+    }
+    
+    
+    /**
+     * Searches with this instance in the calling thread, and with the workers 
+     * in the thread pool. The iterations budget is split among the threads, 
+     * while each of them gets the whole time budget.
+     * @return the time at which the last iteration ended
+     */
+    protected long searchInParallel(long start) throws Exception {
+        if (pool==null) {
+            pool = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "NaiveMCTS");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        long iterations = (ITERATIONS_BUDGET>=0 ? (ITERATIONS_BUDGET + workers.length)/(workers.length+1) : -1);
+        List<Future<Long>> results = new ArrayList<>();
+        for(NaiveMCTS worker:workers) {
+            results.add(pool.submit(() -> worker.search(start, iterations)));
+        }
+        long end = search(start, iterations);
+        for(int i = 0;i<workers.length;i++) {
+            try {
+                end = Math.max(end, results.get(i).get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw e;
+            }
+            total_runs += workers[i].total_runs;
+            workers[i].total_runs = 0;
+            max_actions_so_far = Math.max(max_actions_so_far, workers[i].max_actions_so_far);
+        }
+        return end;
     }
     
     
     public boolean iteration(int player) throws Exception {
         
-        NaiveMCTSNode leaf = tree.selectLeaf(player, 1-player, epsilon_l, epsilon_g, epsilon_0, global_strategy, MAX_TREE_DEPTH, current_iteration++);
+        int creation_ID = (sharedIteration==null ? current_iteration++ : sharedIteration.getAndIncrement());
+        NaiveMCTSNode leaf = tree.selectLeaf(player, 1-player, epsilon_l, epsilon_g, epsilon_0, global_strategy, MAX_TREE_DEPTH, creation_ID);
 
         if (leaf!=null) {            
             GameState gs2 = leaf.gs.clone();
+            // when the tree is shared with other threads, the simulation uses the context of this one:
+            if (context!=null) gs2.setContext(context);
             simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME);
 
             int time = gs2.getTime() - gs_to_start_from.getTime();
@@ -222,6 +438,10 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     }
     
     public PlayerAction getBestActionSoFar() {
+        if (workers!=null && context==null) {
+            lastAction = getMostVisitedActionOfAllTrees();
+            return lastAction;
+        }
         int idx = getMostVisitedActionIdx();
         if (idx==-1) {
             if (DEBUG>=1) System.out.println("NaiveMCTS no children selected. Returning an empty asction");
@@ -232,7 +452,8 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
             NaiveMCTSNode best = (NaiveMCTSNode) tree.children.get(idx);
             System.out.println("NaiveMCTS selected children " + tree.actions.get(idx) + " explored " + best.visit_count + " Avg evaluation: " + (best.accum_evaluation/((double)best.visit_count)));
         }
-        return tree.actions.get(idx);
+        lastAction = tree.actions.get(idx);
+        return lastAction;
     }
     
     
@@ -265,6 +486,60 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     }
     
     
+    /**
+     * Root parallelization: merges the visit counts of the children of the 
+     * roots of this tree and of the trees of the workers, and returns the 
+     * action of the most visited one. Only the roots whose state is equal to 
+     * the one of the root of this tree are merged (each worker might have
+     * reused a subtree of its own previous tree, see findDescendant): their 
+     * unit action tables are then identical, and two children with the same 
+     * action code (see ActionCodes.getCode) correspond to the same 
+     * PlayerAction.
+     */
+    public PlayerAction getMostVisitedActionOfAllTrees() {
+        total_actions_issued++;
+        
+        if (tree.children==null) return new PlayerAction();
+        HashMap<Object,Integer> visits = new LinkedHashMap<>();
+        HashMap<Object,PlayerAction> actions = new HashMap<>();
+        for(int i = -1;i<workers.length;i++) {
+            NaiveMCTSNode root = (i<0 ? tree : workers[i].tree);
+            if (root.children==null) continue;
+            if (root!=tree && (root.gs.getTime()!=tree.gs.getTime() || 
+                               root.gs.getHash()!=tree.gs.getHash() || 
+                               !root.gs.equals(tree.gs))) continue;
+            // with transpositions, the parentAction of a child might come from another 
+            // parent, so the actions are looked up by the position of the child:
+            Map<NaiveMCTSNode,Integer> positions = null;
+            if (root.transpositions!=null) {
+                positions = new IdentityHashMap<>();
+                for(int j = 0;j<root.children.size();j++) positions.putIfAbsent((NaiveMCTSNode)root.children.get(j), j);
+            }
+            for(int j = 0;j<root.childrenMap.size();j++) {
+                Object code = root.actionCodes.getCode(root.childrenMap.keyAt(j));
+                NaiveMCTSNode child = root.childrenMap.valueAt(j);
+                visits.merge(code, child.visit_count, Integer::sum);
+                if (!actions.containsKey(code)) {
+                    actions.put(code, positions==null ? child.parentAction : root.actions.get(positions.get(child)));
+                }
+            }
+        }
+        
+        Object best = null;
+        for(Map.Entry<Object,Integer> e:visits.entrySet()) {
+            if (best==null || e.getValue()>visits.get(best)) best = e.getKey();
+        }
+        if (best==null) {
+            if (DEBUG>=1) System.out.println("NaiveMCTS no children selected. Returning an empty asction");
+            return new PlayerAction();
+        }
+        if (DEBUG>=1) {
+            System.out.println("NaiveMCTS selected children " + actions.get(best) + " explored " + visits.get(best) + " times in " + (workers.length+1) + " trees");
+        }
+        return actions.get(best);
+    }
+    
+    
     public int getHighestEvaluationActionIdx() {
         total_actions_issued++;
             
@@ -298,7 +573,8 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                // no unit can act until some action completes, so the idle cycles are skipped:
+                gameover = gs.cycleUntil(time);
             } else {
                 gs.issue(playoutPolicy.getAction(0, gs));
                 gs.issue(playoutPolicy.getAction(1, gs));
@@ -351,6 +627,11 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
 
         parameters.add(new ParameterSpecification("ForceExplorationOfNonSampledActions",boolean.class,true));
         
+        parameters.add(new ParameterSpecification("Threads",int.class,1));
+        parameters.add(new ParameterSpecification("TreeParallel",boolean.class,false));
+        parameters.add(new ParameterSpecification("ReuseTree",boolean.class,false));
+        parameters.add(new ParameterSpecification("Transpositions",boolean.class,false));
+        
         return parameters;
     }    
     
@@ -463,4 +744,52 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     {
         forceExplorationOfNonSampledActions = fensa;
     }    
+    
+    public int getThreads() {
+        return threads;
+    }
+    
+    public void setThreads(int a_threads)
+    {
+        threads = a_threads;
+    }    
+    
+    public boolean getTreeParallel() {
+        return treeParallel;
+    }
+    
+    /**
+     * @param a_treeParallel
+     * @throws IllegalArgumentException if it is true and transpositions are
+     * used, since tree parallelization needs each node to have a single parent
+     */
+    public void setTreeParallel(boolean a_treeParallel)
+    {
+        if (a_treeParallel && useTranspositions) throw new IllegalArgumentException("NaiveMCTS: tree parallelization cannot be used with transpositions");
+        treeParallel = a_treeParallel;
+    }    
+    
+    public boolean getReuseTree() {
+        return reuseTree;
+    }
+    
+    public void setReuseTree(boolean a_reuseTree)
+    {
+        reuseTree = a_reuseTree;
+    }    
+    
+    public boolean getTranspositions() {
+        return useTranspositions;
+    }
+    
+    /**
+     * @param a_useTranspositions
+     * @throws IllegalArgumentException if it is true and tree parallelization
+     * is used, since it needs each node to have a single parent
+     */
+    public void setTranspositions(boolean a_useTranspositions)
+    {
+        if (a_useTranspositions && treeParallel) throw new IllegalArgumentException("NaiveMCTS: transpositions cannot be used with tree parallelization");
+        useTranspositions = a_useTranspositions;
+    }    
 }
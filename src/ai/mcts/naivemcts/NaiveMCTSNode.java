@@ -4,11 +4,16 @@
  */
 package ai.mcts.naivemcts;
 
+import ai.mcts.ActionCodes;
 import ai.mcts.MCTSNode;
-import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 import rts.*;
 import rts.units.Unit;
+import util.LongHashMap;
 import util.Pair;
 import util.Sampler;
 
@@ -28,11 +33,39 @@ public class NaiveMCTSNode extends MCTSNode {
     boolean forceExplorationOfNonSampledActions = true;
     boolean hasMoreActions = true;
     public PlayerActionGenerator moveGenerator;
-    HashMap<BigInteger,NaiveMCTSNode> childrenMap = new LinkedHashMap<>();    // associates action codes with children
+    LongHashMap<NaiveMCTSNode> childrenMap = new LongHashMap<>();    // associates action codes with children
+    PlayerAction parentAction = null;   // the action that leads from the parent to this node (see transpositions)
     // Decomposition of the player actions in unit actions, and their contributions:
     public List<UnitActionTableEntry> unitActionTable;
     double evaluation_bound;    // this is the maximum positive value that the evaluation function can return
-    public BigInteger multipliers[];
+    public ActionCodes actionCodes;
+    
+    // tree parallelization (see NaiveMCTS.setTreeParallel): when "concurrent" is true, the tree
+    // is searched by several threads at the same time. The statistics of the nodes and of their 
+    // unit action tables are then updated atomically (see addEvaluation and UnitActionTableEntry.add)
+    // and read without locking, so that choosing among the children and backing up never block. 
+    // The game state of a node is not modified after the node is published (see prepareForConcurrentReads),
+    // so that several threads can sample actions and clone it at the same time. New children are 
+    // inserted with putIfAbsent in concurrentChildrenMap, and "actions" and "children" are 
+    // copy-on-write lists, so that they can be iterated while another thread appends to them. 
+    // The lock of a node is only held while appending a child to both lists. Each thread uses 
+    // its own simulation context rather than the one of the nodes:
+    boolean concurrent = false;
+    ConcurrentHashMap<Long,NaiveMCTSNode> concurrentChildrenMap = null;    // replaces childrenMap
+    AtomicLong concurrentEvaluation = null;   // accum_evaluation, as in Double.doubleToRawLongBits (see addEvaluation)
+    static final ThreadLocal<SimulationContext> threadContext = new ThreadLocal<>();
+    static final AtomicIntegerFieldUpdater<MCTSNode> VISIT_COUNT = AtomicIntegerFieldUpdater.newUpdater(MCTSNode.class, "visit_count");
+    
+    // transposition table (see NaiveMCTS.setTranspositions), shared by all the nodes of a search, 
+    // or null if it is not used. It associates the hash of the state of a node (the one reached after 
+    // issuing an action and advancing until a player can act, see GameState.getHash) with the node, 
+    // so that equivalent states reached through different actions share one node and its 
+    // statistics, and the tree becomes a DAG.
+    // The "parent" of a node in a DAG is the one through which it was reached last, and its
+    // "parentAction" and "depth" the ones of that path (see relink), so that propagateEvaluation 
+    // follows the path of the current iteration and credits the actions taken in it.
+    LongHashMap<NaiveMCTSNode> transpositions = null;
+    Set<NaiveMCTSNode> childrenSet = null;  // the children (by identity), only created if needed (see hasChild)
 
 
     public NaiveMCTSNode(int maxplayer, int minplayer, GameState a_gs, NaiveMCTSNode a_parent, double a_evaluation_bound, int a_creation_ID, boolean fensa) throws Exception {
@@ -40,16 +73,12 @@ public class NaiveMCTSNode extends MCTSNode {
         gs = a_gs;
         if (parent==null) depth = 0;
                      else depth = parent.depth+1;     
+        if (a_parent!=null) transpositions = a_parent.transpositions;
         evaluation_bound = a_evaluation_bound;
         creation_ID = a_creation_ID;
         forceExplorationOfNonSampledActions = fensa;
         
-        while (gs.winner() == -1 &&
-               !gs.gameover() &&
-               !gs.canExecuteAnyAction(maxplayer) &&
-               !gs.canExecuteAnyAction(minplayer)) {
-            gs.cycle();
-        }
+        advanceToDecision(gs, maxplayer, minplayer);
         if (gs.winner() != -1 || gs.gameover()) {
             type = -1;
         } else if (gs.canExecuteAnyAction(maxplayer)) {
@@ -58,9 +87,7 @@ public class NaiveMCTSNode extends MCTSNode {
             actions = new ArrayList<>();
             children = new ArrayList<>();
             unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
+            actionCodes = new ActionCodes(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 UnitActionTableEntry ae = new UnitActionTableEntry();
                 ae.u = choice.m_a;
@@ -73,9 +100,6 @@ public class NaiveMCTSNode extends MCTSNode {
                     ae.visit_count[i] = 0;
                 }
                 unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));
-                idx++;
              }
         } else if (gs.canExecuteAnyAction(minplayer)) {
             type = 1;
@@ -83,9 +107,7 @@ public class NaiveMCTSNode extends MCTSNode {
             actions = new ArrayList<>();
             children = new ArrayList<>();
             unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
+            actionCodes = new ActionCodes(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 UnitActionTableEntry ae = new UnitActionTableEntry();
                 ae.u = choice.m_a;
@@ -98,14 +120,80 @@ public class NaiveMCTSNode extends MCTSNode {
                     ae.visit_count[i] = 0;
                 }
                 unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));
-                idx++;
            }
         } else {
             type = -1;
             System.err.println("NaiveMCTSNode: This should not have happened...");
         }
+        if (a_parent!=null && a_parent.concurrent) setConcurrent();
+    }
+
+    
+    /**
+     * Makes this node (which must not have children yet), and the ones that will 
+     * be created below it, safe to be searched by several threads at the same time
+     */
+    void setConcurrent() {
+        concurrent = true;
+        concurrentChildrenMap = new ConcurrentHashMap<>();
+        concurrentEvaluation = new AtomicLong(Double.doubleToRawLongBits(accum_evaluation));
+        if (children!=null) {
+            actions = new CopyOnWriteArrayList<>(actions);
+            children = new CopyOnWriteArrayList<>(children);
+        }
+        if (unitActionTable!=null) {
+            for(UnitActionTableEntry ae:unitActionTable) ae.setConcurrent();
+        }
+        prepareForConcurrentReads();
+    }
+
+
+    /**
+     * The game state of a node builds some of its caches (the hash, the unit
+     * index of its map, the resource usage of the actions, etc.) the first time
+     * they are needed. They are built here, before the node is published to
+     * the other threads, so that sampling actions and cloning the state only
+     * read it afterwards
+     */
+    void prepareForConcurrentReads() {
+        gs.getHash();
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        pgs.getUnitCount(0);    // builds the unit index of the map, if it is out of date
+        for(Unit u:gs.getUnits()) {
+            UnitAction ua = gs.getUnitAction(u);
+            if (ua!=null) ua.resourceUsage(u, pgs);
+        }
+        if (unitActionTable!=null) {
+            for(UnitActionTableEntry ae:unitActionTable) {
+                for(UnitAction ua:ae.actions) ua.resourceUsage(ae.u, pgs);
+            }
+        }
+    }
+
+
+    /**
+     * Adds an evaluation to accum_evaluation in a concurrent node: the sum is
+     * updated with compareAndSet in concurrentEvaluation, and then copied to
+     * accum_evaluation until the copy is not older than the sum, so that the
+     * last update leaves both equal
+     * @param evaluation
+     */
+    void addEvaluation(double evaluation) {
+        long bits;
+        do {
+            bits = concurrentEvaluation.get();
+        } while (!concurrentEvaluation.compareAndSet(bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + evaluation)));
+        do {
+            bits = concurrentEvaluation.get();
+            accum_evaluation = Double.longBitsToDouble(bits);
+        } while (concurrentEvaluation.get()!=bits);
+    }
+    
+    
+    @Override
+    protected SplittableRandom random() {
+        if (concurrent) return threadContext.get().getRandom();
+        return super.random();
     }
 
     
@@ -113,6 +201,7 @@ public class NaiveMCTSNode extends MCTSNode {
     public NaiveMCTSNode selectLeaf(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {
         if (unitActionTable == null) return this;
         if (depth>=max_depth) return this;       
+        if (concurrent) return selectLeafConcurrently(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
         
         /*
         // DEBUG:
@@ -128,11 +217,13 @@ public class NaiveMCTSNode extends MCTSNode {
         } 
         */
         
-        if (children.size()>0 && r.nextFloat()>=epsilon_0) {
+        if (children.size()>0 && random().nextDouble()>=epsilon_0) {
             // sample from the global MAB:
-            NaiveMCTSNode selected = null;
-            if (global_strategy==E_GREEDY) selected = selectFromAlreadySampledEpsilonGreedy(epsilon_g);
-            else if (global_strategy==UCB1) selected = selectFromAlreadySampledUCB1(C);
+            int idx = -1;
+            if (global_strategy==E_GREEDY) idx = selectFromAlreadySampledEpsilonGreedyIdx(epsilon_g);
+            else if (global_strategy==UCB1) idx = selectFromAlreadySampledUCB1Idx(C);
+            NaiveMCTSNode selected = (NaiveMCTSNode)children.get(idx);
+            if (transpositions!=null) relink(selected, actions.get(idx));
             return selected.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
         }  else {
             // sample from the local MABs (this might recursively call "selectLeaf" internally):
@@ -143,35 +234,57 @@ public class NaiveMCTSNode extends MCTSNode {
 
     
     public NaiveMCTSNode selectFromAlreadySampledEpsilonGreedy(float epsilon_g) throws Exception {
-        if (r.nextFloat()>=epsilon_g) {
-            NaiveMCTSNode best = null;
-            for(MCTSNode pate:children) {
+        return (NaiveMCTSNode)children.get(selectFromAlreadySampledEpsilonGreedyIdx(epsilon_g));
+    }
+    
+    
+    /**
+     * Same as selectFromAlreadySampledEpsilonGreedy, but returns the index of 
+     * the selected child (which is also the index of its action in "actions")
+     */
+    public int selectFromAlreadySampledEpsilonGreedyIdx(float epsilon_g) throws Exception {
+        if (random().nextDouble()>=epsilon_g) {
+            MCTSNode best = null;
+            int bestIdx = -1;
+            for(int i = 0;i<children.size();i++) {
+                MCTSNode pate = children.get(i);
                 if (type==0) {
                     // max node:
                     if (best==null || (pate.accum_evaluation/pate.visit_count)>(best.accum_evaluation/best.visit_count)) {
-                        best = (NaiveMCTSNode)pate;
+                        best = pate;
+                        bestIdx = i;
                     }                    
                 } else {
                     // min node:
                     if (best==null || (pate.accum_evaluation/pate.visit_count)<(best.accum_evaluation/best.visit_count)) {
-                        best = (NaiveMCTSNode)pate;
+                        best = pate;
+                        bestIdx = i;
                     }                                        
                 }
             }
 
-            return best;
+            return bestIdx;
         } else {
             // choose one at random from the ones seen so far:
-            NaiveMCTSNode best = (NaiveMCTSNode)children.get(r.nextInt(children.size()));
-            return best;
+            return random().nextInt(children.size());
         }
     }
     
     
     public NaiveMCTSNode selectFromAlreadySampledUCB1(float C) throws Exception {
-        NaiveMCTSNode best = null;
+        return (NaiveMCTSNode)children.get(selectFromAlreadySampledUCB1Idx(C));
+    }
+    
+    
+    /**
+     * Same as selectFromAlreadySampledUCB1, but returns the index of the 
+     * selected child (which is also the index of its action in "actions")
+     */
+    public int selectFromAlreadySampledUCB1Idx(float C) throws Exception {
+        int bestIdx = -1;
         double bestScore = 0;
-        for(MCTSNode pate:children) {
+        for(int i = 0;i<children.size();i++) {
+            MCTSNode pate = children.get(i);
             double exploitation = ((double)pate.accum_evaluation) / pate.visit_count;
             double exploration = Math.sqrt(Math.log((double)visit_count)/pate.visit_count);
             if (type==0) {
@@ -183,19 +296,195 @@ public class NaiveMCTSNode extends MCTSNode {
     //            System.out.println(exploitation + " + " + exploration);
 
             double tmp = C*exploitation + exploration;            
-            if (best==null || tmp>bestScore) {
-                best = (NaiveMCTSNode)pate;
+            if (bestIdx==-1 || tmp>bestScore) {
+                bestIdx = i;
                 bestScore = tmp;
             }
         }
         
-        return best;
+        return bestIdx;
     }    
     
     
+    /**
+     * Same as selectLeaf, for trees searched by several threads. Neither 
+     * choosing among the children nor sampling from the local MABs locks the 
+     * node, and the virtual loss of the chosen child is added before descending 
+     * into it. When two threads create the same child, the node of the one that
+     * publishes it second is dropped.
+     */
+    NaiveMCTSNode selectLeafConcurrently(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {
+        NaiveMCTSNode selected;
+        // random() is the generator of this thread (see threadContext), not the one of the game state:
+        if (children.size()>0 && random().nextDouble()>=epsilon_0) {
+            // sample from the global MAB:
+            if (global_strategy==E_GREEDY) selected = selectFromAlreadySampledEpsilonGreedy(epsilon_g);
+                                      else selected = selectFromAlreadySampledUCB1(C);
+        } else {
+            // sample from the local MABs:
+            PlayerAction pa2 = new PlayerAction();
+            long actionCode = sampleUsingLocalMABs(epsilon_l, pa2);
+            selected = concurrentChildrenMap.get(actionCode);
+            if (selected==null) {
+                // the action is issued with the context of this thread, since issue might draw from it:
+                GameState gs2 = gs.cloneIssue(pa2, threadContext.get()).clone();
+                // another thread might insert the same child in the meantime:
+                NaiveMCTSNode node = new NaiveMCTSNode(maxplayer, minplayer, gs2, this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
+                node.parentAction = pa2;
+                selected = concurrentChildrenMap.putIfAbsent(actionCode, node);
+                if (selected==null) {
+                    // the virtual loss is added first, so that no thread finds a child without visits:
+                    addVirtualLoss(node);
+                    synchronized(this) {
+                        actions.add(pa2);
+                        children.add(node);
+                    }
+                    return node;
+                }
+            }
+        }
+        
+        addVirtualLoss(selected);
+        return selected.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
+    }
+    
+    
+    /**
+     * Virtual loss: while a thread searches below a child, the child (and its 
+     * unit actions) count one additional visit with the worst evaluation for the 
+     * player of this node, so that other threads tend to search other children. 
+     * It is replaced by the actual evaluation in propagateEvaluationConcurrently.
+     */
+    void addVirtualLoss(NaiveMCTSNode child) {
+        VISIT_COUNT.incrementAndGet(child);
+        child.addEvaluation(virtualLoss());
+        updateUnitActionTable(child.parentAction, virtualLoss(), 1);
+    }
+    
+    
+    double virtualLoss() {
+        return (type==0 ? -evaluation_bound : evaluation_bound);
+    }
+    
+    
+    /**
+     * Advances a game state until one of the players can act or the game is
+     * over, which is the state of the node created for it
+     */
+    static void advanceToDecision(GameState gs, int maxplayer, int minplayer) {
+        while (gs.winner() == -1 &&
+               !gs.gameover() &&
+               !gs.canExecuteAnyAction(maxplayer) &&
+               !gs.canExecuteAnyAction(minplayer)) {
+            gs.advanceToNextEvent();
+        }
+    }
+    
+    
     public NaiveMCTSNode selectLeafUsingLocalMABs(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {   
-        PlayerAction pa2;
-        BigInteger actionCode;       
+        PlayerAction pa2 = new PlayerAction();
+        long actionCode = sampleUsingLocalMABs(epsilon_l, pa2);
+
+        NaiveMCTSNode pate = childrenMap.get(actionCode);
+        if (pate==null) {
+            // cloneIssue shares the map of this node, so it is cloned before advancing it:
+            GameState gs2 = gs.cloneIssue(pa2).clone();
+            boolean inTable = false;
+            if (transpositions!=null) {
+                // the table is indexed by the states of the nodes, where some player can act:
+                advanceToDecision(gs2, maxplayer, minplayer);
+                pate = transpositions.get(gs2.getHash());
+                // different states can have the same hash, so matches are confirmed:
+                if (pate!=null && pate.gs.equals(gs2)) {
+                    // a transposition: the node is linked as a child of this one, and the search 
+                    // continues through it, since it might have been expanded already
+                    childrenMap.put(actionCode,pate);
+                    if (!hasChild(pate)) addChild(pa2, pate);
+                    relink(pate, pa2);
+                    return pate.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
+                }
+                // on a collision, the table keeps the node that was there first:
+                inTable = (pate!=null);
+            }
+            NaiveMCTSNode node = new NaiveMCTSNode(maxplayer, minplayer, gs2, this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
+            node.parentAction = pa2;
+            childrenMap.put(actionCode,node);
+            addChild(pa2, node);
+            if (transpositions!=null && !inTable) transpositions.put(gs2.getHash(), node);
+            return node;                
+        }
+
+        if (transpositions!=null) relink(pate, pa2);
+        return pate.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
+    }
+    
+    
+    void addChild(PlayerAction action, NaiveMCTSNode child) {
+        actions.add(action);
+        children.add(child);
+        if (childrenSet!=null) childrenSet.add(child);
+    }
+    
+    
+    /**
+     * Returns whether a node is a child of this one, in constant time (nodes
+     * reached through transpositions might already be children of this node
+     * through other actions)
+     * @param node
+     * @return
+     */
+    boolean hasChild(NaiveMCTSNode node) {
+        if (childrenSet==null) {
+            childrenSet = Collections.newSetFromMap(new IdentityHashMap<>());
+            for(MCTSNode child:children) childrenSet.add((NaiveMCTSNode)child);
+        }
+        return childrenSet.contains(node);
+    }
+    
+    
+    /**
+     * Makes a child, which might have several parents (see transpositions), 
+     * part of the path of the current iteration: this node becomes its parent,
+     * the action it was reached through is the one credited by 
+     * propagateEvaluation, and its depth is the one in this path (the depths 
+     * of the nodes below it are updated as the path goes through them)
+     */
+    void relink(NaiveMCTSNode child, PlayerAction action) {
+        child.parent = this;
+        child.parentAction = action;
+        child.depth = depth+1;
+    }
+    
+    
+    /**
+     * Makes the nodes of the subtree of this node use a new transposition 
+     * table, which is filled with them (but not with this node, as the root
+     * of a search is not in its table). Used when the subtree is reused by a
+     * new search, since the rest of the old table cannot be reached anymore.
+     * @param table
+     */
+    public void rebuildTranspositions(LongHashMap<NaiveMCTSNode> table) {
+        transpositions = table;
+        if (children==null) return;
+        for(MCTSNode child:children) {
+            NaiveMCTSNode node = (NaiveMCTSNode)child;
+            // nodes with several parents are only visited once:
+            if (node.transpositions==table) continue;
+            table.put(node.gs.getHash(), node);
+            node.rebuildTranspositions(table);
+        }
+    }
+    
+    
+    /**
+     * Samples a player action using the local MABs of the units (one per unit, 
+     * with epsilon-greedy sampling), making sure that the resulting action is
+     * consistent with the resources available
+     * @param pa2 where the player action is stored
+     * @return the action code of the player action
+     */
+    long sampleUsingLocalMABs(float epsilon_l, PlayerAction pa2) throws Exception {
+        int actionIndices[] = new int[unitActionTable.size()];
 
         // For each unit, rank the unitActions according to preference:
         List<double []> distributions = new LinkedList<>();
@@ -209,38 +498,38 @@ public class NaiveMCTSNode extends MCTSNode {
                 if (type==0) {
                     // max node:
                     if (bestIdx==-1 || 
-                        (visits!=0 && ate.visit_count[i]==0) ||
-                        (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])>bestEvaluation)) {
+                        (visits!=0 && ate.getVisitCount(i)==0) ||
+                        (visits!=0 && (ate.getAccumEvaluation(i)/ate.getVisitCount(i))>bestEvaluation)) {
                         bestIdx = i;
-                        if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
+                        if (ate.getVisitCount(i)>0) bestEvaluation = (ate.getAccumEvaluation(i)/ate.getVisitCount(i));
                                              else bestEvaluation = 0;
-                        visits = ate.visit_count[i];
+                        visits = ate.getVisitCount(i);
                     }
                 } else {
                     // min node:
                     if (bestIdx==-1 || 
-                        (visits!=0 && ate.visit_count[i]==0) ||
-                        (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])<bestEvaluation)) {
+                        (visits!=0 && ate.getVisitCount(i)==0) ||
+                        (visits!=0 && (ate.getAccumEvaluation(i)/ate.getVisitCount(i))<bestEvaluation)) {
                         bestIdx = i;
-                        if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
+                        if (ate.getVisitCount(i)>0) bestEvaluation = (ate.getAccumEvaluation(i)/ate.getVisitCount(i));
                                              else bestEvaluation = 0;
-                        visits = ate.visit_count[i];
+                        visits = ate.getVisitCount(i);
                     }
                 }
                 dist[i] = epsilon_l/ate.nactions;
             }
-            if (ate.visit_count[bestIdx]!=0) {
+            if (ate.getVisitCount(bestIdx)!=0) {
                 dist[bestIdx] = (1-epsilon_l) + (epsilon_l/ate.nactions);
             } else {
                 if (forceExplorationOfNonSampledActions) {
                     for(int j = 0;j<dist.length;j++) 
-                        if (ate.visit_count[j]>0) dist[j] = 0;
+                        if (ate.getVisitCount(j)>0) dist[j] = 0;
                 }
             }  
 
             if (DEBUG>=3) {
                 System.out.print("[ ");
-                for(int i = 0;i<ate.nactions;i++) System.out.print("(" + ate.visit_count[i] + "," + ate.accum_evaluation[i]/ate.visit_count[i] + ")");
+                for(int i = 0;i<ate.nactions;i++) System.out.print("(" + ate.getVisitCount(i) + "," + ate.getAccumEvaluation(i)/ate.getVisitCount(i) + ")");
                 System.out.println("]");
                 System.out.print("[ ");
                 for (double v : dist) System.out.print(v + " ");
@@ -261,11 +550,9 @@ public class NaiveMCTSNode extends MCTSNode {
             }
         }
 
-        pa2 = new PlayerAction();
-        actionCode = BigInteger.ZERO;
         pa2.setResourceUsage(base_ru.clone());            
         while(!notSampledYet.isEmpty()) {
-            int i = notSampledYet.remove(r.nextInt(notSampledYet.size()));
+            int i = notSampledYet.remove(random().nextInt(notSampledYet.size()));
 
             try {
                 UnitActionTableEntry ate = unitActionTable.get(i);
@@ -275,7 +562,7 @@ public class NaiveMCTSNode extends MCTSNode {
 
                 // try one at random:
                 double []distribution = distributions.get(i);
-                code = Sampler.weighted(distribution);
+                code = Sampler.weighted(distribution, distribution.length, random());
                 ua = ate.actions.get(code);
                 r2 = ua.resourceUsage(ate.u, gs.getPhysicalGameState());
                 if (!pa2.getResourceUsage().consistentWith(r2, gs)) {
@@ -291,7 +578,7 @@ public class NaiveMCTSNode extends MCTSNode {
                         int idx = dist_outputs.indexOf(code);
                         dist_l.remove(idx);
                         dist_outputs.remove(idx);
-                        code = (Integer)Sampler.weighted(dist_l, dist_outputs);
+                        code = (Integer)Sampler.weighted(dist_l, dist_outputs, random());
                         ua = ate.actions.get(code);
                         r2 = ua.resourceUsage(ate.u, gs.getPhysicalGameState());                            
                     }while(!pa2.getResourceUsage().consistentWith(r2, gs));
@@ -304,24 +591,14 @@ public class NaiveMCTSNode extends MCTSNode {
                 pa2.getResourceUsage().merge(r2);
                 pa2.addUnitAction(ate.u, ua);
 
-                actionCode = actionCode.add(BigInteger.valueOf(code).multiply(multipliers[i]));
+                actionIndices[i] = code;
 
             } catch(Exception e) {
                 e.printStackTrace();
             }
         }   
-
-        NaiveMCTSNode pate = childrenMap.get(actionCode);
-        if (pate==null) {
-            actions.add(pa2);            
-            GameState gs2 = gs.cloneIssue(pa2);
-            NaiveMCTSNode node = new NaiveMCTSNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
-            childrenMap.put(actionCode,node);
-            children.add(node);          
-            return node;                
-        }
-
-        return pate.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
+        
+        return actionCodes.getKey(actionIndices);
     }
     
     
@@ -334,40 +611,63 @@ public class NaiveMCTSNode extends MCTSNode {
 
 
     public void propagateEvaluation(double evaluation, NaiveMCTSNode child) {
+        if (concurrent) {
+            propagateEvaluationConcurrently(evaluation);
+            return;
+        }
         accum_evaluation += evaluation;
         visit_count++;
         
 //        if (child!=null) System.out.println(evaluation);
 
         // update the unitAction table:
-        if (child != null) {
-            int idx = children.indexOf(child);
-            PlayerAction pa = actions.get(idx);
-
-            for (Pair<Unit, UnitAction> ua : pa.getActions()) {
-                UnitActionTableEntry actionTable = getActionTableEntry(ua.m_a);
-                idx = actionTable.actions.indexOf(ua.m_b);
-
-                if (idx==-1) {
-                    System.out.println("Looking for action: " + ua.m_b);
-                    System.out.println("Available actions are: " + actionTable.actions);
-                }
-                
-                actionTable.accum_evaluation[idx] += evaluation;
-                actionTable.visit_count[idx]++;
-            }
-        }
+        if (child != null) updateUnitActionTable(child.parentAction, evaluation, 1);
 
         if (parent != null) {
             ((NaiveMCTSNode)parent).propagateEvaluation(evaluation, this);
         }
     }
+    
+    
+    /**
+     * Same as propagateEvaluation, for trees searched by several threads: the
+     * statistics of each node in the path are updated atomically, replacing 
+     * the virtual loss added when it was selected
+     */
+    void propagateEvaluationConcurrently(double evaluation) {
+        NaiveMCTSNode node = this;
+        while(node.parent!=null) {
+            NaiveMCTSNode p = (NaiveMCTSNode)node.parent;
+            double correction = evaluation - p.virtualLoss();
+            node.addEvaluation(correction);
+            p.updateUnitActionTable(node.parentAction, correction, 0);
+            node = p;
+        }
+        node.addEvaluation(evaluation);
+        VISIT_COUNT.incrementAndGet(node);
+    }
+    
+    
+    void updateUnitActionTable(PlayerAction pa, double evaluation, int visits) {
+        for (int i = 0; i < pa.size(); i++) {
+            UnitAction ua = pa.getUnitAction(i);
+            UnitActionTableEntry actionTable = getActionTableEntry(pa.getUnit(i));
+            int idx = actionTable.actions.indexOf(ua);
+
+            if (idx==-1) {
+                System.out.println("Looking for action: " + ua);
+                System.out.println("Available actions are: " + actionTable.actions);
+            }
+            
+            actionTable.add(idx, evaluation, visits);
+        }
+    }
 
     public void printUnitActionTable() {
         for (UnitActionTableEntry uat : unitActionTable) {
             System.out.println("Actions for unit " + uat.u);
             for (int i = 0; i < uat.nactions; i++) {
-                System.out.println("   " + uat.actions.get(i) + " visited " + uat.visit_count[i] + " with average evaluation " + (uat.accum_evaluation[i] / uat.visit_count[i]));
+                System.out.println("   " + uat.actions.get(i) + " visited " + uat.getVisitCount(i) + " with average evaluation " + (uat.getAccumEvaluation(i) / uat.getVisitCount(i)));
             }
         }
     }    
@@ -4,9 +4,7 @@
  */
 package ai.mcts.naivemcts;
 
-import static ai.mcts.MCTSNode.r;
 import static ai.mcts.naivemcts.NaiveMCTSNode.DEBUG;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -36,7 +34,7 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
         float epsilon_g = (visit_count<phase1_budget ? eg1 : eg2);
         int global_strategy = (visit_count<phase1_budget ? a_gs1 : a_gs2);
         
-        if (children.size()>0 && r.nextFloat()>=epsilon_0) {
+        if (children.size()>0 && random().nextDouble()>=epsilon_0) {
             // sample from the global MAB:
             TwoPhaseNaiveMCTSNode selected = null;
             if (global_strategy==E_GREEDY) selected = (TwoPhaseNaiveMCTSNode)selectFromAlreadySampledEpsilonGreedy(epsilon_g);
@@ -54,7 +52,7 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
                                                                                         int phase1_budget,
                                                                                         int max_depth, int a_creation_ID) throws Exception {   
         PlayerAction pa2;
-        BigInteger actionCode;       
+        int actionIndices[] = new int[unitActionTable.size()];
         
         float epsilon_l = (visit_count<phase1_budget ? el1 : el2);      
 
@@ -121,10 +119,9 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
         }
 
         pa2 = new PlayerAction();
-        actionCode = BigInteger.ZERO;
         pa2.setResourceUsage(base_ru.clone());            
         while(!notSampledYet.isEmpty()) {
-            int i = notSampledYet.remove(r.nextInt(notSampledYet.size()));
+            int i = notSampledYet.remove(random().nextInt(notSampledYet.size()));
 
             try {
                 UnitActionTableEntry ate = unitActionTable.get(i);
@@ -163,18 +160,20 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
                 pa2.getResourceUsage().merge(r2);
                 pa2.addUnitAction(ate.u, ua);
 
-                actionCode = actionCode.add(BigInteger.valueOf(code).multiply(multipliers[i]));
+                actionIndices[i] = code;
                 
             } catch(Exception e) {
                 e.printStackTrace();
             }
         }   
 
+        long actionCode = actionCodes.getKey(actionIndices);
         TwoPhaseNaiveMCTSNode pate = (TwoPhaseNaiveMCTSNode)childrenMap.get(actionCode);
         if (pate==null) {
             actions.add(pa2);            
             GameState gs2 = gs.cloneIssue(pa2);
             TwoPhaseNaiveMCTSNode node = new TwoPhaseNaiveMCTSNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
+            node.parentAction = pa2;
             childrenMap.put(actionCode,node);
             children.add(node);          
             return node;                
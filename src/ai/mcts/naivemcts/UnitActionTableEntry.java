@@ -5,6 +5,8 @@
 package ai.mcts.naivemcts;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 import rts.UnitAction;
 import rts.units.Unit;
 
@@ -18,4 +20,57 @@ public class UnitActionTableEntry {
     public List<UnitAction> actions;
     public double[] accum_evaluation;
     public int[] visit_count;
+
+    // when the entry is updated by several threads (see setConcurrent), the statistics
+    // are kept in these arrays instead (the evaluations as in Double.doubleToRawLongBits),
+    // and should be read with getAccumEvaluation and getVisitCount:
+    AtomicLongArray concurrentEvaluation = null;
+    AtomicIntegerArray concurrentVisitCount = null;
+
+
+    /**
+     * Makes the statistics of this entry safe to be updated by several threads
+     * (see add). From then on, accum_evaluation and visit_count are not updated
+     */
+    public void setConcurrent() {
+        concurrentEvaluation = new AtomicLongArray(nactions);
+        concurrentVisitCount = new AtomicIntegerArray(nactions);
+        for(int i = 0;i<nactions;i++) {
+            concurrentEvaluation.set(i, Double.doubleToRawLongBits(accum_evaluation[i]));
+            concurrentVisitCount.set(i, visit_count[i]);
+        }
+    }
+
+
+    public double getAccumEvaluation(int i) {
+        if (concurrentEvaluation!=null) return Double.longBitsToDouble(concurrentEvaluation.get(i));
+        return accum_evaluation[i];
+    }
+
+
+    public int getVisitCount(int i) {
+        if (concurrentVisitCount!=null) return concurrentVisitCount.get(i);
+        return visit_count[i];
+    }
+
+
+    /**
+     * Adds an evaluation and a number of visits to the statistics of an action
+     * (atomically, if the entry is concurrent)
+     * @param i the index of the action
+     * @param evaluation
+     * @param visits
+     */
+    public void add(int i, double evaluation, int visits) {
+        if (concurrentEvaluation==null) {
+            accum_evaluation[i] += evaluation;
+            visit_count[i] += visits;
+            return;
+        }
+        long bits;
+        do {
+            bits = concurrentEvaluation.get(i);
+        } while (!concurrentEvaluation.compareAndSet(i, bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + evaluation)));
+        if (visits!=0) concurrentVisitCount.addAndGet(i, visits);
+    }
 }
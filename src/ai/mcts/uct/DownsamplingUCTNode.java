@@ -6,7 +6,6 @@ package ai.mcts.uct;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import rts.GameState; 
 import rts.PlayerAction;
 import rts.PlayerActionGenerator;
@@ -18,7 +17,6 @@ import rts.PlayerActionGenerator;
 public class DownsamplingUCTNode {
     public static int DEBUG = 0;
 
-    static Random r = new Random();
 //    static float C = 50;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
 //    static float C = 5;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
     static float C = 0.05f;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
@@ -86,7 +84,7 @@ public class DownsamplingUCTNode {
                         if (count>=2*MAXACTIONS) break; // this is needed since some times, moveGenerator.size() overflows
                     }
                 }while(pa!=null);
-                while(actions.size()>MAXACTIONS) actions.remove(r.nextInt(actions.size()));
+                while(actions.size()>MAXACTIONS) actions.remove(gs.getContext().getRandom().nextInt(actions.size()));
             }            
         }
         
@@ -45,6 +45,12 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     
     int playerForThisComputation;
     
+    // whether to reuse the subtree of the previous search whose root is the new game state (if any):
+    public boolean reuseTree = false;
+    // the action returned by the last search, which is the only child of its root
+    // where the next search looks for the new game state when reusing the tree:
+    PlayerAction lastAction = null;
+    
     
     public UCT(UnitTypeTable utt) {
         this(100,-1,100,10,
@@ -84,14 +90,20 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     
     
     public AI clone() {
-        return new UCT(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, randomAI, ef);
+        UCT clone = new UCT(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, randomAI, ef);
+        clone.reuseTree = reuseTree;
+        return clone;
     }  
     
     
     public PlayerAction getAction(int player, GameState gs) throws Exception
     {
         if (gs.canExecuteAnyAction(player)) {
-            startNewComputation(player,gs.clone());
+            // the search uses the random number generator of this AI, so that it does not
+            // change the one of the game (or race with it, if the game runs in another thread):
+            GameState s = gs.clone();
+            s.setContext(getSimulationContext());
+            startNewComputation(player,s);
             computeDuringOneGameFrame();
             return getBestActionSoFar();
         } else {
@@ -102,8 +114,19 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     
     public void startNewComputation(int a_player, GameState gs) throws Exception {
         float evaluation_bound = ef.upperBound(gs);
+        UCTNode reused = null;
+        if (reuseTree && tree!=null && playerForThisComputation==a_player) {
+            // in deterministic games, the new state is often already in the tree:
+            reused = tree.findDescendant(gs, lastAction);
+        }
         playerForThisComputation = a_player;
-        tree = new UCTNode(playerForThisComputation, 1-playerForThisComputation, gs, null, evaluation_bound);
+        lastAction = null;
+        if (reused!=null) {
+            reused.makeRoot();
+            tree = reused;
+        } else {
+            tree = new UCTNode(playerForThisComputation, 1-playerForThisComputation, gs, null, evaluation_bound);
+        }
         gs_to_start_from = gs;
         total_runs_this_move = 0;
 //        System.out.println(evaluation_bound);
@@ -195,7 +218,8 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
         
         if (mostVisitedIdx==-1) return new PlayerAction();
         
-        return tree.actions.get(mostVisitedIdx);
+        lastAction = tree.actions.get(mostVisitedIdx);
+        return lastAction;
     }
     
     
@@ -251,6 +275,8 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
         
         parameters.add(new ParameterSpecification("DefaultPolicy",AI.class, randomAI));
         parameters.add(new ParameterSpecification("EvaluationFunction", EvaluationFunction.class, new SimpleSqrtEvaluationFunction3()));
+        
+        parameters.add(new ParameterSpecification("ReuseTree",boolean.class,false));
 
         return parameters;
     }      
@@ -294,4 +320,14 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     public void setEvaluationFunction(EvaluationFunction a_ef) {
         ef = a_ef;
     }
+    
+    
+    public boolean getReuseTree() {
+        return reuseTree;
+    }
+    
+    
+    public void setReuseTree(boolean a_reuseTree) {
+        reuseTree = a_reuseTree;
+    }
 }
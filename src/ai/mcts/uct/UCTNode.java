@@ -6,7 +6,6 @@ package ai.mcts.uct;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import rts.GameState;
 import rts.PlayerAction;
 import rts.PlayerActionGenerator;
@@ -16,7 +15,6 @@ import rts.PlayerActionGenerator;
  * @author santi
  */
 public class UCTNode {
-    static Random r = new Random();
     public static float C = 0.05f;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
 //    public static float C = 1;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
     
@@ -127,6 +125,64 @@ public class UCTNode {
     }
     
     
+    /**
+     * Looks for a node in the subtree of this node (including itself) whose 
+     * game state is equal to a given one, so that its subtree can be reused by 
+     * the search that starts from that game state. The hash (see 
+     * {@link GameState#getHash()}) and the time are only used to discard nodes:
+     * the hash does not depend on the order of the units, which is the order 
+     * in which their actions are executed, so matches are confirmed with 
+     * {@link GameState#equals}. Time only increases along the tree, so the 
+     * subtrees of nodes later than the game state are not explored.
+     * @param target the game state
+     * @return the node, or null if there is none
+     */
+    public UCTNode findDescendant(GameState target) {
+        return findDescendant(target, null);
+    }
+    
+    
+    /**
+     * Like {@link #findDescendant(GameState)}, but only looks below the child 
+     * of this node reached with exactly a given action (e.g. the action that 
+     * the search returned from this node, and was played), if it is not null.
+     * Actions are compared with {@link PlayerAction#sameActions}.
+     * @param target the game state
+     * @param action the action played in the state of this node, or null
+     * @return the node, or null if there is none
+     */
+    public UCTNode findDescendant(GameState target, PlayerAction action) {
+        if (gs.getTime()>target.getTime()) return null;
+        if (gs.getTime()==target.getTime() && gs.getHash()==target.getHash() && gs.equals(target)) return this;
+        if (children!=null) {
+            for(int i = 0;i<children.size();i++) {
+                if (action!=null && !action.sameActions(actions.get(i))) continue;
+                UCTNode node = children.get(i).findDescendant(target, null);
+                if (node!=null) return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Detaches this node from its parent, so that it becomes the root of a 
+     * tree that keeps the statistics of its subtree
+     */
+    public void makeRoot() {
+        parent = null;
+        setDepth(0);
+    }
+    
+    
+    private void setDepth(int a_depth) {
+        depth = a_depth;
+        if (children!=null) {
+            for(UCTNode child:children) child.setDepth(a_depth+1);
+        }
+    }
+    
+    
     public void showNode(int depth, int maxdepth) {
         int mostVisitedIdx = -1;
         UCTNode mostVisited = null;
@@ -8,7 +8,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
 import rts.GameState;
 import rts.PlayerAction;
 import rts.PlayerActionGenerator;
@@ -20,7 +19,6 @@ import rts.PlayerActionGenerator;
 public class UCTNodeFirstPlayUrgency {
     public static int DEBUG = 0;
     
-    static Random r = new Random();
     public static float C = 0.05f;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
 //    static float C = 1;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
     
@@ -6,7 +6,6 @@ package ai.mcts.uct;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import rts.*;
 import rts.units.Unit;
 
@@ -15,7 +14,6 @@ import rts.units.Unit;
  * @author santi
  */
 public class UCTUnitActionsNode {
-    static Random r = new Random();
 //    static float C = 50;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
 //    static float C = 5;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
     static float C = 0.05f;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
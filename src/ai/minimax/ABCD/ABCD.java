@@ -75,8 +75,13 @@ public class ABCD extends AI {
     public PlayerAction getAction(int player, GameState gs) throws Exception {
         
         if (gs.canExecuteAnyAction(player) && gs.winner()==-1) {
-            PlayerAction pa = ABCD(player, gs, MAXDEPTH); 
-            pa.fillWithNones(gs, player, defaultNONEduration);
+            // the search makes and unmakes moves on its own copy of the state, since
+            // the game (or the GUI) might be looking at gs while the search runs, and
+            // with the random number generator of this AI, which the playouts use:
+            GameState s = gs.clone();
+            s.setContext(getSimulationContext());
+            PlayerAction pa = ABCD(player, s, MAXDEPTH); 
+            pa.fillWithNones(s, player, defaultNONEduration);
             return pa;
         } else {
             return new PlayerAction();
@@ -85,6 +90,11 @@ public class ABCD extends AI {
     }
     
     
+    /**
+     * Searches for the best action of a player. The moves are made and unmade
+     * on gs, which is restored when the search returns (unless it throws an
+     * exception), so gs should not be the state of an ongoing game
+     */
     public PlayerAction ABCD(int player, GameState gs, int depthLeft) throws Exception {
         long start = System.currentTimeMillis();
         float alpha = -EvaluationFunction.VICTORY;
@@ -96,6 +106,7 @@ public class ABCD extends AI {
         if (nNodes>max_nodes_so_far) max_nodes_so_far = nNodes;
         nLeaves = 0;
         nNodes = 0;
+        // the search makes and unmakes moves on gs, which is restored when it returns:
         MiniMaxResult bestMove = ABCD(gs, maxplayer, minplayer, alpha, beta, depthLeft, maxplayer);
         if (DEBUG>=1) System.out.println("ABCD: " + bestMove + " in " + (System.currentTimeMillis()-start));
         return bestMove.action;
@@ -119,7 +130,7 @@ public class ABCD extends AI {
             boolean gameover = false;
             while(!gameover && gs2.getTime()<timeOut) {
                 if (gs2.isComplete()) {
-                    gameover = gs2.cycle();
+                    gameover = gs2.cycleUntil(timeOut);
                 } else {
                     gs2.issue(playoutAI1.getAction(0, gs2));
                     gs2.issue(playoutAI2.getAction(1, gs2));
@@ -152,8 +163,10 @@ public class ABCD extends AI {
             do{
                 next = actions.getNextAction(-1);
                 if (next!=null) {
-                    GameState gs2 = gs.cloneIssue(next);
-                    MiniMaxResult tmp = ABCD(gs2, maxplayer, minplayer, alpha, beta, depthLeft-1, nextPlayerInSimultaneousNode);
+                    gs.pushUndoPoint();
+                    gs.issue(next);
+                    MiniMaxResult tmp = ABCD(gs, maxplayer, minplayer, alpha, beta, depthLeft-1, nextPlayerInSimultaneousNode);
+                    gs.undo();
                     alpha = Math.max(alpha,tmp.evaluation);
                     if (best==null || tmp.evaluation>best.evaluation) {
                         best = tmp;
@@ -172,8 +185,10 @@ public class ABCD extends AI {
             do{
                 next = actions.getNextAction(-1);
                 if (next!=null) {
-                    GameState gs2 = gs.cloneIssue(next);
-                    MiniMaxResult tmp = ABCD(gs2, maxplayer, minplayer, alpha, beta, depthLeft-1, nextPlayerInSimultaneousNode);
+                    gs.pushUndoPoint();
+                    gs.issue(next);
+                    MiniMaxResult tmp = ABCD(gs, maxplayer, minplayer, alpha, beta, depthLeft-1, nextPlayerInSimultaneousNode);
+                    gs.undo();
                     beta = Math.min(beta,tmp.evaluation);
                     if (best==null || tmp.evaluation<best.evaluation) {
                         best = tmp;
@@ -184,12 +199,14 @@ public class ABCD extends AI {
             }while(next!=null);
             return best;
         } else {
-            GameState gs2 = gs.clone();
-            while(gs2.winner()==-1 && 
-                  !gs2.gameover() && 
-                  !gs2.canExecuteAnyAction(maxplayer) && 
-                  !gs2.canExecuteAnyAction(minplayer)) gs2.cycle();
-            return ABCD(gs2, maxplayer, minplayer, alpha, beta, depthLeft, nextPlayerInSimultaneousNode);
+            gs.pushUndoPoint();
+            while(gs.winner()==-1 && 
+                  !gs.gameover() && 
+                  !gs.canExecuteAnyAction(maxplayer) && 
+                  !gs.canExecuteAnyAction(minplayer)) gs.advanceToNextEvent();
+            MiniMaxResult tmp = ABCD(gs, maxplayer, minplayer, alpha, beta, depthLeft, nextPlayerInSimultaneousNode);
+            gs.undo();
+            return tmp;
         }
     }       
     
@@ -353,7 +353,7 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
                                 gameover = false;
                                 while(!gameover && gs2.getTime()<timeOut) {
                                     if (gs2.isComplete()) {
-                                        gameover = gs2.cycle();
+                                        gameover = gs2.cycleUntil(timeOut);
                                     } else {
                                         gs2.issue(playoutAI1.getAction(0, gs2));
                                         gs2.issue(playoutAI2.getAction(1, gs2));
@@ -479,7 +479,7 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
                                 !current.gs.gameover() &&
                                 !current.gs.canExecuteAnyAction(maxplayer) &&
                                 !current.gs.canExecuteAnyAction(minplayer)) {
-                            current.gs.cycle();
+                            current.gs.advanceToNextEvent();
                         }
                         current.type = -1;
                         break;
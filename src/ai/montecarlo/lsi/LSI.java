@@ -324,8 +324,8 @@ public class LSI extends AIWithComputationBudget {
         // epochal unit subselections
         if (epochal) {
             // remove used units from current epoch
-            for (Pair<Unit, UnitAction> actionPair : playerAction.getActions()) {
-                epochUnits.remove(actionPair.m_a);
+            for (int i = 0; i < playerAction.size(); i++) {
+                epochUnits.remove(playerAction.getUnit(i));
             }
             // if there are no more units in this epoch use the next one
             if (epochUnits.isEmpty()) {
@@ -457,9 +457,9 @@ public class LSI extends AIWithComputationBudget {
                     // reorder the actions in neighbourPA to be the same as in unitActionTable
                     PlayerAction orderedNeighbourPA = new PlayerAction();
                     for (UnitActionTableEntry agentTableEntry : unitActionTable) {
-                        for (Pair<Unit, UnitAction> neighbourPair : neighbourPA.getActions()) {
-                            if (neighbourPair.m_a.equals(agentTableEntry.u)) {
-                                orderedNeighbourPA.addUnitAction(neighbourPair.m_a, neighbourPair.m_b);
+                        for (int i = 0; i < neighbourPA.size(); i++) {
+                            if (neighbourPA.getUnit(i).equals(agentTableEntry.u)) {
+                                orderedNeighbourPA.addUnitAction(neighbourPA.getUnit(i), neighbourPA.getUnitAction(i));
                             }
                         }
                     }
@@ -616,7 +616,7 @@ public class LSI extends AIWithComputationBudget {
         int actionIndex = 0;
         UnitActionTableEntry agentEntry = unitActionTable.get(agentIndex);
         for (UnitAction unitAction : agentEntry.actions) {
-            if (unitAction.equals(playerAction.getActions().get(agentIndex).m_b)) {
+            if (unitAction.equals(playerAction.getUnitAction(agentIndex))) {
                 agentEntry.accum_evaluation[actionIndex] =
                         (agentEntry.accum_evaluation[actionIndex] * agentEntry.visit_count[actionIndex] + eval)
                         / (agentEntry.visit_count[actionIndex] + 1);
@@ -632,7 +632,7 @@ public class LSI extends AIWithComputationBudget {
         for (UnitActionTableEntry agentEntry : unitActionTable) {
             int actionIndex = 0;
             for (UnitAction unitAction : agentEntry.actions) {
-                if (unitAction.equals(playerAction.getActions().get(agentIndex).m_b)) {
+                if (unitAction.equals(playerAction.getUnitAction(agentIndex))) {
                     agentEntry.accum_evaluation[actionIndex] =
                             (agentEntry.accum_evaluation[actionIndex] * agentEntry.visit_count[actionIndex] + eval)
                             / (agentEntry.visit_count[actionIndex] + 1);
@@ -939,7 +939,7 @@ public class LSI extends AIWithComputationBudget {
         nofPlays++;
         nofNoops += playerAction.hasNamNoneActions();
         nofSamples += sampling.getSimulationCount();
-        nofPlayedUnits += playerAction.getActions().size();
+        nofPlayedUnits += playerAction.size();
         for (UnitActionTableEntry actionTableEntry : unitActionTableEntry) {
             nofActions += actionTableEntry.nactions;
         }
@@ -963,8 +963,8 @@ public class LSI extends AIWithComputationBudget {
         }
 
         ResourceUsage actionResourceUsage = new ResourceUsage();
-        for (Pair<Unit, UnitAction> element : playerAction.getActions()) {
-            ResourceUsage resourceUsage = element.m_b.resourceUsage(element.m_a, pgs);
+        for (int i = 0; i < playerAction.size(); i++) {
+            ResourceUsage resourceUsage = playerAction.getUnitAction(i).resourceUsage(playerAction.getUnit(i), pgs);
             actionResourceUsage.merge(resourceUsage);
         }
         playerAction.setResourceUsage(actionResourceUsage);
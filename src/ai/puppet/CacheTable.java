@@ -27,8 +27,9 @@ class PuppetGameState{
 	}
 	public PuppetGameState(GameState gs) {
 		this.gs=gs.clone();
-		Random rng=new Random();
-		hash=rng.nextInt(Integer.MAX_VALUE);
+		// the hash of the root is the hash of the game state, and the hashes of the
+		// states below it are derived from it with the choices made in each move:
+		hash=gs.hashCode()&Integer.MAX_VALUE;
 	}
 	public PuppetGameState(PuppetGameState gs) {
 		this.gs=gs.gs;
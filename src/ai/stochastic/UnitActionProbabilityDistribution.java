@@ -5,6 +5,7 @@
  */
 package ai.stochastic;
 
+import java.util.Arrays;
 import java.util.List;
 import rts.GameState;
 import rts.UnitAction;
@@ -23,5 +24,17 @@ public abstract class UnitActionProbabilityDistribution {
     }
             
     public abstract double[] predictDistribution(Unit u, GameState gs, List<UnitAction> actions) throws Exception;
+    
+    
+    /**
+     * Same as predictDistribution(Unit, GameState, List), but for the first nActions
+     * actions of an array, and writing the result into the first nActions positions
+     * of 'distribution', so that callers can reuse their arrays.
+     * Subclasses can override this method to avoid allocating any memory.
+     */
+    public void predictDistribution(Unit u, GameState gs, UnitAction actions[], int nActions, double distribution[]) throws Exception {
+        double d[] = predictDistribution(u, gs, Arrays.asList(actions).subList(0, nActions));
+        System.arraycopy(d, 0, distribution, 0, nActions);
+    }
                 
 }
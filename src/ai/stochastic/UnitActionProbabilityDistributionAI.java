@@ -7,7 +7,6 @@ package ai.stochastic;
 import ai.core.AI;
 import ai.core.ParameterSpecification;
 import java.util.List;
-import java.util.Random;
 import ai.stochastic.UnitActionProbabilityDistribution;
 import java.util.ArrayList;
 import rts.*;
@@ -23,11 +22,14 @@ import util.Sampler;
 public class UnitActionProbabilityDistributionAI extends AI {
     public static int DEBUG = 0;
     
-    Random r = new Random();
     UnitActionProbabilityDistribution model;
     String modelName = "";  // name of the model for the toString method, so it can be identified
     UnitTypeTable utt;
     
+    // reused from call to call, to avoid allocating them for each unit:
+    UnitAction actions[] = new UnitAction[16];
+    double distribution[] = new double[16];
+    
     
     public UnitActionProbabilityDistributionAI(UnitTypeTable utt) throws Exception {
         this(new UnitActionTypeConstantDistribution(utt,new double[]{1.0,1.0,1.0,1.0,1.0,1.0}),
@@ -78,14 +80,19 @@ public class UnitActionProbabilityDistributionAI extends AI {
         for(Unit u:pgs.getUnits()) {
             if (u.getPlayer()==player) {
                 if (gs.getActionAssignment(u)==null) {
-                    List<UnitAction> l = u.getUnitActions(gs);
-                    double []distribution = model.predictDistribution(u, gs, l);
+                    int nActions = u.getUnitActions(gs, actions);
+                    if (nActions > actions.length) {
+                        actions = new UnitAction[nActions * 2];
+                        distribution = new double[nActions * 2];
+                        u.getUnitActions(gs, actions);
+                    }
+                    model.predictDistribution(u, gs, actions, nActions, distribution);
                     UnitAction none = null;
-                    for(UnitAction ua:l) 
-                        if (ua.getType()==UnitAction.TYPE_NONE) none = ua;
+                    for(int i = 0;i<nActions;i++) 
+                        if (actions[i].getType()==UnitAction.TYPE_NONE) none = actions[i];
                     
                     try {
-                        UnitAction ua = l.get(Sampler.weighted(distribution));
+                        UnitAction ua = actions[Sampler.weighted(distribution, nActions, gs.getContext().getRandom())];
                         if (ua.resourceUsage(u, pgs).consistentWith(pa.getResourceUsage(), gs)) {
                             ResourceUsage ru = ua.resourceUsage(u, pgs);
                             pa.getResourceUsage().merge(ru);                        
@@ -49,4 +49,23 @@ public class UnitActionTypeConstantDistribution extends UnitActionProbabilityDis
         return d;    
     }   
     
+    
+    @Override
+    public void predictDistribution(Unit u, GameState gs, UnitAction actions[], int nActions, double d[]) throws Exception
+    {
+        double accum = 0;
+        for(int i = 0;i<nActions;i++) {
+            int type = actions[i].getType();
+            d[i] = m_distribution[type];
+            accum += d[i];
+        }
+        
+        if (accum <= 0) {
+            // if 0 accum, then just make uniform distribution:
+            for(int i = 0;i<nActions;i++) d[i] = 1.0/nActions;
+        } else {
+            for(int i = 0;i<nActions;i++) d[i] /= accum;
+        }
+    }   
+    
 }
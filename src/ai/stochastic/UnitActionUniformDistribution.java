@@ -31,4 +31,11 @@ public class UnitActionUniformDistribution extends UnitActionProbabilityDistribu
         return d;    
     }   
     
+    
+    @Override
+    public void predictDistribution(Unit u, GameState gs, UnitAction actions[], int nActions, double d[]) throws Exception
+    {
+        for(int i = 0;i<nActions;i++) d[i] = 1.0/nActions;
+    }   
+    
 }
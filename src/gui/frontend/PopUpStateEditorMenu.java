@@ -47,7 +47,7 @@ public class PopUpStateEditorMenu extends JPopupMenu {
                         JMenuItem i2 = new JMenuItem("Add " + ut.name + "");
                         i2.addActionListener(new ActionListener() {
                              public void actionPerformed(ActionEvent event) {
-                                pgs.addUnit(new Unit(-1, ut, x, y, 10));
+                                pgs.addUnit(new Unit(pgs, -1, ut, x, y, 10));
                                 panel.gameStateUpdated();
                                 panel.repaint();
                              }
@@ -57,7 +57,7 @@ public class PopUpStateEditorMenu extends JPopupMenu {
                         JMenuItem i2 = new JMenuItem("Add " + ut.name + " (player 0)");
                         i2.addActionListener(new ActionListener() {
                              public void actionPerformed(ActionEvent event) {
-                                pgs.addUnit(new Unit(0, ut, x, y, 0));
+                                pgs.addUnit(new Unit(pgs, 0, ut, x, y, 0));
                                 panel.gameStateUpdated();
                                 panel.repaint();
                              }
@@ -66,7 +66,7 @@ public class PopUpStateEditorMenu extends JPopupMenu {
                         JMenuItem i3 = new JMenuItem("Add " + ut.name + " (player 1)");
                         i3.addActionListener(new ActionListener() {
                              public void actionPerformed(ActionEvent event) {
-                                pgs.addUnit(new Unit(1, ut, x, y, 0));
+                                pgs.addUnit(new Unit(pgs, 1, ut, x, y, 0));
                                 panel.gameStateUpdated();
                                 panel.repaint();
                              }
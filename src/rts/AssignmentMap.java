@@ -0,0 +1,270 @@
+package rts;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import rts.units.Unit;
+
+/**
+ * The map from the units of a {@link GameState} to the actions assigned to
+ * them. Like a LinkedHashMap, it iterates over the assignments in the order in
+ * which their units were added (which is the order in which
+ * {@link GameState#cycle()} executes them), but it can also insert an
+ * assignment right after a given unit. This way {@link UndoLog} can record
+ * the unit before a removed assignment and put the assignment back in its
+ * place in constant time.
+ * The assignments are kept in a doubly linked list of nodes, indexed by unit.
+ */
+class AssignmentMap extends AbstractMap<Unit,UnitActionAssignment> {
+
+    final class Node implements Map.Entry<Unit,UnitActionAssignment> {
+        final Unit unit;
+        UnitActionAssignment uaa;
+        Node prev, next;
+
+        Node(Unit a_unit, UnitActionAssignment a_uaa) {
+            unit = a_unit;
+            uaa = a_uaa;
+        }
+
+        public Unit getKey() {
+            return unit;
+        }
+
+        public UnitActionAssignment getValue() {
+            return uaa;
+        }
+
+        public UnitActionAssignment setValue(UnitActionAssignment a_uaa) {
+            UnitActionAssignment old = uaa;
+            uaa = a_uaa;
+            version++;
+            return old;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+            return Objects.equals(unit, e.getKey()) && Objects.equals(uaa, e.getValue());
+        }
+
+        public int hashCode() {
+            return Objects.hashCode(unit) ^ Objects.hashCode(uaa);
+        }
+
+        public String toString() {
+            return unit + "=" + uaa;
+        }
+    }
+
+    final HashMap<Unit,Node> nodes = new HashMap<>();
+    Node head = null, tail = null;
+    int modifications = 0;  // structural changes, checked by the iterators
+    int version = 0;        // all changes, including replaced assignments (see GameState#checkAssignments)
+
+    /**
+     * Returns the unit of the assignment before the one of unit 'u' (null if
+     * it is the first one, or 'u' has no assignment)
+     *
+     * @param u
+     */
+    Unit before(Unit u) {
+        Node n = nodes.get(u);
+        return (n == null || n.prev == null) ? null : n.prev.unit;
+    }
+
+    /**
+     * Adds an assignment for a unit that has none, right after the one of
+     * unit 'previous' (or first, if 'previous' is null)
+     *
+     * @param previous
+     * @param uaa
+     */
+    void putAfter(Unit previous, UnitActionAssignment uaa) {
+        Node p = null;
+        if (previous != null) {
+            p = nodes.get(previous);
+            if (p == null) throw new IllegalArgumentException("AssignmentMap.putAfter: " + previous + " has no assignment");
+        }
+        Node n = new Node(uaa.unit, uaa);
+        if (nodes.putIfAbsent(uaa.unit, n) != null) throw new IllegalArgumentException("AssignmentMap.putAfter: " + uaa.unit + " already has an assignment");
+        n.prev = p;
+        n.next = (p == null ? head : p.next);
+        if (n.prev == null) head = n; else n.prev.next = n;
+        if (n.next == null) tail = n; else n.next.prev = n;
+        modifications++;
+        version++;
+    }
+
+    void unlink(Node n) {
+        if (n.prev == null) head = n.next; else n.prev.next = n.next;
+        if (n.next == null) tail = n.prev; else n.next.prev = n.prev;
+        n.prev = n.next = null;
+        modifications++;
+        version++;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    public UnitActionAssignment get(Object u) {
+        Node n = nodes.get(u);
+        return n == null ? null : n.uaa;
+    }
+
+    public boolean containsKey(Object u) {
+        return nodes.containsKey(u);
+    }
+
+    /**
+     * Assigns an action to a unit: a unit that already had one keeps its
+     * place in the order, and a new one is added last
+     */
+    public UnitActionAssignment put(Unit u, UnitActionAssignment uaa) {
+        Node n = nodes.get(u);
+        if (n != null) return n.setValue(uaa);
+        n = new Node(u, uaa);
+        nodes.put(u, n);
+        n.prev = tail;
+        if (tail == null) head = n; else tail.next = n;
+        tail = n;
+        modifications++;
+        version++;
+        return null;
+    }
+
+    public void putAll(Map<? extends Unit, ? extends UnitActionAssignment> m) {
+        if (m instanceof AssignmentMap) {
+            // walks the nodes directly (e.g. in GameState.cloneIssue), without allocating an iterator:
+            for (Node n = ((AssignmentMap) m).head; n != null; n = n.next) put(n.unit, n.uaa);
+            return;
+        }
+        for (Map.Entry<? extends Unit, ? extends UnitActionAssignment> e : m.entrySet()) put(e.getKey(), e.getValue());
+    }
+
+    public UnitActionAssignment remove(Object u) {
+        Node n = nodes.remove(u);
+        if (n == null) return null;
+        unlink(n);
+        return n.uaa;
+    }
+
+    public void clear() {
+        nodes.clear();
+        head = tail = null;
+        modifications++;
+        version++;
+    }
+
+    public Set<Unit> keySet() {
+        return new AbstractSet<Unit>() {
+            public Iterator<Unit> iterator() {
+                return new NodeIterator<Unit>() {
+                    Unit value(Node n) {
+                        return n.unit;
+                    }
+                };
+            }
+
+            public int size() {
+                return nodes.size();
+            }
+
+            public boolean contains(Object u) {
+                return nodes.containsKey(u);
+            }
+
+            public boolean remove(Object u) {
+                return AssignmentMap.this.remove(u) != null;
+            }
+
+            public void clear() {
+                AssignmentMap.this.clear();
+            }
+        };
+    }
+
+    public Collection<UnitActionAssignment> values() {
+        return new AbstractCollection<UnitActionAssignment>() {
+            public Iterator<UnitActionAssignment> iterator() {
+                return new NodeIterator<UnitActionAssignment>() {
+                    UnitActionAssignment value(Node n) {
+                        return n.uaa;
+                    }
+                };
+            }
+
+            public int size() {
+                return nodes.size();
+            }
+
+            public void clear() {
+                AssignmentMap.this.clear();
+            }
+        };
+    }
+
+    public Set<Map.Entry<Unit,UnitActionAssignment>> entrySet() {
+        return new AbstractSet<Map.Entry<Unit,UnitActionAssignment>>() {
+            public Iterator<Map.Entry<Unit,UnitActionAssignment>> iterator() {
+                return new NodeIterator<Map.Entry<Unit,UnitActionAssignment>>() {
+                    Map.Entry<Unit,UnitActionAssignment> value(Node n) {
+                        return n;
+                    }
+                };
+            }
+
+            public int size() {
+                return nodes.size();
+            }
+
+            public void clear() {
+                AssignmentMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Iterates over the nodes in order (failing if the map is modified other
+     * than through the iterator)
+     */
+    abstract class NodeIterator<T> implements Iterator<T> {
+        Node next = head, last = null;
+        int expected = modifications;
+
+        abstract T value(Node n);
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public T next() {
+            if (modifications != expected) throw new ConcurrentModificationException();
+            if (next == null) throw new NoSuchElementException();
+            last = next;
+            next = next.next;
+            return value(last);
+        }
+
+        public void remove() {
+            if (last == null) throw new IllegalStateException();
+            if (modifications != expected) throw new ConcurrentModificationException();
+            AssignmentMap.this.remove(last.unit);
+            last = null;
+            expected = modifications;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package rts;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * The compact binary representation of a {@link GameState} (see
+ * {@link GameState#toBytes(boolean)} and
+ * {@link GameState#fromBytes(byte[], UnitTypeTable, PhysicalGameState)}).
+ *
+ * Layout (big endian), version 1:
+ * <pre>
+ * int    MAGIC
+ * byte   VERSION
+ * int    number of unit types of the UnitTypeTable (which is not stored)
+ * int    time, unit cancelation counter
+ * short  width, height
+ * int    hash of the terrain (see {@link #terrainHash(int[])})
+ * byte   whether the terrain follows (1) or is shared with a reference map (0)
+ * byte   terrain[width * height] (only if included)
+ * byte   number of players, followed by (int ID, int resources) for each
+ * long   next unit ID
+ * int    number of units, followed by (long ID, byte player, short type,
+ *        short x, short y, int resources, int hit points) for each
+ * int    number of action assignments, followed by (int unit index,
+ *        int time, byte type, int parameter, short x, short y,
+ *        short produced type or -1) for each, in assignment order
+ * </pre>
+ */
+class BinarySnapshot {
+    static final int MAGIC = 0x6d525453;    // "mRTS"
+    static final byte VERSION = 1;
+
+    static final int UNIT_SIZE = 8 + 1 + 2 + 2 + 2 + 4 + 4;
+    static final int ASSIGNMENT_SIZE = 4 + 4 + 1 + 4 + 2 + 2 + 2;
+
+    static int terrainHash(int terrain[]) {
+        return Arrays.hashCode(terrain);
+    }
+
+    static byte[] write(GameState gs, boolean includeTerrain) {
+        PhysicalGameState pgs = gs.pgs;
+        pgs.getUnitGrid();  // makes sure nextUnitID accounts for all the units
+        int nCells = pgs.width * pgs.height;
+        int size = 4 + 1 + 4 + 4 + 4 + 2 + 2 + 4 + 1 + (includeTerrain ? nCells : 0)
+                + 1 + 8 * pgs.players.size() + 8
+                + 4 + UNIT_SIZE * pgs.units.size()
+                + 4 + ASSIGNMENT_SIZE * gs.assignments().size();
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.putInt(gs.utt.getUnitTypes().size());
+        buffer.putInt(gs.time);
+        buffer.putInt(gs.unitCancelationCounter);
+        buffer.putShort((short) pgs.width);
+        buffer.putShort((short) pgs.height);
+        buffer.putInt(terrainHash(pgs.terrain));
+        buffer.put((byte) (includeTerrain ? 1 : 0));
+        if (includeTerrain) {
+            for (int i = 0; i < nCells; i++) {
+                buffer.put((byte) pgs.terrain[i]);
+            }
+        }
+        buffer.put((byte) pgs.players.size());
+        for (Player p : pgs.players) {
+            buffer.putInt(p.getID());
+            buffer.putInt(p.getResources());
+        }
+        buffer.putLong(pgs.nextUnitID);
+
+        // units are referred to by their index in the unit list:
+        IdentityHashMap<Unit, Integer> index = new IdentityHashMap<>();
+        buffer.putInt(pgs.units.size());
+        for (Unit u : pgs.units) {
+            index.put(u, index.size());
+            buffer.putLong(u.getID());
+            buffer.put((byte) u.getPlayer());
+            buffer.putShort((short) u.getType().ID);
+            buffer.putShort((short) u.getX());
+            buffer.putShort((short) u.getY());
+            buffer.putInt(u.getResources());
+            buffer.putInt(u.getHitPoints());
+        }
+
+        int nAssignments = 0;
+        int countPosition = buffer.position();
+        buffer.putInt(0);
+        for (UnitActionAssignment uaa : gs.assignments().values()) {
+            Integer idx = index.get(uaa.unit);
+            if (idx == null) {
+                // assignments of units that are not in the map are not stored:
+                continue;
+            }
+            UnitAction a = uaa.action;
+            buffer.putInt(idx);
+            buffer.putInt(uaa.time);
+            buffer.put((byte) a.type);
+            buffer.putInt(a.parameter);
+            buffer.putShort((short) a.x);
+            buffer.putShort((short) a.y);
+            buffer.putShort((short) (a.unitType == null ? -1 : a.unitType.ID));
+            nAssignments++;
+        }
+        buffer.putInt(countPosition, nAssignments);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    static GameState read(byte bytes[], UnitTypeTable utt, PhysicalGameState reference) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("GameState.fromBytes: not a game state snapshot");
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("GameState.fromBytes: unsupported snapshot version " + version);
+            }
+            int nTypes = buffer.getInt();
+            if (nTypes != utt.getUnitTypes().size()) {
+                throw new IllegalArgumentException("GameState.fromBytes: the snapshot was created with a different UnitTypeTable ("
+                        + nTypes + " unit types rather than " + utt.getUnitTypes().size() + ")");
+            }
+            int time = buffer.getInt();
+            int unitCancelationCounter = buffer.getInt();
+            int width = buffer.getShort();
+            int height = buffer.getShort();
+            int hash = buffer.getInt();
+            int terrain[];
+            if (buffer.get() != 0) {
+                terrain = new int[width * height];
+                for (int i = 0; i < terrain.length; i++) {
+                    terrain[i] = buffer.get() & 0xff;
+                }
+            } else if (reference != null && reference.width == width && reference.height == height
+                    && terrainHash(reference.terrain) == hash) {
+                terrain = reference.terrain;    // shared, since it never changes
+            } else {
+                throw new IllegalArgumentException("GameState.fromBytes: the snapshot does not include its terrain, and no map with the same terrain was provided");
+            }
+
+            PhysicalGameState pgs = new PhysicalGameState(width, height, terrain);
+            int nPlayers = buffer.get();
+            for (int i = 0; i < nPlayers; i++) {
+                int ID = buffer.getInt();
+                pgs.addPlayer(new Player(ID, buffer.getInt()));
+            }
+            long nextUnitID = buffer.getLong();
+
+            int nUnits = buffer.getInt();
+            Unit units[] = new Unit[nUnits];
+            for (int i = 0; i < nUnits; i++) {
+                long ID = buffer.getLong();
+                int player = buffer.get();
+                UnitType type = utt.getUnitType(buffer.getShort());
+                int x = buffer.getShort();
+                int y = buffer.getShort();
+                units[i] = new Unit(ID, player, type, x, y, buffer.getInt());
+                units[i].setHitPoints(buffer.getInt());
+                pgs.addUnit(units[i]);
+            }
+            pgs.nextUnitID = Math.max(pgs.nextUnitID, nextUnitID);
+
+            GameState gs = new GameState(pgs, utt);
+            gs.time = time;
+            gs.unitCancelationCounter = unitCancelationCounter;
+            UnitActionTable table = utt.getUnitActionTable();
+            int nAssignments = buffer.getInt();
+            for (int i = 0; i < nAssignments; i++) {
+                Unit u = units[buffer.getInt()];
+                int start = buffer.getInt();
+                int type = buffer.get();
+                int parameter = buffer.getInt();
+                int x = buffer.getShort();
+                int y = buffer.getShort();
+                int producedType = buffer.getShort();
+                UnitAction a;
+                switch (type) {
+                    case UnitAction.TYPE_NONE:
+                        a = table.none(parameter);
+                        break;
+                    case UnitAction.TYPE_MOVE:
+                        a = table.move(parameter);
+                        break;
+                    case UnitAction.TYPE_HARVEST:
+                        a = table.harvest(parameter);
+                        break;
+                    case UnitAction.TYPE_RETURN:
+                        a = table.ret(parameter);
+                        break;
+                    case UnitAction.TYPE_PRODUCE:
+                        a = table.produce(parameter, utt.getUnitType(producedType));
+                        break;
+                    case UnitAction.TYPE_ATTACK_LOCATION:
+                        a = table.attack(x, y, pgs);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("GameState.fromBytes: unknown action type " + type);
+                }
+                gs.assignments().put(u, new UnitActionAssignment(u, a, start));
+            }
+            return gs;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("GameState.fromBytes: truncated or corrupted snapshot", e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package rts;
+
+import java.util.Arrays;
+
+/**
+ * A priority queue (binary min-heap) of the times at which the actions
+ * assigned in a {@link GameState} complete, used to skip the game cycles in
+ * which no action completes (see {@link GameState#cycleUntil(int)}).
+ * Entries are not removed when an assignment is executed or replaced: they
+ * are discarded lazily when they reach the top of the heap and no longer
+ * match an assignment of the game state. Entries are stored in parallel
+ * arrays that are reused, so the queue does not allocate once it has grown.
+ */
+class CompletionQueue {
+    int times[] = new int[16];
+    UnitActionAssignment assignments[] = new UnitActionAssignment[16];
+    int size = 0;
+    boolean valid = false;  // whether the queue contains all the assignments of the game state
+
+    /**
+     * Rebuilds the queue from the assignments of a game state
+     *
+     * @param gs
+     */
+    void rebuild(GameState gs) {
+        clear();
+        for (UnitActionAssignment uaa : gs.assignments().values()) {
+            add(uaa.time + uaa.action.ETA(uaa.unit), uaa);
+        }
+        valid = true;
+    }
+
+    /**
+     * Empties the queue, and marks it as not valid, so that it is rebuilt the
+     * next time it is needed
+     */
+    void invalidate() {
+        clear();
+        valid = false;
+    }
+
+    void clear() {
+        Arrays.fill(assignments, 0, size, null);
+        size = 0;
+    }
+
+    void add(int time, UnitActionAssignment uaa) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            assignments = Arrays.copyOf(assignments, size * 2);
+        }
+        // sift up:
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (times[parent] <= time) break;
+            times[i] = times[parent];
+            assignments[i] = assignments[parent];
+            i = parent;
+        }
+        times[i] = time;
+        assignments[i] = uaa;
+    }
+
+    void removeFirst() {
+        size--;
+        int time = times[size];
+        UnitActionAssignment uaa = assignments[size];
+        assignments[size] = null;
+        if (size == 0) return;
+        // sift down:
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && times[child + 1] < times[child]) child++;
+            if (time <= times[child]) break;
+            times[i] = times[child];
+            assignments[i] = assignments[child];
+            i = child;
+        }
+        times[i] = time;
+        assignments[i] = uaa;
+    }
+
+    /**
+     * Returns the earliest completion time of the actions assigned in a game
+     * state (or -1 if there are none), discarding the entries that are out of
+     * date
+     *
+     * @param gs
+     * @return
+     */
+    int next(GameState gs) {
+        while (size > 0) {
+            UnitActionAssignment uaa = assignments[0];
+            if (gs.assignments().get(uaa.unit) != uaa) {
+                // executed or replaced:
+                removeFirst();
+                continue;
+            }
+            int time = uaa.time + uaa.action.ETA(uaa.unit);
+            if (time != times[0]) {
+                // the action (or its duration) changed, queue it again with its current completion time:
+                removeFirst();
+                add(time, uaa);
+                continue;
+            }
+            return time;
+        }
+        return -1;
+    }
+}
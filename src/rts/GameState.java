@@ -8,11 +8,11 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 import org.jdom.Document;
 import org.jdom.Element;
 import org.jdom.JDOMException;
@@ -20,7 +20,6 @@ import org.jdom.input.SAXBuilder;
 import rts.units.Unit;
 import rts.units.UnitType;
 import rts.units.UnitTypeTable;
-import util.Pair;
 import util.XMLWriter;
 
 /**
@@ -30,13 +29,24 @@ import util.XMLWriter;
 public class GameState {
     public static final boolean REPORT_ILLEGAL_ACTIONS = false;
     
-    static Random r = new Random();         // only used if the action conflict resolution strategy is set to random
     protected int unitCancelationCounter = 0;  // only used if the action conflict resolution strategy is set to alternating
     
     protected int time = 0;
     protected PhysicalGameState pgs;
-    protected HashMap<Unit,UnitActionAssignment> unitActions = new LinkedHashMap<>();
+    private final AssignmentMap unitActions = new AssignmentMap();    // in the order in which they are executed (see assignments)
     protected UnitTypeTable utt;
+    protected SimulationContext context = null;     // shared with the clones of this state (see getContext)
+    protected UndoLog undoLog = null;   // only used while there are undo points (see pushUndoPoint)
+    protected long hash = 0;            // Zobrist hash of the state, only valid if hashValid is true (see getHash)
+    protected boolean hashValid = false;
+    protected CompletionQueue completions = null;   // only created if needed (see getNextCompletionTime)
+    protected ReservationGrid reservations = null;  // only created if needed (see reservationsUsable)
+    static final int RESERVATION_THRESHOLD = 16;    // number of assignments from which the reservation grid is used
+    protected int assignedCounts[] = null;          // units of each player with an action assigned (see canExecuteAnyAction)
+    protected int assignedCountsVersion = -1;       // version of the unit list of pgs for which assignedCounts is valid
+    protected int assignmentsVersion = 0;           // version of unitActions the caches above are valid for (see checkAssignments)
+    private UnitActionAssignment readyBuffer[] = null;  // scratch space used by cycle(), not shared between clones
+    private UnitAction actionBuffer[] = null;           // scratch space used by getActionMasks, not shared between clones
 
     /**
      * Initializes the GameState with a PhysicalGameState and a UnitTypeTable
@@ -47,6 +57,41 @@ public class GameState {
         pgs = a_pgs;
         utt = a_utt;
     }
+    
+    /**
+     * Initializes the GameState with a PhysicalGameState, a UnitTypeTable, and
+     * the context that provides its randomness (see {@link SimulationContext})
+     * @param a_pgs
+     * @param a_utt
+     * @param a_context
+     */
+    public GameState(PhysicalGameState a_pgs, UnitTypeTable a_utt, SimulationContext a_context) {
+        pgs = a_pgs;
+        utt = a_utt;
+        context = a_context;
+    }
+    
+    /**
+     * Returns the context that provides the randomness of this state (for the
+     * non-deterministic damage of units, the random move conflict resolution 
+     * strategy, and the AIs that simulate it). Clones share the context of the
+     * state they were cloned from. If no context was given, a new one (with an
+     * arbitrary seed) is created the first time it is needed.
+     * @return
+     */
+    public SimulationContext getContext() {
+        if (context==null) context = new SimulationContext();
+        return context;
+    }
+    
+    /**
+     * Sets the context that provides the randomness of this state (see 
+     * {@link #getContext()})
+     * @param a_context
+     */
+    public void setContext(SimulationContext a_context) {
+        context = a_context;
+    }
         
     /**
      * Current game timestep (frames since beginning)
@@ -61,8 +106,120 @@ public class GameState {
      * @param u
      */
     public void removeUnit(Unit u) {
+        removeActionAssignment(u);
+        if (undoLog!=null && undoLog.recording()) {
+            int idx = pgs.units.indexOf(u);
+            if (idx==-1) return;
+            undoLog.record(UndoLog.UNIT_REMOVED, u, null, idx, 0);
+        }
+        if (hashValid && containsUnit(u)) hash ^= ZobristKeys.unit(u);
+        boolean countsValid = assignedCountsValid();
         pgs.removeUnit(u);
-        unitActions.remove(u);
+        // the unit has no action assigned anymore, so the counts are still valid:
+        if (countsValid) assignedCountsVersion = pgs.getUnitListVersion();
+    }
+    
+    /**
+     * Adds a unit to the game (as done by produce actions)
+     * @param u
+     */
+    void addUnit(Unit u) {
+        boolean countsValid = assignedCountsValid();
+        pgs.addUnit(u);
+        // new units have no action assigned, so the counts are still valid:
+        if (countsValid) assignedCountsVersion = pgs.getUnitListVersion();
+        if (undoLog!=null && undoLog.recording()) undoLog.record(UndoLog.UNIT_ADDED, u, null, 0, 0);
+        if (hashValid) hash ^= ZobristKeys.unit(u);
+    }
+
+    /**
+     * Moves a unit (as done by move actions)
+     * @param u
+     * @param x
+     * @param y
+     */
+    void moveUnit(Unit u, int x, int y) {
+        if (undoLog!=null && undoLog.recording()) undoLog.record(UndoLog.MOVE, u, null, u.getX(), u.getY());
+        if (hashValid) hash ^= ZobristKeys.unit(u);
+        pgs.moveUnit(u, x, y);
+        if (hashValid) hash ^= ZobristKeys.unit(u);
+    }
+
+    /**
+     * Changes the hit points of a unit (as done by attack actions)
+     * @param u
+     * @param hitpoints
+     */
+    void setUnitHitPoints(Unit u, int hitpoints) {
+        if (undoLog!=null && undoLog.recording()) undoLog.record(UndoLog.HIT_POINTS, u, null, u.getHitPoints(), 0);
+        if (hashValid) hash ^= ZobristKeys.unit(u);
+        u.setHitPoints(hitpoints);
+        if (hashValid) hash ^= ZobristKeys.unit(u);
+    }
+
+    /**
+     * Changes the resources carried by a unit (as done by harvest and return actions)
+     * @param u
+     * @param resources
+     */
+    void setUnitResources(Unit u, int resources) {
+        if (undoLog!=null && undoLog.recording()) undoLog.record(UndoLog.UNIT_RESOURCES, u, null, u.getResources(), 0);
+        if (hashValid) hash ^= ZobristKeys.unit(u);
+        u.setResources(resources);
+        if (hashValid) hash ^= ZobristKeys.unit(u);
+    }
+
+    /**
+     * Changes the resources of a player (as done by return and produce actions)
+     * @param p
+     * @param resources
+     */
+    void setPlayerResources(Player p, int resources) {
+        if (undoLog!=null && undoLog.recording()) undoLog.record(UndoLog.PLAYER_RESOURCES, p, null, p.getResources(), 0);
+        if (hashValid) hash ^= ZobristKeys.player(p);
+        p.setResources(resources);
+        if (hashValid) hash ^= ZobristKeys.player(p);
+    }
+    
+    /**
+     * Removes the action assigned to a unit
+     * @param u
+     */
+    private void removeActionAssignment(Unit u) {
+        if (undoLog!=null && undoLog.recording()) {
+            UnitActionAssignment uaa = unitActions.get(u);
+            if (uaa==null) return;
+            undoLog.record(UndoLog.UNASSIGNED, uaa, unitActions.before(u), 0, 0);
+        }
+        checkAssignments();
+        UnitActionAssignment uaa = unitActions.remove(u);
+        assignmentsUpdated();
+        if (hashValid && uaa!=null) hash ^= ZobristKeys.assignment(uaa);
+        if (uaa!=null) countAssignment(u, -1);
+        if (reservations!=null && reservations.valid && uaa!=null) reservations.release(uaa);
+    }
+    
+    /**
+     * Marks the current state, so that all the changes made to it by 
+     * {@link #issue(PlayerAction)} and {@link #cycle()} from now on can be reverted 
+     * in place by {@link #undo()}. Undo points can be nested.
+     * This allows depth-first searches to explore successor states without cloning.
+     * Note that the state of the random number generator of the context is not 
+     * reverted (but the IDs given to newly produced units are).
+     */
+    public void pushUndoPoint() {
+        if (undoLog==null) undoLog = new UndoLog();
+        checkAssignments();
+        undoLog.pushPoint(time, unitCancelationCounter, hash, hashValid, pgs.nextUnitID);
+    }
+    
+    /**
+     * Reverts this state to how it was at the last call to {@link #pushUndoPoint()},
+     * and removes that undo point.
+     */
+    public void undo() {
+        if (undoLog==null) throw new IllegalStateException("GameState.undo: there is no undo point");
+        undoLog.undo(this);
     }
     
     /**
@@ -92,10 +249,35 @@ public class GameState {
     }
     
     /**
-     * Returns a map with the units and the actions assigned to them
+     * Returns whether this specific unit instance (not a clone of it) is part
+     * of this game state
+     * @param u
+     * @return
+     */
+    boolean containsUnit(Unit u) {
+        Unit u2 = pgs.getUnit(u.getID());
+        if (u2==u) return true;
+        if (u2==null) return false;
+        // repeated IDs, fall back to a linear search:
+        return pgs.units.contains(u);
+    }
+    
+    /**
+     * Returns a map with the units and the actions assigned to them, in the
+     * order in which they are executed
      * @return
      */
-    public HashMap<Unit,UnitActionAssignment> getUnitActions() {
+    public Map<Unit,UnitActionAssignment> getUnitActions() {
+        return unitActions;
+    }
+    
+    /**
+     * Same as {@link #getUnitActions()}, typed as the map that holds them, for
+     * the classes of this package that insert assignments in place or walk
+     * them without an iterator
+     * @return
+     */
+    AssignmentMap assignments() {
         return unitActions;
     }
     
@@ -130,12 +312,10 @@ public class GameState {
      * @return
      */
     public boolean isComplete() {
-        for(Unit u : pgs.units) {
-            if (u.getPlayer() != -1) {
-                UnitActionAssignment uaa = unitActions.get(u);
-                if (uaa == null) return false;
-                if (uaa.action == null) return false;
-            }
+        // complete if every player has as many units with an action assigned as units:
+        int counts[] = getAssignedCounts();
+        for(int p = 0;p<pgs.unitCounts.length;p++) {
+            if (pgs.unitCounts[p] > (p<counts.length ? counts[p] : 0)) return false;
         }
         return true;
     }
@@ -174,9 +354,8 @@ public class GameState {
      */
     public boolean free(int x, int y) {
         if (pgs.getTerrain(x, y)!=PhysicalGameState.TERRAIN_NONE) return false;
-        for(Unit u:pgs.units) {
-            if (u.getX()==x && u.getY()==y) return false;
-        }
+        if (pgs.getUnitAt(x, y)!=null) return false;
+        if (reservationsUsable()) return reservations.owners[x + y*reservations.width]==null;
         for(UnitActionAssignment ua:unitActions.values()) {
             if (ua.action.type==UnitAction.TYPE_MOVE ||
                 ua.action.type==UnitAction.TYPE_PRODUCE) {
@@ -199,6 +378,14 @@ public class GameState {
     public boolean[][] getAllFree() {
     	
     	boolean free[][]=pgs.getAllFree();
+        checkAssignments();
+        if (reservations!=null && reservations.valid) {
+            UnitActionAssignment owners[] = reservations.owners;
+            for(int i = 0;i<owners.length;i++) {
+                if (owners[i]!=null) free[i%reservations.width][i/reservations.width] = false;
+            }
+            return free;
+        }
         for(UnitActionAssignment ua:unitActions.values()) {
             if (ua.action.type==UnitAction.TYPE_MOVE ||
                 ua.action.type==UnitAction.TYPE_PRODUCE) {
@@ -232,85 +419,149 @@ public class GameState {
      */
     public boolean issue(PlayerAction pa) {
         boolean returnValue = false;
+        checkAssignments();
         
-        for(Pair<Unit,UnitAction> p:pa.actions) {
-//            if (p.m_a==null) {
+        for(int i = 0;i<pa.nActions;i++) {
+            Unit u = pa.units[i];
+            UnitAction ua = pa.unitActions[i];
+//            if (u==null) {
 //                System.err.println("Issuing an action to a null unit!!!");
 //                System.exit(1);
 //            }
-//            if (unitActions.get(p.m_a)!=null) {
+//            if (unitActions.get(u)!=null) {
 //                System.err.println("Issuing an action to a unit with another action!");
 //            } else 
 //            {
                 // check for conflicts:
-                ResourceUsage ru = p.m_b.resourceUsage(p.m_a, pgs);
-                for(UnitActionAssignment uaa:unitActions.values()) {
-                    if (!uaa.action.resourceUsage(uaa.unit, pgs).consistentWith(ru, this)) {
-                        // conflicting actions:
-                        if (uaa.time==time) {
-                            // The actions were issued in the same game cycle, so it's normal
-                            boolean cancel_old = false;
-                            boolean cancel_new = false;
-                            switch(utt.getMoveConflictResolutionStrategy()) {
-                                default:
-                                    System.err.println("Unknown move conflict resolution strategy in the UnitTypeTable!: " + utt.getMoveConflictResolutionStrategy());
-                                    System.err.println("Defaulting to MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH");
-                                case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH:
-                                    cancel_old = cancel_new = true;
-                                    break;
-                                case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM:
-                                    if (r.nextInt(2)==0) cancel_new = true;
-                                                    else cancel_old = true;
-                                    break;
-                                case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING:
-                                    if ((unitCancelationCounter%2)==0) cancel_new = true;
-                                                                  else cancel_old = true;
-                                    unitCancelationCounter++;
-                                    break;
-                            }
-                            int duration1 = uaa.action.ETA(uaa.unit);
-                            int duration2 = p.m_b.ETA(p.m_a);
-                            if (cancel_old) {
-//                                System.out.println("Old action canceled: " + uaa.unit.getID() + ", " + uaa.action);
-                                uaa.action = new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2));
-                            }
-                            if (cancel_new) {
-//                                System.out.println("New action canceled: " + p.m_a.getID() + ", " + p.m_b);
-                                p = new Pair<>(p.m_a, new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2)));
-                            }
-                        } else {
-                            // This is more a problem, since it means there is a bug somewhere...
-                            // (probably in one of the AIs)
-                            System.err.println("Inconsistent actions were executed!");
-                            System.err.println(uaa);
-                            System.err.println("  Resources: " + uaa.action.resourceUsage(uaa.unit, pgs));
-                            System.err.println(p.m_a + " assigned action " + p.m_b + " at time " + time);
-                            System.err.println("  Resources: " + ru);
-                            System.err.println("Player resources: " + pgs.getPlayer(0).getResources() + ", " + pgs.getPlayer(1).getResources());
-                            System.err.println("Resource Consistency: " + uaa.action.resourceUsage(uaa.unit, pgs).consistentWith(ru, this));
-                            
-                            try {
-                                throw new Exception("dummy");   // just to be able to print the stack trace
-                            }catch(Exception e) {
-                                e.printStackTrace();
-                            }
-                            
-                            // only the newly issued action is cancelled, since it's the problematic one...
-                            p.m_b = new UnitAction(UnitAction.TYPE_NONE);
+                ResourceUsage ru = ua.resourceUsage(u, pgs);
+                int cell = -2;
+                if (ru.resourcesUsed[0]==0 && ru.resourcesUsed[1]==0 && reservationsUsable()) {
+                    cell = reservations.cellUsedBy(ua, u);
+                }
+                if (cell!=-2) {
+                    // 'ua' can only conflict with the action that uses the same cell (if any):
+                    UnitActionAssignment uaa = (cell==-1 ? null:reservations.owners[cell]);
+                    if (uaa!=null) ua = resolveConflict(uaa, u, ua, ru, pa, i);
+                } else {
+                    for(UnitActionAssignment uaa:unitActions.values()) {
+                        if (!uaa.action.resourceUsage(uaa.unit, pgs).consistentWith(ru, this)) {
+                            ua = resolveConflict(uaa, u, ua, ru, pa, i);
                         }
                     }
                 }
                 
-                UnitActionAssignment uaa = new UnitActionAssignment(p.m_a, p.m_b, time);
-                unitActions.put(p.m_a,uaa);
-                if (p.m_b.type!=UnitAction.TYPE_NONE) returnValue = true;
-//                System.out.println("Issuing action " + p.m_b + " to " + p.m_a);                
+                UnitActionAssignment uaa = new UnitActionAssignment(u, ua, time);
+                UnitActionAssignment previous = unitActions.put(u,uaa);
+                assignmentsUpdated();
+                if (undoLog!=null && undoLog.recording()) undoLog.record(UndoLog.ASSIGNED, u, previous, 0, 0);
+                if (previous==null) countAssignment(u, 1);
+                if (hashValid) {
+                    if (previous!=null) hash ^= ZobristKeys.assignment(previous);
+                    hash ^= ZobristKeys.assignment(uaa);
+                }
+                if (completions!=null && completions.valid) completions.add(time + ua.ETA(u), uaa);
+                if (reservations!=null && reservations.valid) {
+                    if (previous!=null) reservations.release(previous);
+                    reservations.reserve(uaa);
+                }
+                if (ua.type!=UnitAction.TYPE_NONE) returnValue = true;
+//                System.out.println("Issuing action " + ua + " to " + u);                
 //            }
         }
         return returnValue;
     }
     
     
+    /**
+     * Resolves a conflict between the action 'ua' being issued to unit 'u'
+     * (the i-th action of 'pa') and an action already assigned, according to
+     * the move conflict resolution strategy of the UnitTypeTable
+     * @return the action to issue to 'u' (a NONE action if 'ua' was canceled)
+     */
+    private UnitAction resolveConflict(UnitActionAssignment uaa, Unit u, UnitAction ua, ResourceUsage ru, PlayerAction pa, int i) {
+        // conflicting actions:
+        if (uaa.time==time) {
+            // The actions were issued in the same game cycle, so it's normal
+            boolean cancel_old = false;
+            boolean cancel_new = false;
+            switch(utt.getMoveConflictResolutionStrategy()) {
+                default:
+                    System.err.println("Unknown move conflict resolution strategy in the UnitTypeTable!: " + utt.getMoveConflictResolutionStrategy());
+                    System.err.println("Defaulting to MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH");
+                case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH:
+                    cancel_old = cancel_new = true;
+                    break;
+                case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM:
+                    if (getContext().random.nextInt(2)==0) cancel_new = true;
+                                    else cancel_old = true;
+                    break;
+                case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING:
+                    if ((unitCancelationCounter%2)==0) cancel_new = true;
+                                                  else cancel_old = true;
+                    unitCancelationCounter++;
+                    break;
+            }
+            int duration1 = uaa.action.ETA(uaa.unit);
+            int duration2 = ua.ETA(u);
+            if (cancel_old) {
+//                System.out.println("Old action canceled: " + uaa.unit.getID() + ", " + uaa.action);
+                if (undoLog!=null && undoLog.recording()) undoLog.record(UndoLog.ACTION_CHANGED, uaa, uaa.action, 0, 0);
+                if (hashValid) hash ^= ZobristKeys.assignment(uaa);
+                if (reservations!=null && reservations.valid) reservations.release(uaa);
+                uaa.action = new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2));
+                if (hashValid) hash ^= ZobristKeys.assignment(uaa);
+                if (completions!=null && completions.valid) completions.add(uaa.time + uaa.action.ETA(uaa.unit), uaa);
+            }
+            if (cancel_new) {
+//                System.out.println("New action canceled: " + u.getID() + ", " + ua);
+                ua = new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2));
+            }
+        } else {
+            // This is more a problem, since it means there is a bug somewhere...
+            // (probably in one of the AIs)
+            System.err.println("Inconsistent actions were executed!");
+            System.err.println(uaa);
+            System.err.println("  Resources: " + uaa.action.resourceUsage(uaa.unit, pgs));
+            System.err.println(u + " assigned action " + ua + " at time " + time);
+            System.err.println("  Resources: " + ru);
+            System.err.println("Player resources: " + pgs.getPlayer(0).getResources() + ", " + pgs.getPlayer(1).getResources());
+            System.err.println("Resource Consistency: " + uaa.action.resourceUsage(uaa.unit, pgs).consistentWith(ru, this));
+
+            try {
+                throw new Exception("dummy");   // just to be able to print the stack trace
+            }catch(Exception e) {
+                e.printStackTrace();
+            }
+
+            // only the newly issued action is cancelled, since it's the problematic one
+            // (it is also replaced in 'pa', unless it had already been replaced):
+            UnitAction none = new UnitAction(UnitAction.TYPE_NONE);
+            if (pa.unitActions[i]==ua) pa.unitActions[i] = none;
+            ua = none;
+        }
+        return ua;
+    }
+    
+    
+    /**
+     * Returns whether the reservation grid can be used to find conflicts and 
+     * free cells. The grid is only built once there are enough assignments for
+     * it to pay off, and it is not rebuilt again in the same cycle if it 
+     * could not be built (see {@link ReservationGrid}).
+     * @return
+     */
+    private boolean reservationsUsable() {
+        checkAssignments();
+        if (reservations!=null && reservations.valid) return true;
+        if (unitActions.size()<RESERVATION_THRESHOLD) return false;
+        if (reservations==null) reservations = new ReservationGrid();
+        if (reservations.failedTime==time) return false;
+        reservations.rebuild(this);
+        if (!reservations.valid) reservations.failedTime = time;
+        return reservations.valid;
+    }
+    
+    
     /**
      * Issues a player action, with additional checks for validity. This function is slower
      * than "issue", and should not be used internally by any AI. It is used externally in the main loop
@@ -321,30 +572,30 @@ public class GameState {
     public boolean issueSafe(PlayerAction pa) {
         if (!pa.integrityCheck()) throw new Error("PlayerAction inconsistent before 'issueSafe'");
         if (!integrityCheck()) throw new Error("GameState inconsistent before 'issueSafe'");
-        for(Pair<Unit,UnitAction> p:pa.actions) {
-            if (p.m_a==null) {
+        for(int i = 0;i<pa.nActions;i++) {
+            if (pa.units[i]==null) {
                 System.err.println("Issuing an action to a null unit!!!");
                 System.exit(1);
             }
             
-            if (!p.m_a.canExecuteAction(p.m_b, this)) {
+            if (!pa.units[i].canExecuteAction(pa.unitActions[i], this)) {
                 if (REPORT_ILLEGAL_ACTIONS) {
-                    System.err.println("Issuing a non legal action to unit " + p.m_a + "!! Ignoring it...");
+                    System.err.println("Issuing a non legal action to unit " + pa.units[i] + "!! Ignoring it...");
                 }
                 // replace the action by a NONE action of the same duration:
-                int l = p.m_b.ETA(p.m_a);
-                p.m_b = new UnitAction(UnitAction.TYPE_NONE, l);
+                int l = pa.unitActions[i].ETA(pa.units[i]);
+                pa.unitActions[i] = new UnitAction(UnitAction.TYPE_NONE, l);
             }
             
             // get the unit that corresponds to that action (since the state might have been cloned):
-            if (pgs.units.indexOf(p.m_a)==-1) {
+            if (!containsUnit(pa.units[i])) {
                 boolean found = false;
                 for(Unit u:pgs.units) {
-                    if (u.getClass()==p.m_a.getClass() &&
-//                        u.getID() == p.m_a.getID()) {
-                        u.getX()==p.m_a.getX() &&
-                        u.getY()==p.m_a.getY()) {
-                        p.m_a = u;
+                    if (u.getClass()==pa.units[i].getClass() &&
+//                        u.getID() == pa.units[i].getID()) {
+                        u.getX()==pa.units[i].getX() &&
+                        u.getY()==pa.units[i].getY()) {
+                        pa.setUnit(i, u);
                         found = true;
                         break;
                     }
@@ -352,24 +603,24 @@ public class GameState {
                 if (!found) {
                     System.err.println("Inconsistent order: " + pa);
                     System.err.println(this);
-                    System.err.println("The problem was with unit " + p.m_a);
+                    System.err.println("The problem was with unit " + pa.units[i]);
                 }
             }   
 
             {
                 // check to see if the action is legal!
-                ResourceUsage r = p.m_b.resourceUsage(p.m_a, pgs);
+                ResourceUsage r = pa.unitActions[i].resourceUsage(pa.units[i], pgs);
                 for(int position:r.getPositionsUsed()) {
                     int y = position/pgs.getWidth();
                     int x = position%pgs.getWidth();
                     if (pgs.getTerrain(x, y) != PhysicalGameState.TERRAIN_NONE ||
                         pgs.getUnitAt(x, y) != null) {
-                        UnitAction new_ua = new UnitAction(UnitAction.TYPE_NONE, p.m_b.ETA(p.m_a));
-                        System.err.println("Player " + p.m_a.getPlayer() + " issued an illegal move action (to "+x+","+y+") to unit "+p.m_a.getID()+" at time "+getTime()+", cancelling and replacing by " + new_ua);
-                        System.err.println("    Action: " + p.m_b);
+                        UnitAction new_ua = new UnitAction(UnitAction.TYPE_NONE, pa.unitActions[i].ETA(pa.units[i]));
+                        System.err.println("Player " + pa.units[i].getPlayer() + " issued an illegal move action (to "+x+","+y+") to unit "+pa.units[i].getID()+" at time "+getTime()+", cancelling and replacing by " + new_ua);
+                        System.err.println("    Action: " + pa.unitActions[i]);
                         System.err.println("    Resources used by the action: " + r);
                         System.err.println("    Unit at that coordinate " + pgs.getUnitAt(x, y));
-                        p.m_b = new_ua;
+                        pa.unitActions[i] = new_ua;
                     }
                 }
             }
@@ -389,6 +640,11 @@ public class GameState {
      * @return true if the player can execute any action
      */
     public boolean canExecuteAnyAction(int pID) {
+        if (pID>=0) {
+            // a player can act if it has more units than units with an action assigned:
+            int assigned = getAssignedCounts().length > pID ? assignedCounts[pID] : 0;
+            return pgs.getUnitCount(pID) > assigned;
+        }
         for(Unit u : pgs.getUnits()) {
             if (u.getPlayer() == pID) {
                 if (unitActions.get(u) == null) return true;
@@ -398,6 +654,88 @@ public class GameState {
     }
     
     
+    /**
+     * Returns whether the counts of units with an action assigned are up to date
+     * (they become out of date when the units of the PhysicalGameState are
+     * added or removed directly, or the assignments are modified directly, 
+     * see {@link #checkAssignments()})
+     * @return
+     */
+    private boolean assignedCountsValid() {
+        checkAssignments();
+        return assignedCounts!=null && assignedCountsVersion==pgs.getUnitListVersion();
+    }
+    
+    
+    /**
+     * Returns the number of units of each player (of the PhysicalGameState) with an 
+     * action assigned, recounting them if they are not up to date
+     * @return
+     */
+    private int[] getAssignedCounts() {
+        if (!assignedCountsValid()) {
+            int counts[] = new int[pgs.players.size()];
+            for(UnitActionAssignment uaa:unitActions.values()) {
+                int player = uaa.unit.getPlayer();
+                if (player>=0 && containsUnit(uaa.unit)) {
+                    if (player>=counts.length) counts = Arrays.copyOf(counts, player+1);
+                    counts[player]++;
+                }
+            }
+            assignedCounts = counts;
+            assignedCountsVersion = pgs.getUnitListVersion();
+        }
+        return assignedCounts;
+    }
+    
+    
+    /**
+     * Updates the counts of units with an action assigned when a unit gets
+     * (delta = 1) or loses (delta = -1) its action
+     * @param u
+     * @param delta
+     */
+    private void countAssignment(Unit u, int delta) {
+        int player = u.getPlayer();
+        if (player>=0 && assignedCountsValid() && containsUnit(u)) {
+            if (player>=assignedCounts.length) assignedCounts = Arrays.copyOf(assignedCounts, player+1);
+            assignedCounts[player] += delta;
+        }
+    }
+    
+    
+    /**
+     * Discards the information derived from the assignments of the units (the 
+     * hash, the counts of units with an action assigned, the completion queue 
+     * and the reservation grid) if the assignments were 
+     * modified directly, e.g. through {@link #getUnitActions()}, since it is 
+     * only kept up to date by the methods of this class
+     */
+    void checkAssignments() {
+        int version = unitActions.version;
+        if (version!=assignmentsVersion) {
+            hashValid = false;
+            assignedCountsVersion = -1;
+            if (completions!=null) completions.invalidate();
+            if (reservations!=null) {
+                reservations.invalidate();
+                reservations.failedTime = -1;
+            }
+            assignmentsVersion = version;
+        }
+    }
+    
+    
+    /**
+     * Records that the information derived from the assignments has been 
+     * updated with the changes made to them by this class (which must have 
+     * called {@link #checkAssignments()} before making them)
+     */
+    void assignmentsUpdated() {
+        assignmentsVersion = unitActions.version;
+    }
+    
+    
     /**
      *  This function checks whether the intended unit action  has any conflicts with some 
      *  other action. It assumes that the UnitAction ua is valid (i.e. one of the 
@@ -460,6 +798,33 @@ public class GameState {
     }
     
     
+    /**
+     * Writes the legal actions of all the units of a player that can act (i.e.
+     * that have no action assigned) as masks, one per cell of the map (see 
+     * {@link GridActionSpace}). The masks of the cells without such a unit are
+     * all false. The actions whose entries are set are exactly the ones for 
+     * which {@link Unit#canExecuteAction(UnitAction, GameState)} is true.
+     * @param player
+     * @param space
+     * @param masks
+     * @param offset position of the mask of the first cell in 'masks'
+     */
+    public void getActionMasks(int player, GridActionSpace space, boolean masks[], int offset) {
+        int maskSize = space.getMaskSize();
+        Arrays.fill(masks, offset, offset + pgs.width*pgs.height*maskSize, false);
+        if (actionBuffer==null) actionBuffer = new UnitAction[32];
+        for(Unit u:pgs.units) {
+            if (u.getPlayer()!=player || !pgs.insideMap(u.getX(), u.getY()) || unitActions.get(u)!=null) continue;
+            int n = u.getUnitActions(this, actionBuffer);
+            if (n>actionBuffer.length) {
+                actionBuffer = new UnitAction[n*2];
+                n = u.getUnitActions(this, actionBuffer);
+            }
+            space.setMask(u, actionBuffer, n, masks, offset + (u.getX() + u.getY()*pgs.width)*maskSize);
+        }
+    }
+    
+    
     /**
      * Returns the list of {@link PlayerAction} for a given player
      * @param playerID the player ID
@@ -521,21 +886,84 @@ public class GameState {
     }
         
     
+    /**
+     * Returns the earliest time at which one of the assigned actions completes,
+     * or -1 if no unit has an action assigned. Unlike {@link #getNextChangeTime()},
+     * this does not check whether the players can act, and it does not iterate
+     * over all the assignments: completion times are kept in a priority queue,
+     * which is built the first time this method is called, and then updated
+     * by {@link #issue(PlayerAction)}.
+     * @return
+     */
+    public int getNextCompletionTime() {
+        checkAssignments();
+        if (completions==null) completions = new CompletionQueue();
+        if (!completions.valid) completions.rebuild(this);
+        return completions.next(this);
+    }
+    
+    
+    /**
+     * Runs game cycles until a cycle in which some assigned action completes,
+     * or until the time reaches 'limit', whichever comes first (at least one
+     * cycle is always run). Since nothing changes in a cycle in which no action
+     * completes, this is equivalent to calling {@link #cycle()} repeatedly
+     * (without issuing actions) up to that point, but the cycles in between are
+     * skipped (see {@link #getNextCompletionTime()}).
+     * @param limit
+     * @return whether the game was over
+     */
+    public boolean cycleUntil(int limit) {
+        int next = getNextCompletionTime();
+        if (next==-1 || next>limit) next = limit;
+        if (next>time+1) {
+            if (hashValid) hash ^= ZobristKeys.time(time) ^ ZobristKeys.time(next-1);
+            time = next-1;
+        }
+        return cycle();
+    }
+    
+    
+    /**
+     * Runs game cycles up to (and including) the next cycle in which some 
+     * assigned action completes, after which the unit that executed it is idle,
+     * skipping the cycles in between. If no action is assigned, a single cycle
+     * is run.
+     * @return whether the game was over
+     */
+    public boolean advanceToNextEvent() {
+        int next = getNextCompletionTime();
+        return cycleUntil(next==-1 ? time+1 : next);
+    }
+    
+    
     /**
      * Runs a game cycle, execution all assigned actions
      * @return whether the game was over
      */
     public boolean cycle() {
+        checkAssignments();
+        if (hashValid) hash ^= ZobristKeys.time(time) ^ ZobristKeys.time(time+1);
         time++;
         
-        List<UnitActionAssignment> readyToExecute = new LinkedList<>();
-        for(UnitActionAssignment uaa:unitActions.values()) {
-            if (uaa.action.ETA(uaa.unit)+uaa.time<=time) readyToExecute.add(uaa);
+        if (completions!=null && completions.valid) {
+            // no need to look for the actions to execute if none completes in this cycle:
+            int next = completions.next(this);
+            if (next==-1 || next>time) return gameover();
+        }
+        
+        int nReady = 0;
+        // the nodes are walked directly, since iterating over values() allocates:
+        for(AssignmentMap.Node n = unitActions.head;n!=null;n = n.next) {
+            UnitActionAssignment uaa = n.uaa;
+            if (uaa.action.ETA(uaa.unit)+uaa.time<=time) nReady = addReady(uaa, nReady);
         }
                 
         // execute the actions:
-        for(UnitActionAssignment uaa:readyToExecute) {
-            unitActions.remove(uaa.unit);
+        for(int i = 0;i<nReady;i++) {
+            UnitActionAssignment uaa = readyBuffer[i];
+            readyBuffer[i] = null;
+            removeActionAssignment(uaa.unit);
             
 //            System.out.println("Executing action for " + u + " issued at time " + uaa.time + " with duration " + uaa.action.ETA(uaa.unit));
             
@@ -546,15 +974,35 @@ public class GameState {
     }
     
     
+    /**
+     * Adds an assignment to the actions to execute in this cycle
+     * @param uaa
+     * @param nReady the number of assignments already added
+     * @return the new number of assignments added
+     */
+    private int addReady(UnitActionAssignment uaa, int nReady) {
+        if (readyBuffer==null) {
+            readyBuffer = new UnitActionAssignment[Math.max(8, unitActions.size())];
+        } else if (nReady==readyBuffer.length) {
+            readyBuffer = Arrays.copyOf(readyBuffer, nReady*2);
+        }
+        readyBuffer[nReady] = uaa;
+        return nReady+1;
+    }
+    
+    
     /**
      * Forces the execution of all assigned actions
      */
     public void forceExecuteAllActions() {
-        List<UnitActionAssignment> readyToExecute = new LinkedList<>(unitActions.values());
+        int nReady = 0;
+        for(AssignmentMap.Node n = unitActions.head;n!=null;n = n.next) nReady = addReady(n.uaa, nReady);
                 
         // execute all the actions:
-        for(UnitActionAssignment uaa:readyToExecute) {
-            unitActions.remove(uaa.unit);
+        for(int i = 0;i<nReady;i++) {
+            UnitActionAssignment uaa = readyBuffer[i];
+            readyBuffer[i] = null;
+            removeActionAssignment(uaa.unit);
             uaa.action.execute(uaa.unit,this);
         }
     }
@@ -563,20 +1011,27 @@ public class GameState {
      * @see java.lang.Object#clone()
      */
     public GameState clone() {
-        GameState gs = new GameState(pgs.clone(), utt);
+        GameState gs = new GameState(pgs.clone(), utt, getContext());
         gs.time = time;
         gs.unitCancelationCounter = unitCancelationCounter;
-        for(UnitActionAssignment uaa:unitActions.values()) {
+        for(AssignmentMap.Node n = unitActions.head;n!=null;n = n.next) {
+            UnitActionAssignment uaa = n.uaa;
             Unit u = uaa.unit;
-            int idx = pgs.getUnits().indexOf(u);
-            if (idx==-1) {
+            Unit u2 = null;
+            if (pgs.getUnit(u.getID())==u) {
+                u2 = gs.pgs.getUnit(u.getID());
+            } else {
+                // repeated IDs, fall back to the position in the unit list:
+                int idx = pgs.getUnits().indexOf(u);
+                if (idx!=-1) u2 = gs.pgs.getUnits().get(idx);
+            }
+            if (u2==null) {
                 System.out.println("Problematic game state:");
                 System.out.println(this);
                 System.out.println("Problematic action:");
                 System.out.println(uaa);
                 throw new Error("Inconsistent game state during cloning...");
             } else {
-                Unit u2 = gs.pgs.getUnits().get(idx);
                 gs.unitActions.put(u2,new UnitActionAssignment(u2, uaa.action, uaa.time));
             }                
         }
@@ -590,10 +1045,27 @@ public class GameState {
      * @return
      */
     public GameState cloneIssue(PlayerAction pa) {
-        GameState gs = new GameState(pgs, utt);
+        return cloneIssue(pa, getContext());
+    }
+    
+    
+    /**
+     * Same as cloneIssue(pa), but the clone uses the given simulation context,
+     * which is also the one issuing the action draws from
+     * @param pa
+     * @param a_context
+     * @return
+     */
+    public GameState cloneIssue(PlayerAction pa, SimulationContext a_context) {
+        GameState gs = new GameState(pgs, utt, a_context);
         gs.time = time;
         gs.unitCancelationCounter = unitCancelationCounter;
+        checkAssignments();
         gs.unitActions.putAll(unitActions);
+        gs.assignmentsUpdated();
+        // the hash is updated incrementally by issue (the PGS is shared, so it is the same):
+        gs.hash = hash;
+        gs.hashValid = hashValid;
         gs.issue(pa);
         return gs;        
     }
@@ -638,6 +1110,48 @@ public class GameState {
     }
     
     
+    /**
+     * Returns a 64 bit Zobrist hash of the state, which covers the units (type,
+     * owner, position, hit points and carried resources), the action 
+     * assignments, the resources of the players and the time (unit IDs and the
+     * terrain are not included, as in {@link #equals(Object)}).
+     * The hash is computed the first time it is requested, and from then on it is
+     * updated incrementally by {@link #issue(PlayerAction)}, {@link #cycle()}, 
+     * {@link #removeUnit(Unit)} and {@link #undo()}. If the state is modified 
+     * directly through its PhysicalGameState or its units after that, 
+     * {@link #resetHash()} has to be called (direct changes to the assignments 
+     * returned by {@link #getUnitActions()} are detected).
+     * @return
+     */
+    public long getHash() {
+        checkAssignments();
+        if (!hashValid) {
+            long h = ZobristKeys.time(time);
+            for(Player p:pgs.getPlayers()) h ^= ZobristKeys.player(p);
+            for(Unit u:pgs.getUnits()) h ^= ZobristKeys.unit(u);
+            for(UnitActionAssignment uaa:unitActions.values()) h ^= ZobristKeys.assignment(uaa);
+            hash = h;
+            hashValid = true;
+        }
+        return hash;
+    }
+    
+    /**
+     * Forces the hash to be recomputed from scratch the next time it is requested
+     * (see {@link #getHash()})
+     */
+    public void resetHash() {
+        hashValid = false;
+    }
+    
+    /* 
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode() {
+        long h = getHash();
+        return (int)(h ^ (h >>> 32));
+    }
+    
     /* 
      * @see java.lang.Object#equals(java.lang.Object)
      */
@@ -648,13 +1162,15 @@ public class GameState {
         
         if(this.getTime() != s2.getTime()) return false;
         
+        // the hash is not used to discard states here, since it is out of date if the units were
+        // modified directly (callers that look states up by hash confirm the matches with equals):
         if (!pgs.equivalents(s2.pgs)) return false;
         
         // compare actions:
-        int n = pgs.units.size();
-        for(int i = 0;i<n;i++) {
-            UnitActionAssignment uaa = unitActions.get(pgs.units.get(i)); 
-            UnitActionAssignment uaa2 = s2.unitActions.get(s2.pgs.units.get(i));
+        Iterator<Unit> it2 = s2.pgs.units.iterator();
+        for(Unit u:pgs.units) {
+            UnitActionAssignment uaa = unitActions.get(u); 
+            UnitActionAssignment uaa2 = s2.unitActions.get(it2.next());
             if (uaa==null) {
                 if (uaa2!=null) return false;
             } else {
@@ -677,8 +1193,7 @@ public class GameState {
         List<Unit> alreadyUsed = new LinkedList<>();
         for(UnitActionAssignment uaa:unitActions.values()) {
             Unit u = uaa.unit;
-            int idx = pgs.getUnits().indexOf(u);
-            if (idx==-1) {
+            if (!containsUnit(u)) {
                 System.err.println("integrityCheck: unit does not exist!");
                 return false;
             }            
@@ -808,6 +1323,54 @@ public class GameState {
         w.write("}");
     }
     
+    /**
+     * Returns a compact binary snapshot of this state, including its terrain.
+     * The state can be reconstructed with {@link #fromBytes(byte[], UnitTypeTable)}.
+     * The UnitTypeTable and the simulation context are not included.
+     * @return
+     */
+    public byte[] toBytes() {
+        return toBytes(true);
+    }
+    
+    /**
+     * Returns a compact binary snapshot of this state. If the terrain is not 
+     * included, only a hash of it is, and the state can only be reconstructed
+     * with {@link #fromBytes(byte[], UnitTypeTable, PhysicalGameState)}, 
+     * giving a map with the same terrain (which is then shared).
+     * @param includeTerrain
+     * @return
+     */
+    public byte[] toBytes(boolean includeTerrain) {
+        return BinarySnapshot.write(this, includeTerrain);
+    }
+    
+    /**
+     * Reconstructs a GameState from a snapshot created with {@link #toBytes()}
+     * @param bytes
+     * @param utt the UnitTypeTable of the state the snapshot was created from
+     * @return
+     * @throws IllegalArgumentException if the snapshot is not valid, or does 
+     * not include its terrain
+     */
+    public static GameState fromBytes(byte[] bytes, UnitTypeTable utt) {
+        return BinarySnapshot.read(bytes, utt, null);
+    }
+    
+    /**
+     * Reconstructs a GameState from a snapshot created with {@link #toBytes(boolean)}
+     * @param bytes
+     * @param utt the UnitTypeTable of the state the snapshot was created from
+     * @param map a map with the same terrain as the state, used if the 
+     * snapshot does not include its terrain
+     * @return
+     * @throws IllegalArgumentException if the snapshot is not valid, or does 
+     * not include its terrain and the terrain of the map is different
+     */
+    public static GameState fromBytes(byte[] bytes, UnitTypeTable utt, PhysicalGameState map) {
+        return BinarySnapshot.read(bytes, utt, map);
+    }
+    
     /**
      * Constructs a GameState from a XML Element
      * @param e
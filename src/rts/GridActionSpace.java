@@ -0,0 +1,185 @@
+package rts;
+
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * A fixed-size encoding of unit actions, for agents that choose an action for
+ * the unit in each cell of the map (see {@link VecEnv}). The action of a cell
+ * is encoded with {@link #COMPONENTS} integers:
+ * <pre>
+ * TYPE               action type ({@link UnitAction#TYPE_NONE} ... {@link UnitAction#TYPE_ATTACK_LOCATION})
+ * MOVE_DIRECTION     direction of a move ({@link UnitAction#DIRECTION_UP} ... {@link UnitAction#DIRECTION_LEFT})
+ * HARVEST_DIRECTION  direction of a harvest
+ * RETURN_DIRECTION   direction of a return
+ * PRODUCE_DIRECTION  direction of a produce
+ * PRODUCE_TYPE       ID of the unit type to produce
+ * ATTACK_TARGET      target of an attack, relative to the unit: (dx + R) + (dy + R) * (2R + 1),
+ *                    where R is the largest attack range of the unit types
+ * </pre>
+ * Only the components used by the chosen action type are read.
+ *
+ * The legal actions of a unit are described with a mask of
+ * {@link #getMaskSize()} booleans per cell, with one entry for each value of
+ * each component, component after component (see {@link #getComponentOffset(int)}
+ * and {@link GameState#getActionMasks(int, GridActionSpace, boolean[], int)}).
+ * An entry of a component is true if there is a legal action with that value.
+ */
+public class GridActionSpace {
+    public static final int TYPE = 0;
+    public static final int MOVE_DIRECTION = 1;
+    public static final int HARVEST_DIRECTION = 2;
+    public static final int RETURN_DIRECTION = 3;
+    public static final int PRODUCE_DIRECTION = 4;
+    public static final int PRODUCE_TYPE = 5;
+    public static final int ATTACK_TARGET = 6;
+    public static final int COMPONENTS = 7;
+
+    UnitTypeTable utt;
+    int attackRange;    // largest attack range of the unit types
+    int attackWidth;    // 2 * attackRange + 1
+    int componentOffsets[] = new int[COMPONENTS + 1];
+
+    /**
+     * Creates the action space of a UnitTypeTable
+     * @param a_utt
+     */
+    public GridActionSpace(UnitTypeTable a_utt) {
+        utt = a_utt;
+        attackRange = 0;
+        for (UnitType ut : utt.getUnitTypes()) {
+            if (ut.canAttack) attackRange = Math.max(attackRange, ut.attackRange);
+        }
+        attackWidth = 2 * attackRange + 1;
+        for (int c = 0; c < COMPONENTS; c++) {
+            componentOffsets[c + 1] = componentOffsets[c] + getComponentSize(c);
+        }
+    }
+
+    /**
+     * Returns the number of values of a component
+     * @param component
+     * @return
+     */
+    public int getComponentSize(int component) {
+        switch (component) {
+            case TYPE:
+                return UnitAction.NUMBER_OF_ACTION_TYPES;
+            case PRODUCE_TYPE:
+                return utt.getUnitTypes().size();
+            case ATTACK_TARGET:
+                return attackWidth * attackWidth;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Returns the position of the entries of a component in the mask of a cell
+     * @param component
+     * @return
+     */
+    public int getComponentOffset(int component) {
+        return componentOffsets[component];
+    }
+
+    /**
+     * Returns the number of entries of the mask of a cell
+     * @return
+     */
+    public int getMaskSize() {
+        return componentOffsets[COMPONENTS];
+    }
+
+    /**
+     * Sets the mask entries of a set of legal actions of a unit
+     *
+     * @param u
+     * @param actions the legal actions (see {@link Unit#getUnitActions(GameState, UnitAction[])})
+     * @param n the number of actions
+     * @param mask
+     * @param offset position of the mask of the cell of the unit
+     */
+    void setMask(Unit u, UnitAction actions[], int n, boolean mask[], int offset) {
+        for (int i = 0; i < n; i++) {
+            UnitAction a = actions[i];
+            mask[offset + a.type] = true;
+            switch (a.type) {
+                case UnitAction.TYPE_MOVE:
+                    mask[offset + componentOffsets[MOVE_DIRECTION] + a.parameter] = true;
+                    break;
+                case UnitAction.TYPE_HARVEST:
+                    mask[offset + componentOffsets[HARVEST_DIRECTION] + a.parameter] = true;
+                    break;
+                case UnitAction.TYPE_RETURN:
+                    mask[offset + componentOffsets[RETURN_DIRECTION] + a.parameter] = true;
+                    break;
+                case UnitAction.TYPE_PRODUCE:
+                    mask[offset + componentOffsets[PRODUCE_DIRECTION] + a.parameter] = true;
+                    mask[offset + componentOffsets[PRODUCE_TYPE] + a.unitType.ID] = true;
+                    break;
+                case UnitAction.TYPE_ATTACK_LOCATION: {
+                    int dx = a.x - u.getX() + attackRange;
+                    int dy = a.y - u.getY() + attackRange;
+                    if (dx >= 0 && dy >= 0 && dx < attackWidth && dy < attackWidth) {
+                        mask[offset + componentOffsets[ATTACK_TARGET] + dx + dy * attackWidth] = true;
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the largest attack range of the unit types, which determines
+     * the size of the ATTACK_TARGET component
+     * @return
+     */
+    public int getAttackRange() {
+        return attackRange;
+    }
+
+    /**
+     * Decodes the action of a unit
+     *
+     * @param u
+     * @param actions
+     * @param offset position in 'actions' of the TYPE component of the action
+     * @param pgs
+     * @return the action (a shared instance, see {@link UnitActionTable}), or
+     * null if the type is {@link UnitAction#TYPE_NONE} or the components are
+     * out of range
+     */
+    public UnitAction decode(Unit u, int actions[], int offset, PhysicalGameState pgs) {
+        UnitActionTable table = utt.getUnitActionTable();
+        switch (actions[offset + TYPE]) {
+            case UnitAction.TYPE_MOVE: {
+                int d = actions[offset + MOVE_DIRECTION];
+                return (d >= 0 && d < 4) ? table.move(d) : null;
+            }
+            case UnitAction.TYPE_HARVEST: {
+                int d = actions[offset + HARVEST_DIRECTION];
+                return (d >= 0 && d < 4) ? table.harvest(d) : null;
+            }
+            case UnitAction.TYPE_RETURN: {
+                int d = actions[offset + RETURN_DIRECTION];
+                return (d >= 0 && d < 4) ? table.ret(d) : null;
+            }
+            case UnitAction.TYPE_PRODUCE: {
+                int d = actions[offset + PRODUCE_DIRECTION];
+                int type = actions[offset + PRODUCE_TYPE];
+                if (d < 0 || d >= 4 || type < 0 || type >= utt.getUnitTypes().size()) return null;
+                return table.produce(d, utt.getUnitType(type));
+            }
+            case UnitAction.TYPE_ATTACK_LOCATION: {
+                int target = actions[offset + ATTACK_TARGET];
+                if (target < 0 || target >= attackWidth * attackWidth) return null;
+                return table.attack(u.getX() + target % attackWidth - attackRange,
+                                    u.getY() + target / attackWidth - attackRange, pgs);
+            }
+            default:
+                return null;
+        }
+    }
+}
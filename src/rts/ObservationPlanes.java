@@ -0,0 +1,142 @@
+package rts;
+
+import java.nio.ByteBuffer;
+import rts.units.Unit;
+
+/**
+ * Writes the features of each cell of a game state as a set of planes, for
+ * machine learning clients (see {@link VecEnv}), directly into an int array or
+ * a ByteBuffer, without going through XML or JSON. The layout is
+ * [plane][y][x], with the planes:
+ * <pre>
+ * TERRAIN     0: free, 1: wall
+ * OWNER       0: no unit, 1 + player of the unit otherwise
+ * UNIT_TYPE   0: no unit, 1 + ID of the unit type otherwise
+ * HIT_POINTS  hit points of the unit, capped at MAX_BUCKET (0 if there is no unit)
+ * RESOURCES   resources carried by the unit, capped at MAX_BUCKET
+ * ACTION      0: no unit or no action assigned, 1 + type of the action of the unit otherwise
+ * OBSERVABLE  1 if the cell can be observed (always, unless observing a partially
+ *             observable game, see {@link #write(GameState, int, int[], int)}), 0 otherwise
+ * </pre>
+ * Units in cells that cannot be observed are not written.
+ */
+public class ObservationPlanes {
+    public static final int TERRAIN = 0;
+    public static final int OWNER = 1;
+    public static final int UNIT_TYPE = 2;
+    public static final int HIT_POINTS = 3;
+    public static final int RESOURCES = 4;
+    public static final int ACTION = 5;
+    public static final int OBSERVABLE = 6;
+    public static final int PLANES = 7;
+
+    public static final int MAX_BUCKET = 4;
+
+    /**
+     * Returns the number of values written for a map
+     * @param pgs
+     * @return
+     */
+    public static int size(PhysicalGameState pgs) {
+        return PLANES * pgs.getWidth() * pgs.getHeight();
+    }
+
+    /**
+     * Writes the planes of a game state (which can be a
+     * {@link PartiallyObservableGameState})
+     *
+     * @param gs
+     * @param out
+     * @param offset position of the first value in 'out'
+     */
+    public static void write(GameState gs, int out[], int offset) {
+        write(gs, -1, out, offset);
+    }
+
+    /**
+     * Writes the planes of a game state as observed by a player: only the
+     * units of the player and the units in the cells within its sight are
+     * written. This is equivalent to writing the planes of a
+     * {@link PartiallyObservableGameState}, without creating it.
+     *
+     * @param gs
+     * @param player the observer, or -1 to write the game state as it is
+     * @param out
+     * @param offset position of the first value in 'out'
+     */
+    public static void write(GameState gs, int player, int out[], int offset) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        int cells = pgs.getWidth() * pgs.getHeight();
+        for (int i = 0; i < cells; i++) {
+            out[offset + TERRAIN * cells + i] = pgs.terrain[i];
+            out[offset + OBSERVABLE * cells + i] = observable(gs, player, i % pgs.getWidth(), i / pgs.getWidth()) ? 1 : 0;
+        }
+        for (int plane = OWNER; plane <= ACTION; plane++) {
+            for (int i = 0; i < cells; i++) {
+                out[offset + plane * cells + i] = 0;
+            }
+        }
+        for (Unit u : pgs.getUnits()) {
+            if (!pgs.insideMap(u.getX(), u.getY())) continue;
+            int cell = u.getX() + u.getY() * pgs.getWidth();
+            if (out[offset + OBSERVABLE * cells + cell] == 0 && (player < 0 || u.getPlayer() != player)) continue;
+            out[offset + OWNER * cells + cell] = u.getPlayer() + 1;
+            out[offset + UNIT_TYPE * cells + cell] = u.getType().ID + 1;
+            out[offset + HIT_POINTS * cells + cell] = Math.min(u.getHitPoints(), MAX_BUCKET);
+            out[offset + RESOURCES * cells + cell] = Math.min(u.getResources(), MAX_BUCKET);
+            UnitActionAssignment uaa = gs.assignments().get(u);
+            out[offset + ACTION * cells + cell] = (uaa == null ? 0 : uaa.action.type + 1);
+        }
+    }
+
+    /**
+     * Writes the planes of a game state into a ByteBuffer (one byte per
+     * value), starting at its position, which is advanced
+     *
+     * @param gs
+     * @param out
+     */
+    public static void write(GameState gs, ByteBuffer out) {
+        write(gs, -1, out);
+    }
+
+    /**
+     * Writes the planes of a game state as observed by a player into a
+     * ByteBuffer (one byte per value), starting at its position, which is
+     * advanced
+     *
+     * @param gs
+     * @param player the observer, or -1 to write the game state as it is
+     * @param out
+     */
+    public static void write(GameState gs, int player, ByteBuffer out) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        int cells = pgs.getWidth() * pgs.getHeight();
+        int offset = out.position();
+        for (int i = 0; i < cells; i++) {
+            out.put(offset + TERRAIN * cells + i, (byte) pgs.terrain[i]);
+            out.put(offset + OBSERVABLE * cells + i, (byte) (observable(gs, player, i % pgs.getWidth(), i / pgs.getWidth()) ? 1 : 0));
+        }
+        for (int plane = OWNER; plane <= ACTION; plane++) {
+            for (int i = 0; i < cells; i++) {
+                out.put(offset + plane * cells + i, (byte) 0);
+            }
+        }
+        for (Unit u : pgs.getUnits()) {
+            if (!pgs.insideMap(u.getX(), u.getY())) continue;
+            int cell = u.getX() + u.getY() * pgs.getWidth();
+            if (out.get(offset + OBSERVABLE * cells + cell) == 0 && (player < 0 || u.getPlayer() != player)) continue;
+            out.put(offset + OWNER * cells + cell, (byte) (u.getPlayer() + 1));
+            out.put(offset + UNIT_TYPE * cells + cell, (byte) (u.getType().ID + 1));
+            out.put(offset + HIT_POINTS * cells + cell, (byte) Math.min(u.getHitPoints(), MAX_BUCKET));
+            out.put(offset + RESOURCES * cells + cell, (byte) Math.min(u.getResources(), MAX_BUCKET));
+            UnitActionAssignment uaa = gs.assignments().get(u);
+            out.put(offset + ACTION * cells + cell, (byte) (uaa == null ? 0 : uaa.action.type + 1));
+        }
+        out.position(offset + PLANES * cells);
+    }
+
+    static boolean observable(GameState gs, int player, int x, int y) {
+        return player < 0 ? gs.observable(x, y) : gs.getPhysicalGameState().observable(player, x, y);
+    }
+}
@@ -21,13 +21,13 @@ public class PartiallyObservableGameState extends GameState {
      * @param a_player
      */
     public PartiallyObservableGameState(GameState gs, int a_player) {
-		super(gs.getPhysicalGameState().cloneKeepingUnits(), gs.getUnitTypeTable());
+		super(gs.getPhysicalGameState().cloneKeepingUnits(), gs.getUnitTypeTable(), gs.getContext());
 		unitCancelationCounter = gs.unitCancelationCounter;
 		time = gs.time;
 
 		player = a_player;
 
-		unitActions.putAll(gs.unitActions);
+		assignments().putAll(gs.assignments());
 
 		List<Unit> toDelete = new LinkedList<>();
 		for (Unit u : pgs.getUnits()) {
@@ -46,15 +46,7 @@ public class PartiallyObservableGameState extends GameState {
      * @see rts.GameState#observable(int, int)
      */
     public boolean observable(int x, int y) {
-		for (Unit u : pgs.getUnits()) {
-			if (u.getPlayer() == player) {
-				double d = Math.sqrt((u.getX() - x) * (u.getX() - x) + (u.getY() - y) * (u.getY() - y));
-				if (d <= u.getType().sightRadius)
-					return true;
-			}
-		}
-
-        return false;
+        return pgs.observable(player, x, y);
     }
 
     /* (non-Javadoc)
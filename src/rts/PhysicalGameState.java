@@ -10,6 +10,8 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import util.XMLWriter;
@@ -40,7 +42,91 @@ public class PhysicalGameState {
     int height = 8;
     int terrain[];
     List<Player> players = new ArrayList<>();
-    List<Unit> units = new LinkedList<>();
+    UnitList units = new UnitList();
+
+    /**
+     * The list of units, which exposes its modification count so that the
+     * unit indexes can detect changes made directly to the list (through
+     * {@link #getUnits()})
+     */
+    static class UnitList extends LinkedList<Unit> {
+        private static final long serialVersionUID = 1L;
+
+        int modifications() {
+            return modCount;
+        }
+    }
+
+    /**
+     * Spatial index of the units: the unit standing on each cell (x + y *
+     * width), or null. It is kept in sync by {@link #addUnit(Unit)},
+     * {@link #removeUnit(Unit)} and {@link #moveUnit(Unit, int, int)}, and
+     * rebuilt lazily if the unit list or the map size are modified directly,
+     * or if a unit is found away from the cell it is indexed in (i.e., it was
+     * moved with {@link Unit#setX(int)}/{@link Unit#setY(int)})
+     */
+    Unit unitGrid[];
+
+    /**
+     * Index of the units by ID, maintained together with {@link #unitGrid}
+     */
+    HashMap<Long, Unit> unitsByID = new HashMap<>();
+
+    /**
+     * The modification count of the unit list when the indexes were last
+     * brought up to date, or -1 if they need to be rebuilt
+     */
+    int indexedModifications = -1;
+
+    /**
+     * Number of units of each player, maintained together with
+     * {@link #unitGrid}, so that {@link #winner()} and {@link #gameover()} do
+     * not need to go through the units
+     */
+    int unitCounts[] = new int[2];
+
+    /**
+     * Incremented every time units are added or removed (or the indexes are
+     * rebuilt), so that data derived from the unit list can be validated (see
+     * {@link GameState#canExecuteAnyAction(int)})
+     */
+    int unitListVersion = 0;
+
+    /**
+     * The ID to give to the next unit created in this map (larger than the
+     * ID of any unit that has been in it). It is copied when the map is
+     * cloned, so that a state and its clones produce units with the same IDs.
+     * It is not part of the XML/JSON formats: a loaded map derives it from the
+     * largest ID of its units, so the IDs of units that had already died when
+     * it was saved can be given again
+     */
+    long nextUnitID = 0;
+
+    /**
+     * Which cells each player can see, built the first time it is needed (see
+     * {@link #observable(int, int, int)}) and then maintained together with
+     * {@link #unitGrid}
+     */
+    VisibilityMap visibility;
+
+    /**
+     * Maps made with {@link #cloneKeepingUnits()} share their units with the
+     * map they were made from (the "source", which is never such a clone
+     * itself). Moves of those units are counted in the {@link #moves} of the
+     * source, and the indexes of each map are rebuilt when that count differs
+     * from the one they were built for ({@link #indexedMoves}), unless the map
+     * updated them itself
+     */
+    PhysicalGameState source = null;
+    int moves = 0;
+    int indexedMoves = 0;
+
+    /**
+     * The number of direct moves of units (see {@link Unit#getDirectMoves()})
+     * for which the unit indexes were last checked: when it changes, the
+     * positions of the units are checked again (see {@link #getUnitGrid()})
+     */
+    long indexedDirectMoves = -1;
 
     /**
      * Constructs the game state map from a XML
@@ -75,6 +161,7 @@ public class PhysicalGameState {
         width = a_width;
         height = a_height;
         terrain = new int[width * height];
+        unitGrid = new Unit[width * height];
     }
 
     /**
@@ -89,6 +176,7 @@ public class PhysicalGameState {
         width = a_width;
         height = a_height;
         terrain = t;
+        unitGrid = new Unit[width * height];
     }
 
     /**
@@ -176,13 +264,19 @@ public class PhysicalGameState {
      * occupied
      */
     public void addUnit(Unit newUnit) throws IllegalArgumentException {
-        for (Unit existingUnit : units) {
-            if (newUnit.getX() == existingUnit.getX() && newUnit.getY() == existingUnit.getY()) {
-                throw new IllegalArgumentException(
-                        "PhysicalGameState.addUnit: added two units in position: (" + newUnit.getX() + ", " + newUnit.getY() + ")");
-            }
+        if (getUnitAt(newUnit.getX(), newUnit.getY()) != null) {
+            throw new IllegalArgumentException(
+                    "PhysicalGameState.addUnit: added two units in position: (" + newUnit.getX() + ", " + newUnit.getY() + ")");
         }
+        Unit grid[] = getUnitGrid();
         units.add(newUnit);
+        if (insideMap(newUnit.getX(), newUnit.getY())) {
+            grid[newUnit.getX() + newUnit.getY() * width] = newUnit;
+        }
+        unitsByID.put(newUnit.getID(), newUnit);
+        indexedModifications = units.modifications();
+        countUnit(newUnit, 1);
+        if (visibility != null) visibility.stamp(newUnit, 1);
     }
 
     /**
@@ -191,7 +285,246 @@ public class PhysicalGameState {
      * @param u
      */
     public void removeUnit(Unit u) {
-        units.remove(u);
+        Unit grid[] = getUnitGrid();
+        if (units.remove(u)) {
+            if (insideMap(u.getX(), u.getY()) && grid[u.getX() + u.getY() * width] == u) {
+                grid[u.getX() + u.getY() * width] = null;
+            }
+            if (unitsByID.get(u.getID()) == u) {
+                unitsByID.remove(u.getID());
+            }
+            indexedModifications = units.modifications();
+            countUnit(u, -1);
+            if (visibility != null) visibility.stamp(u, -1);
+        }
+    }
+
+    /**
+     * Inserts a unit at a given position of the unit list (used to restore
+     * removed units in their original order)
+     *
+     * @param index
+     * @param u
+     */
+    void insertUnit(int index, Unit u) {
+        Unit grid[] = getUnitGrid();
+        units.add(index, u);
+        if (insideMap(u.getX(), u.getY())) {
+            grid[u.getX() + u.getY() * width] = u;
+        }
+        unitsByID.put(u.getID(), u);
+        indexedModifications = units.modifications();
+        countUnit(u, 1);
+        if (visibility != null) visibility.stamp(u, 1);
+    }
+
+    /**
+     * Updates the unit counts when a unit is added (delta = 1) or removed
+     * (delta = -1), and makes sure the IDs of new units do not collide with
+     * the ones of the units added
+     *
+     * @param u
+     * @param delta
+     */
+    void countUnit(Unit u, int delta) {
+        if (delta > 0 && u.getID() >= nextUnitID) {
+            nextUnitID = u.getID() + 1;
+        }
+        int player = u.getPlayer();
+        if (player >= 0) {
+            if (player >= unitCounts.length) {
+                unitCounts = Arrays.copyOf(unitCounts, player + 1);
+            }
+            unitCounts[player] += delta;
+        }
+        unitListVersion++;
+    }
+
+    /**
+     * Moves a unit of this map to a new position, updating the indexes. Units
+     * can also be moved directly with {@link Unit#setX(int)} and
+     * {@link Unit#setY(int)}, which makes the maps check the positions of
+     * their units the next time their indexes are used
+     *
+     * @param u
+     * @param x
+     * @param y
+     */
+    public void moveUnit(Unit u, int x, int y) {
+        int oldX = u.getX(), oldY = u.getY();
+        boolean current = indexCurrent();
+        if (current) {
+            getUnitGrid();  // takes into account the units moved directly
+        }
+        u.setPosition(x, y);
+        PhysicalGameState counter = (source == null ? this : source);
+        counter.moves++;
+        if (!current) {
+            return; // the indexes will be rebuilt (with the new position) when needed
+        }
+        if (unitsByID.get(u.getID()) != u) {
+            // a unit that is not in this map does not make the indexes out of date,
+            // but one with a repeated ID (or removed directly from the list) does:
+            if (!units.contains(u)) indexedMoves = counter.moves;
+            return;
+        }
+        indexedMoves = counter.moves;
+        if (insideMap(oldX, oldY) && unitGrid[oldX + oldY * width] == u) {
+            unitGrid[oldX + oldY * width] = null;
+        }
+        if (insideMap(x, y)) {
+            int cell = x + y * width;
+            if (unitGrid[cell] == null) {
+                unitGrid[cell] = u;
+            } else if (unitGrid[cell] != u) {
+                // two units in the same cell, the index cannot hold both:
+                indexedModifications = -1;
+            }
+        }
+        if (visibility != null) {
+            visibility.stamp(u, oldX, oldY, -1);
+            visibility.stamp(u, 1);
+        }
+    }
+
+    /**
+     * Returns whether a coordinate lies inside of the map
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    boolean insideMap(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Returns whether the unit indexes account for all the changes made to
+     * the unit list, the map size and the positions of the units through
+     * this map and the ones sharing its units (see {@link #source})
+     *
+     * @return
+     */
+    private boolean indexCurrent() {
+        return unitGrid != null && unitGrid.length == width * height
+                && indexedModifications == units.modifications()
+                && indexedMoves == (source == null ? moves : source.moves);
+    }
+
+    /**
+     * Returns the spatial index of the units, rebuilding the unit indexes
+     * first if they are out of date (see {@link #indexCurrent()})
+     *
+     * @return
+     */
+    Unit[] getUnitGrid() {
+        if (!indexCurrent()) {
+            rebuildUnitIndex();
+        } else if (indexedDirectMoves != Unit.getDirectMoves()) {
+            checkUnitPositions();
+        }
+        return unitGrid;
+    }
+
+    /**
+     * Rebuilds the unit indexes (and discards the visibility map) unless every
+     * unit of the map is still in the cell it is indexed in, after units were
+     * moved directly (see {@link Unit#setX(int)}), in this map or in any other
+     */
+    private void checkUnitPositions() {
+        long directMoves = Unit.getDirectMoves();
+        for (Unit u : units) {
+            if (insideMap(u.getX(), u.getY()) && unitGrid[u.getX() + u.getY() * width] != u) {
+                rebuildUnitIndex();
+                return;
+            }
+        }
+        indexedDirectMoves = directMoves;
+    }
+
+    /**
+     * Recomputes the spatial and ID indexes from the list of units. Only
+     * needed if the ID of a unit was changed directly
+     */
+    public void rebuildUnitIndex() {
+        long directMoves = Unit.getDirectMoves();
+        if (unitGrid == null || unitGrid.length != width * height) {
+            unitGrid = new Unit[width * height];
+        } else {
+            Arrays.fill(unitGrid, null);
+        }
+        unitsByID.clear();
+        Arrays.fill(unitCounts, 0);
+        visibility = null;
+        for (Unit u : units) {
+            // if two units are in the same cell, the first one is found (as when going through the list):
+            if (insideMap(u.getX(), u.getY()) && unitGrid[u.getX() + u.getY() * width] == null) {
+                unitGrid[u.getX() + u.getY() * width] = u;
+            }
+            unitsByID.put(u.getID(), u);
+            countUnit(u, 1);
+        }
+        indexedModifications = units.modifications();
+        indexedMoves = (source == null ? moves : source.moves);
+        indexedDirectMoves = directMoves;
+        unitListVersion++;
+    }
+
+    /**
+     * Returns the number of units of a player
+     *
+     * @param player
+     * @return
+     */
+    public int getUnitCount(int player) {
+        getUnitGrid();  // makes sure the indexes are up to date
+        if (player < 0 || player >= unitCounts.length) return 0;
+        return unitCounts[player];
+    }
+
+    /**
+     * Returns whether a cell is within the sight radius of any unit of a
+     * player
+     *
+     * @param player
+     * @param x
+     * @param y
+     * @return
+     */
+    public boolean observable(int player, int x, int y) {
+        if (!insideMap(x, y)) {
+            for (Unit u : units) {
+                if (u.getPlayer() == player) {
+                    int dx = u.getX() - x, dy = u.getY() - y;
+                    if (dx * dx + dy * dy <= u.getType().sightRadius * u.getType().sightRadius) return true;
+                }
+            }
+            return false;
+        }
+        getUnitGrid();  // a rebuild of the indexes discards the visibility
+        if (visibility == null) visibility = new VisibilityMap(this);
+        return visibility.visible(player, x, y);
+    }
+
+    /**
+     * Returns a new unit ID for this map. IDs are given in sequence, and never
+     * collide with the IDs of the units in the map
+     *
+     * @return
+     */
+    public long createUnitID() {
+        getUnitGrid();  // makes sure the units added directly to the list are accounted for
+        return nextUnitID++;
+    }
+
+    /**
+     * Returns the current version of the unit list (see {@link #unitListVersion})
+     *
+     * @return
+     */
+    int getUnitListVersion() {
+        getUnitGrid();  // makes sure the indexes are up to date
+        return unitListVersion;
     }
 
     /**
@@ -229,12 +562,14 @@ public class PhysicalGameState {
      * @return
      */
     public Unit getUnit(long ID) {
-        for (Unit u : units) {
-            if (u.getID() == ID) {
-                return u;
-            }
+        getUnitGrid();
+        Unit u = unitsByID.get(ID);
+        if (u != null && u.getID() != ID) {
+            // the ID of the unit was changed without going through the map:
+            rebuildUnitIndex();
+            u = unitsByID.get(ID);
         }
-        return null;
+        return u;
     }
 
     /**
@@ -246,12 +581,16 @@ public class PhysicalGameState {
      * @return
      */
     public Unit getUnitAt(int x, int y) {
-        for (Unit u : units) {
-            if (u.getX() == x && u.getY() == y) {
-                return u;
-            }
+        if (!insideMap(x, y)) {
+            return null;
+        }
+        Unit u = getUnitGrid()[x + y * width];
+        if (u == null || (u.getX() == x && u.getY() == y)) {
+            return u;
         }
-        return null;
+        // the unit was moved without going through this map:
+        rebuildUnitIndex();
+        return unitGrid[x + y * width];
     }
 
     /**
@@ -268,7 +607,10 @@ public class PhysicalGameState {
     }
     
     /**
-     * Returns units within a rectangular area centered in the given coordinates
+     * Returns units within a rectangular area centered in the given coordinates.
+     * If the area has fewer cells than there are units in the map, the units
+     * are found through the spatial index and returned in cell order (row by
+     * row), otherwise they are returned in the order of the unit list
      * @param x center coordinate of the rectangle
      * @param y center coordinate of the square 
      * @param width rectangle width
@@ -276,6 +618,14 @@ public class PhysicalGameState {
      * @return
      */
     public Collection<Unit> getUnitsAround(int x, int y, int width, int height) {
+        int x0 = Math.max(0, x - width), x1 = Math.min(this.width - 1, x + width);
+        int y0 = Math.max(0, y - height), y1 = Math.min(this.height - 1, y + height);
+        if (x0 > x1 || y0 > y1) {
+            return new LinkedList<>();
+        }
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) < units.size()) {
+            return getUnitsInCells(x0, y0, x1, y1);
+        }
         List<Unit> closeUnits = new LinkedList<>();
         for (Unit u : units) {
             if ((Math.abs(u.getX() - x) <= width && Math.abs(u.getY() - y) <= height)) {
@@ -288,7 +638,8 @@ public class PhysicalGameState {
     /**
      * Returns units within a rectangle with the given top-left vertex and dimensions
      * Tests for x <= unitX < x+width && y <= unitY < y+height
-     * Notice that the test is inclusive in top and left but exclusive on bottom and right
+     * Notice that the test is inclusive in top and left but exclusive on bottom and right.
+     * The units are returned in the same order as in {@link #getUnitsAround(int, int, int, int)}
      * @param x top left coordinate of the rectangle
      * @param y top left coordinate of the rectangle 
      * @param width rectangle width
@@ -298,6 +649,14 @@ public class PhysicalGameState {
     public Collection<Unit> getUnitsInRectangle(int x, int y, int width, int height) {
     	if(width < 1 || height < 1) throw new IllegalArgumentException("Width and height must be >=1");
     	
+        int x0 = Math.max(0, x), x1 = Math.min(this.width, x + width) - 1;
+        int y0 = Math.max(0, y), y1 = Math.min(this.height, y + height) - 1;
+        if (x0 > x1 || y0 > y1) {
+            return new LinkedList<>();
+        }
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) < units.size()) {
+            return getUnitsInCells(x0, y0, x1, y1);
+        }
         List<Unit> unitsInside = new LinkedList<Unit>();
         for (Unit u : units) {
         	//tests for x <= unitX < x+width && y <= unitY < y+height 
@@ -307,6 +666,30 @@ public class PhysicalGameState {
         }
         return unitsInside;
     }
+
+    /**
+     * Collects the units in the (inclusive, already clipped) cell rectangle
+     * [x0,x1]x[y0,y1] using the spatial index, in cell order (row by row).
+     * Used when the area is smaller than the number of units in the map
+     */
+    private Collection<Unit> getUnitsInCells(int x0, int y0, int x1, int y1) {
+        Unit grid[] = getUnitGrid();
+        List<Unit> found = new LinkedList<>();
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                Unit u = grid[cx + cy * width];
+                if (u != null) {
+                    if (u.getX() != cx || u.getY() != cy) {
+                        // a unit was moved without going through this map:
+                        rebuildUnitIndex();
+                        return getUnitsInCells(x0, y0, x1, y1);
+                    }
+                    found.add(u);
+                }
+            }
+        }
+        return found;
+    }
     
     
 
@@ -317,15 +700,10 @@ public class PhysicalGameState {
      * @return
      */
     public int winner() {
-        int unitcounts[] = new int[players.size()];
-        for (Unit u : units) {
-            if (u.getPlayer() >= 0) {
-                unitcounts[u.getPlayer()]++;
-            }
-        }
+        getUnitGrid();  // makes sure the unit counts are up to date
         int winner = -1;
-        for (int i = 0; i < unitcounts.length; i++) {
-            if (unitcounts[i] > 0) {
+        for (int i = 0; i < unitCounts.length; i++) {
+            if (unitCounts[i] > 0) {
                 if (winner == -1) {
                     winner = i;
                 } else {
@@ -344,22 +722,10 @@ public class PhysicalGameState {
      * @return
      */
     boolean gameover() {
-        int unitcounts[] = new int[players.size()];
-        int totalunits = 0;
-        for (Unit u : units) {
-            if (u.getPlayer() >= 0) {
-                unitcounts[u.getPlayer()]++;
-                totalunits++;
-            }
-        }
-
-        if (totalunits == 0) {
-            return true;
-        }
-
+        getUnitGrid();  // makes sure the unit counts are up to date
         int winner = -1;
-        for (int i = 0; i < unitcounts.length; i++) {
-            if (unitcounts[i] > 0) {
+        for (int i = 0; i < unitCounts.length; i++) {
+            if (unitCounts[i] > 0) {
                 if (winner == -1) {
                     winner = i;
                 } else {
@@ -368,7 +734,8 @@ public class PhysicalGameState {
             }
         }
 
-        return winner != -1;
+        // if there are no units left, the game is also over:
+        return true;
     }
 
     /* (non-Javadoc)
@@ -382,12 +749,16 @@ public class PhysicalGameState {
         for (Unit u : units) {
             pgs.units.add(u.clone());
         }
+        pgs.rebuildUnitIndex();
+        pgs.nextUnitID = Math.max(pgs.nextUnitID, nextUnitID);
         return pgs;
     }
 
     /**
      * Clone the physical game state, but does not clone the units The terrain
-     * is shared amongst all instances, since it never changes
+     * is shared amongst all instances, since it never changes. The clone
+     * starts with a copy of the indexes of this map, which are rebuilt after
+     * any of the shared units is moved (see {@link #source})
      *
      * @return
      */
@@ -395,6 +766,17 @@ public class PhysicalGameState {
         PhysicalGameState pgs = new PhysicalGameState(width, height, terrain);  // The terrain is shared amongst all instances, since it never changes
         pgs.players.addAll(players);
         pgs.units.addAll(units);
+        pgs.source = (source == null ? this : source);
+        System.arraycopy(getUnitGrid(), 0, pgs.unitGrid, 0, unitGrid.length);
+        pgs.unitsByID.putAll(unitsByID);
+        pgs.indexedModifications = pgs.units.modifications();
+        pgs.indexedMoves = pgs.source.moves;
+        pgs.indexedDirectMoves = indexedDirectMoves;
+        pgs.unitCounts = unitCounts.clone();
+        pgs.nextUnitID = nextUnitID;
+        // the visibility is copied if this map has it, and otherwise built by the clone when needed
+        // (see observable), so that a fully observable map does not start maintaining one:
+        if (visibility != null) pgs.visibility = new VisibilityMap(visibility);
         return pgs;
     }
 
@@ -413,6 +795,8 @@ public class PhysicalGameState {
         for (Unit u : units) {
             pgs.units.add(u.clone());
         }
+        pgs.rebuildUnitIndex();
+        pgs.nextUnitID = Math.max(pgs.nextUnitID, nextUnitID);
         return pgs;
     }
 
@@ -458,17 +842,26 @@ public class PhysicalGameState {
         if (units.size() != pgs.units.size()) {
             return false;
         }
-        for (int i = 0; i < units.size(); i++) {
-            if (units.get(i).getType() != pgs.units.get(i).getType()) {
+        // units is a linked list, so it is traversed with iterators rather than get(i):
+        Iterator<Unit> it2 = pgs.units.iterator();
+        for (Unit u : units) {
+            Unit u2 = it2.next();
+            if (u.getType() != u2.getType()) {
+                return false;
+            }
+            if (u.getPlayer() != u2.getPlayer()) {
+                return false;
+            }
+            if (u.getHitPoints() != u2.getHitPoints()) {
                 return false;
             }
-            if (units.get(i).getHitPoints() != pgs.units.get(i).getHitPoints()) {
+            if (u.getResources() != u2.getResources()) {
                 return false;
             }
-            if (units.get(i).getX() != pgs.units.get(i).getX()) {
+            if (u.getX() != u2.getX()) {
                 return false;
             }
-            if (units.get(i).getY() != pgs.units.get(i).getY()) {
+            if (u.getY() != u2.getY()) {
                 return false;
             }
         }
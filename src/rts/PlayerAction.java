@@ -6,6 +6,8 @@ import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
 import java.io.Writer;
 import rts.units.Unit;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import org.jdom.Element;
@@ -14,14 +16,33 @@ import util.Pair;
 import util.XMLWriter;
 
 /**
- * Stores a collection of pairs({@link Unit}, {@link UnitAction})
+ * Stores a collection of pairs({@link Unit}, {@link UnitAction}).
+ * The pairs are stored in two parallel arrays (in the order in which they were 
+ * added), and an index from unit IDs to positions in those arrays is built 
+ * when needed, so that looking up the action of a unit does not require 
+ * traversing the collection. Instances can be reused by calling {@link #clear()}.
  * @author santi
  */
 public class PlayerAction {
     /**
-     * A list of unit actions
+     * Below this number of actions, actions are looked up by traversing the 
+     * arrays rather than through the index
      */
-    List<Pair<Unit,UnitAction>> actions = new LinkedList<>();
+    static final int INDEX_THRESHOLD = 8;
+    
+    /**
+     * The units and the actions assigned to them (only the first nActions 
+     * positions are used)
+     */
+    Unit units[] = new Unit[4];
+    UnitAction unitActions[] = new UnitAction[4];
+    int nActions = 0;
+    
+    /**
+     * Open addressing hash table from unit IDs to positions in the arrays 
+     * (position + 1, 0 means an empty slot). It is null when it needs to be rebuilt.
+     */
+    int index[] = null;
     
     /**
      * Represents the resources used by the player action
@@ -44,22 +65,98 @@ public class PlayerAction {
         if (!(o instanceof PlayerAction)) return false;
         PlayerAction a = (PlayerAction)o;
 
-        for(Pair<Unit,UnitAction> p:actions) {
-            for(Pair<Unit,UnitAction> p2:a.actions) {
-                if (p.m_a.getID()==p2.m_a.getID() &&
-                    !p.m_b.equals(p2.m_b)) return false;
+        for(int i = 0;i<nActions;i++) {
+            if (a.nActions<=INDEX_THRESHOLD) {
+                for(int j = 0;j<a.nActions;j++) {
+                    if (sameID(units[i], a.units[j]) &&
+                        !unitActions[i].equals(a.unitActions[j])) return false;
+                }
+            } else {
+                int table[] = a.getIndex();
+                int mask = table.length-1;
+                for(int slot = hashUnit(units[i]) & mask;table[slot]!=0;slot = (slot+1) & mask) {
+                    int j = table[slot]-1;
+                    if (sameID(units[i], a.units[j]) &&
+                        !unitActions[i].equals(a.unitActions[j])) return false;
+                }
             }
         }
         return true;
     }    
     
     
+    /**
+     * Returns whether another player action assigns exactly the same unit 
+     * actions to the same units (by ID). Unlike equals, which only compares the
+     * actions of the units that appear in both, a unit that only has an action
+     * in one of them makes them different.
+     * @param a
+     * @return
+     */
+    public boolean sameActions(PlayerAction a) {
+        if (a==this) return true;
+        if (a==null || a.nActions!=nActions) return false;
+        for(int i = 0;i<nActions;i++) {
+            int j = a.indexOfID(units[i]);
+            if (j==-1 || !unitActions[i].equals(a.unitActions[j])) return false;
+        }
+        return true;
+    }
+    
+    
     /**
      * Returns whether there are no player actions
      * @return
      */
     public boolean isEmpty() {
-        return actions.isEmpty();
+        return nActions==0;
+    }
+    
+    /**
+     * Returns the number of unit actions
+     * @return
+     */
+    public int size() {
+        return nActions;
+    }
+    
+    /**
+     * Returns the unit of the i-th unit action
+     * @param i
+     * @return
+     */
+    public Unit getUnit(int i) {
+        return units[i];
+    }
+    
+    /**
+     * Returns the i-th unit action
+     * @param i
+     * @return
+     */
+    public UnitAction getUnitAction(int i) {
+        return unitActions[i];
+    }
+    
+    /**
+     * Replaces the i-th unit action (the resource usage is not updated)
+     * @param i
+     * @param a
+     */
+    public void setUnitAction(int i, UnitAction a) {
+        unitActions[i] = a;
+    }
+
+    /**
+     * Replaces the unit of the i-th unit action (e.g. by the corresponding 
+     * unit of a clone of the state). The new unit might have a different ID, 
+     * so the index is rebuilt the next time it is needed
+     * @param i
+     * @param u
+     */
+    void setUnit(int i, Unit u) {
+        units[i] = u;
+        index = null;
     }
 
     /**
@@ -68,8 +165,8 @@ public class PlayerAction {
      * @return
      */
     public boolean hasNonNoneActions() {
-		for (Pair<Unit, UnitAction> ua : actions) {
-			if (ua.m_b.type != UnitAction.TYPE_NONE)
+		for (int i = 0; i < nActions; i++) {
+			if (unitActions[i].type != UnitAction.TYPE_NONE)
 				return true;
 		}
 		return false;
@@ -82,8 +179,8 @@ public class PlayerAction {
      */
     public int hasNamNoneActions() {
 		int j = 0;
-		for (Pair<Unit, UnitAction> ua : actions) {
-			if (ua.m_b.type != UnitAction.TYPE_NONE)
+		for (int i = 0; i < nActions; i++) {
+			if (unitActions[i].type != UnitAction.TYPE_NONE)
 				j++;
 		}
 		return j;
@@ -112,7 +209,20 @@ public class PlayerAction {
      * @param a
      */
     public void addUnitAction(Unit u, UnitAction a) {
-        actions.add(new Pair<>(u, a));
+        if (nActions==units.length) {
+            units = Arrays.copyOf(units, nActions*2);
+            unitActions = Arrays.copyOf(unitActions, nActions*2);
+        }
+        units[nActions] = u;
+        unitActions[nActions] = a;
+        nActions++;
+        if (index!=null) {
+            if (nActions*2>index.length) {
+                index = null;
+            } else {
+                addToIndex(index, nActions-1);
+            }
+        }
     }
     
     /**
@@ -121,15 +231,25 @@ public class PlayerAction {
      * @param a
      */
     public void removeUnitAction(Unit u, UnitAction a) {
-		Pair<Unit, UnitAction> found = null;
-		for (Pair<Unit, UnitAction> tmp : actions) {
-			if (tmp.m_a == u && tmp.m_b == a) {
-				found = tmp;
+		for (int i = 0; i < nActions; i++) {
+			if (units[i] == u && unitActions[i] == a) {
+				remove(i);
 				break;
 			}
 		}
-		if (found != null)
-			actions.remove(found);
+    }
+    
+    /**
+     * Removes the i-th unit action
+     * @param i
+     */
+    void remove(int i) {
+        System.arraycopy(units, i+1, units, i, nActions-i-1);
+        System.arraycopy(unitActions, i+1, unitActions, i, nActions-i-1);
+        nActions--;
+        units[nActions] = null;
+        unitActions[nActions] = null;
+        index = null;
     }
     
     
@@ -140,19 +260,35 @@ public class PlayerAction {
      */
     public PlayerAction merge(PlayerAction a) {
         PlayerAction merge = new PlayerAction();
-        merge.actions.addAll(actions);
-        merge.actions.addAll(a.actions);
+        merge.addAll(this);
+        merge.addAll(a);
         merge.r = r.mergeIntoNew(a.r);
         
         return merge;
     }
     
     /**
-     * Returns a list of pairs of units and UnitActions
+     * Adds all the unit actions of another PlayerAction (the resource usage is not updated)
+     * @param a
+     */
+    void addAll(PlayerAction a) {
+        for(int i = 0;i<a.nActions;i++) addUnitAction(a.units[i], a.unitActions[i]);
+    }
+    
+    /**
+     * Returns a list of pairs of units and UnitActions. Since the unit actions
+     * are stored in arrays, this is no longer the list in which they are kept,
+     * but a view of this PlayerAction:
+     * - each call creates a new view, and each pair it returns (also when 
+     *   iterating over it) is a new Pair, so code that runs often should use 
+     *   {@link #size()}, {@link #getUnit(int)} and {@link #getUnitAction(int)} instead.
+     * - assigning the fields of a returned pair does not modify this 
+     *   PlayerAction (use the set, add and remove methods of the list for 
+     *   that, or {@link #setUnitAction(int, UnitAction)}).
      * @return
      */
     public List<Pair<Unit,UnitAction>> getActions() {
-        return actions;
+        return new ActionsView();
     }
     
     /**
@@ -161,11 +297,100 @@ public class PlayerAction {
      * @return
      */
     public UnitAction getAction(Unit u) {
-		for (Pair<Unit, UnitAction> tmp : actions) {
-			if (tmp.m_a == u)
-				return tmp.m_b;
-		}
-		return null;
+        int i = indexOf(u);
+        return i==-1 ? null : unitActions[i];
+    }
+    
+    /**
+     * Returns whether there is an action for a given unit
+     * @param u
+     * @return
+     */
+    public boolean hasUnitAction(Unit u) {
+        return indexOf(u)!=-1;
+    }
+    
+    /**
+     * Returns the position of the first action of a unit, or -1 if there is none
+     * @param u
+     * @return
+     */
+    int indexOf(Unit u) {
+        if (nActions<=INDEX_THRESHOLD) {
+            for (int i = 0; i < nActions; i++) {
+                if (units[i] == u) return i;
+            }
+            return -1;
+        }
+        int table[] = getIndex();
+        int mask = table.length-1;
+        for(int slot = hashUnit(u) & mask;table[slot]!=0;slot = (slot+1) & mask) {
+            int i = table[slot]-1;
+            if (units[i] == u) return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Like indexOf, but finds the action of any unit with the same ID (e.g. 
+     * the same unit in a clone of the game state)
+     * @param u
+     * @return
+     */
+    int indexOfID(Unit u) {
+        if (nActions<=INDEX_THRESHOLD) {
+            for (int i = 0; i < nActions; i++) {
+                if (sameID(units[i], u)) return i;
+            }
+            return -1;
+        }
+        int table[] = getIndex();
+        int mask = table.length-1;
+        for(int slot = hashUnit(u) & mask;table[slot]!=0;slot = (slot+1) & mask) {
+            int i = table[slot]-1;
+            if (sameID(units[i], u)) return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Hashes the ID of a unit. Units can be null (e.g. when read from XML or 
+     * JSON with an ID that does not exist, see {@link GameState#issueSafe(PlayerAction)})
+     * @param u
+     * @return
+     */
+    static int hashUnit(Unit u) {
+        if (u==null) return 0;
+        long h = u.getID() * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+    
+    static boolean sameID(Unit u1, Unit u2) {
+        if (u1==null || u2==null) return u1==u2;
+        return u1.getID()==u2.getID();
+    }
+    
+    /**
+     * Returns the index from unit IDs to positions, building it if needed. 
+     * Since positions are inserted in increasing order, the first position 
+     * found for a unit is the one of its first action.
+     * @return
+     */
+    int[] getIndex() {
+        if (index==null) {
+            int size = 16;
+            while(size<nActions*2) size*=2;
+            index = new int[size];
+            for(int i = 0;i<nActions;i++) addToIndex(index, i);
+        }
+        return index;
+    }
+    
+    void addToIndex(int table[], int i) {
+        int mask = table.length-1;
+        int slot = hashUnit(units[i]) & mask;
+        while(table[slot]!=0) slot = (slot+1) & mask;
+        table[slot] = i+1;
     }
     
     /**
@@ -182,7 +407,7 @@ public class PlayerAction {
 			if (r.consistentWith(r2, s)) {
 				PlayerAction a = new PlayerAction();
 				a.r = r.mergeIntoNew(r2);
-				a.actions.addAll(actions);
+				a.addAll(this);
 				a.addUnitAction(u, ua);
 				l.add(a);
 			}
@@ -215,16 +440,9 @@ public class PlayerAction {
         PhysicalGameState pgs = s.getPhysicalGameState();
 		for (Unit u : pgs.getUnits()) {
 			if (u.getPlayer() == pID) {
-				if (s.unitActions.get(u) == null) {
-					boolean found = false;
-					for (Pair<Unit, UnitAction> pa : actions) {
-						if (pa.m_a == u) {
-							found = true;
-							break;
-						}
-					}
-                    if (!found) {
-                        actions.add(new Pair<>(u, new UnitAction(UnitAction.TYPE_NONE, duration)));
+				if (s.assignments().get(u) == null) {
+                    if (!hasUnitAction(u)) {
+                        addUnitAction(u, new UnitAction(UnitAction.TYPE_NONE, duration));
                     }
                 }
             }
@@ -241,8 +459,8 @@ public class PlayerAction {
     public boolean integrityCheck() {
         int player = -1;
 //        List<Unit> alreadyUsed = new LinkedList<Unit>();
-		for (Pair<Unit, UnitAction> uaa : actions) {
-			Unit u = uaa.m_a;
+		for (int i = 0; i < nActions; i++) {
+			Unit u = units[i];
 			if (player == -1) {
 				player = u.getPlayer();
 			} else {
@@ -260,20 +478,23 @@ public class PlayerAction {
      */
     public PlayerAction clone() {
         PlayerAction clone = new PlayerAction();
-        clone.actions = new LinkedList<>();
-        for(Pair<Unit,UnitAction> tmp:actions) {
-            clone.actions.add(new Pair<>(tmp.m_a, tmp.m_b));
-        }
+        clone.units = Arrays.copyOf(units, Math.max(4, nActions));
+        clone.unitActions = Arrays.copyOf(unitActions, Math.max(4, nActions));
+        clone.nActions = nActions;
         clone.r = r.clone();
         return clone;
     }
         
     /**
-     * Resets the PlayerAction
+     * Resets the PlayerAction, so that it can be reused (the arrays that store
+     * the unit actions, and the resource usage, are kept)
      */
     public void clear() {
-        actions.clear();
-        r = new ResourceUsage();
+        Arrays.fill(units, 0, nActions, null);
+        Arrays.fill(unitActions, 0, nActions, null);
+        nActions = 0;
+        index = null;
+        r.clear();
     }
 
     
@@ -282,22 +503,65 @@ public class PlayerAction {
      */
     public String toString() {
         StringBuilder tmp = new StringBuilder("{ ");
-        for(Pair<Unit,UnitAction> ua:actions) {
-            tmp.append("(").append(ua.m_a).append(",").append(ua.m_b).append(")");
+        for(int i = 0;i<nActions;i++) {
+            tmp.append("(").append(units[i]).append(",").append(unitActions[i]).append(")");
         }
         return tmp + " }";
     }    
     
     
+    /**
+     * List view of the unit actions (see {@link PlayerAction#getActions()})
+     */
+    class ActionsView extends AbstractList<Pair<Unit,UnitAction>> {
+        public int size() {
+            return nActions;
+        }
+        
+        public Pair<Unit,UnitAction> get(int i) {
+            if (i<0 || i>=nActions) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + nActions);
+            return new Pair<>(units[i], unitActions[i]);
+        }
+        
+        public Pair<Unit,UnitAction> set(int i, Pair<Unit,UnitAction> p) {
+            Pair<Unit,UnitAction> old = get(i);
+            if (units[i]!=p.m_a) index = null;
+            units[i] = p.m_a;
+            unitActions[i] = p.m_b;
+            return old;
+        }
+        
+        public void add(int i, Pair<Unit,UnitAction> p) {
+            if (i<0 || i>nActions) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + nActions);
+            addUnitAction(p.m_a, p.m_b);
+            if (i<nActions-1) {
+                System.arraycopy(units, i, units, i+1, nActions-i-1);
+                System.arraycopy(unitActions, i, unitActions, i+1, nActions-i-1);
+                units[i] = p.m_a;
+                unitActions[i] = p.m_b;
+                index = null;
+            }
+            modCount++;
+        }
+        
+        public Pair<Unit,UnitAction> remove(int i) {
+            Pair<Unit,UnitAction> old = get(i);
+            PlayerAction.this.remove(i);
+            modCount++;
+            return old;
+        }
+    }
+    
+    
     /**
      * Writes to XML
      * @param w
      */
     public void toxml(XMLWriter w) {
         w.tag("PlayerAction");
-        for(Pair<Unit,UnitAction> ua:actions) {
-            w.tagWithAttributes("action", "unitID=\"" + ua.m_a.getID() + "\"");
-            ua.m_b.toxml(w);
+        for(int i = 0;i<nActions;i++) {
+            w.tagWithAttributes("action", "unitID=\"" + units[i].getID() + "\"");
+            unitActions[i].toxml(w);
             w.tag("/action");
         }
         w.tag("/PlayerAction");           
@@ -312,10 +576,10 @@ public class PlayerAction {
     public void toJSON(Writer w) throws Exception {
         boolean first = true;
         w.write("[");
-        for(Pair<Unit,UnitAction> ua:actions) {
+        for(int i = 0;i<nActions;i++) {
             if (!first) w.write(" ,");
-            w.write("{\"unitID\":" + ua.m_a.getID() + ", \"unitAction\":");
-            ua.m_b.toJSON(w);
+            w.write("{\"unitID\":" + units[i].getID() + ", \"unitAction\":");
+            unitActions[i].toJSON(w);
             w.write("}");
             first = false;
         }
@@ -3,7 +3,7 @@ package rts;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import rts.units.Unit;
 import util.Pair;
 
@@ -12,7 +12,6 @@ import util.Pair;
  * @author santi
  */
 public class PlayerActionGenerator {
-    static Random r = new Random();
     
     GameState gameState;
     PhysicalGameState physicalGameState;
@@ -24,6 +23,8 @@ public class PlayerActionGenerator {
     int choiceSizes[];
     int currentChoice[];
     boolean moreActions = true;
+    ResourceUsage scratch_ru = new ResourceUsage();  // reused to check the consistency of the candidate actions
+    int scratchIndexes[] = null;                    // reused by getRandom
     
     /**
      * 
@@ -59,7 +60,7 @@ public class PlayerActionGenerator {
         physicalGameState = gameState.getPhysicalGameState();
         
 		for (Unit u : physicalGameState.getUnits()) {
-			UnitActionAssignment uaa = gameState.unitActions.get(u);
+			UnitActionAssignment uaa = gameState.assignments().get(u);
 			if (uaa != null) {
 				ResourceUsage ru = uaa.action.resourceUsage(u, physicalGameState);
 				base_ru.merge(ru);
@@ -69,7 +70,7 @@ public class PlayerActionGenerator {
         choices = new ArrayList<>();
 		for (Unit u : physicalGameState.getUnits()) {
 			if (u.getPlayer() == pID) {
-				if (gameState.unitActions.get(u) == null) {
+				if (gameState.assignments().get(u) == null) {
 					List<UnitAction> l = u.getUnitActions(gameState);
 					choices.add(new Pair<>(u, l));
 					// make sure we don't overflow:
@@ -105,9 +106,11 @@ public class PlayerActionGenerator {
     } 
     
     /**
-     * Shuffles the list of choices
+     * Shuffles the list of choices (using the random number generator of the
+     * context of the game state)
      */
     public void randomizeOrder() {
+		SplittableRandom r = gameState.getContext().getRandom();
 		for (Pair<Unit, List<UnitAction>> choice : choices) {
             List<UnitAction> tmp = new LinkedList<>(choice.m_b);
 			choice.m_b.clear();
@@ -145,8 +148,9 @@ public class PlayerActionGenerator {
         int count = 0;
         while(moreActions) {
             boolean consistent = true;
-            PlayerAction pa = new PlayerAction();
-            pa.setResourceUsage(base_ru.clone());
+            // the consistency of the candidate is checked on a scratch ResourceUsage,
+            // and the PlayerAction is only created if it is consistent:
+            scratch_ru.copyFrom(base_ru);
             int i = choices.size();
 			if (i == 0)
 				throw new Exception("Move generator created with no units that can execute actions!");
@@ -160,21 +164,27 @@ public class PlayerActionGenerator {
 
 				ResourceUsage r2 = ua.resourceUsage(u, physicalGameState);
 
-				if (pa.getResourceUsage().consistentWith(r2, gameState)) {
-					pa.getResourceUsage().merge(r2);
-					pa.addUnitAction(u, ua);
+				if (scratch_ru.consistentWith(r2, gameState)) {
+					scratch_ru.merge(r2);
 				} else {
 					consistent = false;
 					break;
 				}
 			}
 
-			incrementCurrentChoice(i);
 			if (consistent) {
+				PlayerAction pa = new PlayerAction();
+				pa.setResourceUsage(scratch_ru.clone());
+				for (int j = choices.size() - 1; j >= 0; j--) {
+					Pair<Unit, List<UnitAction>> unitChoices = choices.get(j);
+					pa.addUnitAction(unitChoices.m_a, unitChoices.m_b.get(currentChoice[j]));
+				}
+				incrementCurrentChoice(i);
 				lastAction = pa;
 				generated++;
 				return pa;
 			}
+			incrementCurrentChoice(i);
             
             // check if we are over time (only check once every 1000 actions, since currenttimeMillis is a slow call):
 			if (cutOffTime > 0 && (count % 1000 == 0) && System.currentTimeMillis() > cutOffTime) {
@@ -188,20 +198,31 @@ public class PlayerActionGenerator {
     }
     
     /**
-     * Returns a random player action for the game state in this object
+     * Returns a random player action for the game state in this object (using
+     * the random number generator of the context of the game state)
      * @return
      */
     public PlayerAction getRandom() {
-		Random r = new Random();
+		SplittableRandom r = gameState.getContext().getRandom();
 		PlayerAction pa = new PlayerAction();
 		pa.setResourceUsage(base_ru.clone());
 		for (Pair<Unit, List<UnitAction>> unitChoices : choices) {
-            List<UnitAction> l = new LinkedList<>(unitChoices.m_b);
+			List<UnitAction> l = unitChoices.m_b;
 			Unit u = unitChoices.m_a;
+			// actions are drawn without replacement by swapping the drawn index out of
+			// the first 'remaining' positions of a reused array of indexes:
+			int remaining = l.size();
+			if (scratchIndexes == null || scratchIndexes.length < remaining) {
+				scratchIndexes = new int[remaining];
+			}
+			for (int i = 0; i < remaining; i++) scratchIndexes[i] = i;
 
 			boolean consistent = false;
 			do {
-				UnitAction ua = l.remove(r.nextInt(l.size()));
+				int k = r.nextInt(remaining);
+				UnitAction ua = l.get(scratchIndexes[k]);
+				remaining--;
+				scratchIndexes[k] = scratchIndexes[remaining];
 				ResourceUsage r2 = ua.resourceUsage(u, physicalGameState);
 
 				if (pa.getResourceUsage().consistentWith(r2, gameState)) {
@@ -221,11 +242,11 @@ public class PlayerActionGenerator {
      */
 	public long getActionIndex(PlayerAction a) {
 		int choice[] = new int[choices.size()];
-		for (Pair<Unit, UnitAction> ua : a.actions) {
+		for (int i = 0; i < a.nActions; i++) {
 			int idx = 0;
 			Pair<Unit, List<UnitAction>> ua_choice = null;
 			for (Pair<Unit, List<UnitAction>> c : choices) {
-				if (ua.m_a == c.m_a) {
+				if (a.units[i] == c.m_a) {
 					ua_choice = c;
 					break;
 				}
@@ -233,7 +254,7 @@ public class PlayerActionGenerator {
 			}
 			if (ua_choice == null)
 				return -1;
-			choice[idx] = ua_choice.m_b.indexOf(ua.m_b);
+			choice[idx] = ua_choice.m_b.indexOf(a.unitActions[i]);
 
 		}
 		long index = 0;
@@ -0,0 +1,84 @@
+package rts;
+
+import java.util.Arrays;
+import rts.units.Unit;
+
+/**
+ * For each cell of the map, the action assignment of a {@link GameState} (if
+ * any) whose action will use that cell (the target cell of move and produce
+ * actions). This makes finding the assignment an action conflicts with, and
+ * checking whether a cell is free, constant time operations, rather than a
+ * scan over all the assignments (see {@link GameState#issue(PlayerAction)} and
+ * {@link GameState#free(int, int)}).
+ * The grid is only valid if no two assignments use the same cell, and all the
+ * cells used are inside the map (which is always the case for legal actions);
+ * otherwise the game state falls back to scanning the assignments.
+ */
+class ReservationGrid {
+    UnitActionAssignment owners[] = new UnitActionAssignment[0];  // [x + y * width]
+    int width = 0, height = 0;
+    boolean valid = false;
+    int failedTime = -1;    // game time of the last failed rebuild
+
+    /**
+     * Rebuilds the grid from the assignments of a game state
+     *
+     * @param gs
+     */
+    void rebuild(GameState gs) {
+        PhysicalGameState pgs = gs.pgs;
+        if (width != pgs.getWidth() || height != pgs.getHeight()) {
+            width = pgs.getWidth();
+            height = pgs.getHeight();
+            owners = new UnitActionAssignment[width * height];
+        } else {
+            Arrays.fill(owners, null);
+        }
+        valid = true;
+        for (UnitActionAssignment uaa : gs.assignments().values()) {
+            reserve(uaa);
+            if (!valid) return;
+        }
+    }
+
+    /**
+     * Empties the grid, and marks it as not valid, so that it is rebuilt the
+     * next time it is needed
+     */
+    void invalidate() {
+        if (valid) Arrays.fill(owners, null);
+        valid = false;
+    }
+
+    /**
+     * Returns the cell used by an action (or -1 if it does not use any cell,
+     * and -2 if the cell is outside of the map)
+     */
+    int cellUsedBy(UnitAction a, Unit u) {
+        if (a.type != UnitAction.TYPE_MOVE && a.type != UnitAction.TYPE_PRODUCE) return -1;
+        if (a.parameter < 0 || a.parameter >= UnitAction.DIRECTION_OFFSET_X.length) return -2;
+        int x = u.getX() + UnitAction.DIRECTION_OFFSET_X[a.parameter];
+        int y = u.getY() + UnitAction.DIRECTION_OFFSET_Y[a.parameter];
+        if (x < 0 || y < 0 || x >= width || y >= height) return -2;
+        return x + y * width;
+    }
+
+    void reserve(UnitActionAssignment uaa) {
+        int cell = cellUsedBy(uaa.action, uaa.unit);
+        if (cell == -1) return;
+        if (cell == -2 || owners[cell] != null) {
+            invalidate();
+            return;
+        }
+        owners[cell] = uaa;
+    }
+
+    /**
+     * Releases the cell used by an assignment. This has to be called before
+     * the action of the assignment changes
+     */
+    void release(UnitActionAssignment uaa) {
+        int cell = cellUsedBy(uaa.action, uaa.unit);
+        if (cell >= 0 && owners[cell] == uaa) owners[cell] = null;
+    }
+}
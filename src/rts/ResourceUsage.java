@@ -1,16 +1,30 @@
 package rts;
 
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
+ * The resources (map cells and player resources) used by a set of actions.
+ * The cells used are stored as a bitset (bit 'x + y * width' of
+ * positionsUsed), so that checking consistency is a word-wise AND, and merging
+ * is a word-wise OR.
  *
  * @author santi
  */
 public class ResourceUsage {
 
-    List<Integer> positionsUsed = new LinkedList<>();
+    static final long NO_POSITIONS[] = new long[0];
+
+    long positionsUsed[] = NO_POSITIONS;    // grows when needed (see addPosition)
     int[] resourcesUsed = new int[2];   // 2 players is hardcoded here! FIX!!!
+    List<Integer> positionsUsedView = null;
+
+    // instances shared by the actions of a UnitActionTable cannot be modified
+    // (see readOnly()); clone them to get a modifiable copy:
+    boolean readOnly = false;
 
     /**
      * Empty constructor
@@ -19,6 +33,36 @@ public class ResourceUsage {
 
     }
 
+    /**
+     * Marks a cell as used. Negative positions (produced by actions that
+     * were not validated, moving or producing up or left out of the map) are
+     * ignored, since no other action can use them
+     *
+     * @param pos the cell (x + y * width)
+     */
+    public void addPosition(int pos) {
+        checkModifiable();
+        if (pos < 0) {
+            return;
+        }
+        int word = pos >> 6;
+        if (word >= positionsUsed.length) {
+            positionsUsed = Arrays.copyOf(positionsUsed, word + 1);
+        }
+        positionsUsed[word] |= 1L << pos;
+    }
+
+    /**
+     * Returns whether a cell is used
+     *
+     * @param pos
+     * @return
+     */
+    public boolean usesPosition(int pos) {
+        int word = pos >> 6;
+        return pos >= 0 && word < positionsUsed.length && (positionsUsed[word] & (1L << pos)) != 0;
+    }
+
     /**
      * Returns whether this instance is consistent with another ResourceUsage in
      * a given game state. Resource usages are consistent if they respect the
@@ -29,8 +73,9 @@ public class ResourceUsage {
      * @return
      */
     public boolean consistentWith(ResourceUsage anotherUsage, GameState gs) {
-        for (Integer pos : anotherUsage.positionsUsed) {
-            if (positionsUsed.contains(pos)) {
+        long other[] = anotherUsage.positionsUsed;
+        for (int i = Math.min(positionsUsed.length, other.length) - 1; i >= 0; i--) {
+            if ((positionsUsed[i] & other[i]) != 0) {
                 return false;
             }
         }
@@ -50,12 +95,17 @@ public class ResourceUsage {
     }
 
     /**
-     * Returns the list with used resource positions
+     * Returns the list with used resource positions, in increasing order. The
+     * list is a read-only view of this ResourceUsage (use addPosition to add
+     * positions)
      *
      * @return
      */
     public List<Integer> getPositionsUsed() {
-        return positionsUsed;
+        if (positionsUsedView == null) {
+            positionsUsedView = new PositionsView();
+        }
+        return positionsUsedView;
     }
 
     /**
@@ -75,12 +125,8 @@ public class ResourceUsage {
      * @return
      */
     public ResourceUsage mergeIntoNew(ResourceUsage other) {
-        ResourceUsage newResourceUsage = new ResourceUsage();
-        newResourceUsage.positionsUsed.addAll(positionsUsed);
-        newResourceUsage.positionsUsed.addAll(other.positionsUsed);
-        for (int i = 0; i < resourcesUsed.length; i++) {
-            newResourceUsage.resourcesUsed[i] = resourcesUsed[i] + other.resourcesUsed[i];
-        }
+        ResourceUsage newResourceUsage = clone();
+        newResourceUsage.merge(other);
         return newResourceUsage;
     }
 
@@ -90,22 +136,149 @@ public class ResourceUsage {
      * @param other
      */
     public void merge(ResourceUsage other) {
-        positionsUsed.addAll(other.positionsUsed);
+        checkModifiable();
+        long positions[] = other.positionsUsed;
+        if (positions.length > positionsUsed.length) {
+            positionsUsed = Arrays.copyOf(positionsUsed, positions.length);
+        }
+        for (int i = 0; i < positions.length; i++) {
+            positionsUsed[i] |= positions[i];
+        }
         for (int i = 0; i < resourcesUsed.length; i++) {
             resourcesUsed[i] += other.resourcesUsed[i];
         }
     }
 
+    /**
+     * Makes this instance equal to another one, reusing its arrays when
+     * possible (so that a scratch ResourceUsage can be reused)
+     *
+     * @param other
+     */
+    void copyFrom(ResourceUsage other) {
+        checkModifiable();
+        long positions[] = other.positionsUsed;
+        if (positionsUsed.length < positions.length) {
+            positionsUsed = new long[positions.length];
+        }
+        System.arraycopy(positions, 0, positionsUsed, 0, positions.length);
+        Arrays.fill(positionsUsed, positions.length, positionsUsed.length, 0);
+        resourcesUsed[0] = other.resourcesUsed[0];
+        resourcesUsed[1] = other.resourcesUsed[1];
+    }
+
+    /**
+     * Removes all the cells and resources used
+     */
+    void clear() {
+        checkModifiable();
+        Arrays.fill(positionsUsed, 0);
+        resourcesUsed[0] = 0;
+        resourcesUsed[1] = 0;
+    }
+
+    /**
+     * Makes this instance read-only, so that it can be shared (the methods 
+     * that modify it throw an UnsupportedOperationException)
+     *
+     * @return this instance
+     */
+    ResourceUsage readOnly() {
+        readOnly = true;
+        return this;
+    }
+
+    /**
+     * Returns whether this instance can be modified (see {@link #readOnly()})
+     *
+     * @return
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    void checkModifiable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("shared ResourceUsage instances cannot be modified (clone them first)");
+        }
+    }
+
+    /**
+     * Returns a copy of this instance, which can be modified even if this one
+     * is read-only
+     *
+     * @return
+     */
     public ResourceUsage clone() {
         ResourceUsage ru = new ResourceUsage();
-        ru.positionsUsed.addAll(positionsUsed);
+        if (positionsUsed.length > 0) {
+            ru.positionsUsed = positionsUsed.clone();
+        }
         ru.resourcesUsed[0] = resourcesUsed[0];
         ru.resourcesUsed[1] = resourcesUsed[1];
         return ru;
     }
 
     public String toString() {
-        return "ResourceUsage: " + resourcesUsed[0] + "," + resourcesUsed[1] + " positions: " + positionsUsed;
+        return "ResourceUsage: " + resourcesUsed[0] + "," + resourcesUsed[1] + " positions: " + getPositionsUsed();
     }
 
+    /**
+     * Read-only view of the used positions as a list
+     */
+    class PositionsView extends AbstractList<Integer> {
+
+        public int size() {
+            int n = 0;
+            for (long w : positionsUsed) {
+                n += Long.bitCount(w);
+            }
+            return n;
+        }
+
+        public Integer get(int index) {
+            if (index >= 0) {
+                for (int i = 0; i < positionsUsed.length; i++) {
+                    long w = positionsUsed[i];
+                    int n = Long.bitCount(w);
+                    if (index < n) {
+                        for (; index > 0; index--) {
+                            w &= w - 1;
+                        }
+                        return i * 64 + Long.numberOfTrailingZeros(w);
+                    }
+                    index -= n;
+                }
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        public boolean contains(Object o) {
+            return (o instanceof Integer) && usesPosition((Integer) o);
+        }
+
+        public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+                int word = 0;
+                long bits = positionsUsed.length > 0 ? positionsUsed[0] : 0;
+
+                public boolean hasNext() {
+                    while (bits == 0 && word + 1 < positionsUsed.length) {
+                        word++;
+                        bits = positionsUsed[word];
+                    }
+                    return bits != 0;
+                }
+
+                public Integer next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int pos = word * 64 + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    return pos;
+                }
+            };
+        }
+    }
 }
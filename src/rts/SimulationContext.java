@@ -0,0 +1,65 @@
+package rts;
+
+import java.util.SplittableRandom;
+
+/**
+ * The source of randomness of a game (or of a search): the non-deterministic
+ * damage of units, the random move conflict resolution strategy, and the random
+ * choices of the AIs that simulate the game. A context is shared by a
+ * {@link GameState} and its clones (see {@link GameState#getContext()}), so
+ * that a game created with a seeded context can be reproduced exactly.
+ *
+ * The random number generator is not synchronized, so a context must not be
+ * used by several threads at the same time: each thread should work on game
+ * states with their own context (see {@link #split()}).
+ */
+public class SimulationContext {
+    // used to seed the contexts created without an explicit seed:
+    static final SplittableRandom seeds = new SplittableRandom();
+
+    SplittableRandom random;
+
+    /**
+     * Creates a context with an arbitrary seed
+     */
+    public SimulationContext() {
+        synchronized (seeds) {
+            random = seeds.split();
+        }
+    }
+
+    /**
+     * Creates a context with a given seed: two games played from the same
+     * state, with the same AIs and contexts with the same seed, are identical
+     *
+     * @param seed
+     */
+    public SimulationContext(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    SimulationContext(SplittableRandom a_random) {
+        random = a_random;
+    }
+
+    /**
+     * Returns the random number generator of this context
+     *
+     * @return
+     */
+    public SplittableRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * Returns a new context, whose random number generator is independent
+     * from the one of this context (and is seeded from it, so that splitting
+     * is reproducible as well). This is used to give a separate context to
+     * each of the threads that simulate games in parallel.
+     *
+     * @return
+     */
+    public SimulationContext split() {
+        return new SimulationContext(random.split());
+    }
+}
@@ -238,7 +238,8 @@ public class Trace {
                 gs.cycle();
             }
 
-            // synchronize the traces (some times the unit IDs might go off):
+            // synchronize the traces (the unit IDs might go off, since the maps
+            // in a trace do not store their ID counter):
             for (Unit u1 : gs.getUnits()) {
                 for (Unit u2 : te.getPhysicalGameState().getUnits()) {
                     if (u1.getX() == u2.getX() && u1.getY() == u2.getY() && u1.getType() == u2.getType()
@@ -247,6 +248,8 @@ public class Trace {
                     }
                 }
             }
+            gs.getPhysicalGameState().rebuildUnitIndex();
+            gs.getPhysicalGameState().nextUnitID = Math.max(gs.getPhysicalGameState().nextUnitID, te.getPhysicalGameState().nextUnitID);
 
             if (gs.getTime() == cycle) {
                 getGameStateAtCycle_cache = gs;
@@ -49,7 +49,7 @@ public class TraceEntry {
      * @param a
      */
     public void addPlayerAction(PlayerAction a) {
-        for (Pair<Unit, UnitAction> ua : a.actions) {
+        for (Pair<Unit, UnitAction> ua : a.getActions()) {
             if (pgs.getUnit(ua.m_a.getID()) == null) {
                 boolean found = false;
                 for(Unit u:pgs.units) {
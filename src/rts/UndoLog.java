@@ -0,0 +1,148 @@
+package rts;
+
+import java.util.Arrays;
+import rts.units.Unit;
+
+/**
+ * Records the changes made to a {@link GameState} by
+ * {@link GameState#issue(PlayerAction)} and {@link GameState#cycle()}, so that
+ * they can be reverted in place (see {@link GameState#pushUndoPoint()} and
+ * {@link GameState#undo()}). Changes are stored in parallel arrays that are
+ * reused, so recording does not allocate once the log has grown.
+ */
+class UndoLog {
+    static final int MOVE = 0;              // o1: unit, a,b: old position
+    static final int HIT_POINTS = 1;        // o1: unit, a: old hit points
+    static final int UNIT_RESOURCES = 2;    // o1: unit, a: old resources
+    static final int PLAYER_RESOURCES = 3;  // o1: player, a: old resources
+    static final int UNIT_ADDED = 4;        // o1: unit
+    static final int UNIT_REMOVED = 5;      // o1: unit, a: index in the unit list
+    static final int ASSIGNED = 6;          // o1: unit, o2: previous assignment (or null)
+    static final int UNASSIGNED = 7;        // o1: assignment, o2: unit of the previous assignment in the order (or null)
+    static final int ACTION_CHANGED = 8;    // o1: assignment, o2: old action
+
+    int kind[] = new int[64];
+    Object o1[] = new Object[64];
+    Object o2[] = new Object[64];
+    int a[] = new int[64];
+    int b[] = new int[64];
+    int size = 0;
+
+    // undo points: index in the log, and the scalar state of the game (and its hash) at that point
+    int pointStart[] = new int[8];
+    int pointTime[] = new int[8];
+    int pointCounter[] = new int[8];
+    long pointHash[] = new long[8];
+    long pointNextUnitID[] = new long[8];
+    boolean pointHashValid[] = new boolean[8];
+    int nPoints = 0;
+
+    boolean recording() {
+        return nPoints > 0;
+    }
+
+    void pushPoint(int time, int unitCancelationCounter, long hash, boolean hashValid, long nextUnitID) {
+        if (nPoints == pointStart.length) {
+            pointStart = Arrays.copyOf(pointStart, nPoints * 2);
+            pointTime = Arrays.copyOf(pointTime, nPoints * 2);
+            pointCounter = Arrays.copyOf(pointCounter, nPoints * 2);
+            pointHash = Arrays.copyOf(pointHash, nPoints * 2);
+            pointNextUnitID = Arrays.copyOf(pointNextUnitID, nPoints * 2);
+            pointHashValid = Arrays.copyOf(pointHashValid, nPoints * 2);
+        }
+        pointStart[nPoints] = size;
+        pointTime[nPoints] = time;
+        pointCounter[nPoints] = unitCancelationCounter;
+        pointHash[nPoints] = hash;
+        pointNextUnitID[nPoints] = nextUnitID;
+        pointHashValid[nPoints] = hashValid;
+        nPoints++;
+    }
+
+    void record(int a_kind, Object a_o1, Object a_o2, int a_a, int a_b) {
+        if (size == kind.length) {
+            int n = size * 2;
+            kind = Arrays.copyOf(kind, n);
+            o1 = Arrays.copyOf(o1, n);
+            o2 = Arrays.copyOf(o2, n);
+            a = Arrays.copyOf(a, n);
+            b = Arrays.copyOf(b, n);
+        }
+        kind[size] = a_kind;
+        o1[size] = a_o1;
+        o2[size] = a_o2;
+        a[size] = a_a;
+        b[size] = a_b;
+        size++;
+    }
+
+    /**
+     * Reverts all the changes recorded since the last undo point, and removes
+     * that point
+     *
+     * @param gs
+     */
+    void undo(GameState gs) {
+        if (nPoints == 0) {
+            throw new IllegalStateException("GameState.undo: there is no undo point");
+        }
+        nPoints--;
+        int start = pointStart[nPoints];
+        // changes made directly to the assignments are not recorded, so the hash of the point might not be the one restored:
+        boolean direct = gs.assignments().version != gs.assignmentsVersion;
+        PhysicalGameState pgs = gs.pgs;
+        for (int i = size - 1; i >= start; i--) {
+            switch (kind[i]) {
+                case MOVE:
+                    pgs.moveUnit((Unit) o1[i], a[i], b[i]);
+                    break;
+                case HIT_POINTS:
+                    ((Unit) o1[i]).setHitPoints(a[i]);
+                    break;
+                case UNIT_RESOURCES:
+                    ((Unit) o1[i]).setResources(a[i]);
+                    break;
+                case PLAYER_RESOURCES:
+                    ((Player) o1[i]).setResources(a[i]);
+                    break;
+                case UNIT_ADDED:
+                    pgs.removeUnit((Unit) o1[i]);
+                    break;
+                case UNIT_REMOVED:
+                    pgs.insertUnit(a[i], (Unit) o1[i]);
+                    break;
+                case ASSIGNED:
+                    // a replaced assignment keeps its place in the order:
+                    if (o2[i] == null) {
+                        gs.assignments().remove(o1[i]);
+                    } else {
+                        gs.assignments().put((Unit) o1[i], (UnitActionAssignment) o2[i]);
+                    }
+                    break;
+                case UNASSIGNED:
+                    gs.assignments().putAfter((Unit) o2[i], (UnitActionAssignment) o1[i]);
+                    break;
+                case ACTION_CHANGED:
+                    ((UnitActionAssignment) o1[i]).action = (UnitAction) o2[i];
+                    break;
+            }
+            o1[i] = null;
+            o2[i] = null;
+        }
+        size = start;
+        gs.time = pointTime[nPoints];
+        gs.unitCancelationCounter = pointCounter[nPoints];
+        gs.hash = pointHash[nPoints];
+        gs.hashValid = pointHashValid[nPoints] && !direct;
+        pgs.nextUnitID = pointNextUnitID[nPoints];
+        if (gs.completions != null) {
+            // the completion times of the restored assignments may have been discarded:
+            gs.completions.invalidate();
+        }
+        if (gs.reservations != null) {
+            gs.reservations.invalidate();
+        }
+        gs.assignedCountsVersion = -1;
+        gs.assignmentsUpdated();
+    }
+}
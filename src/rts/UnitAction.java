@@ -17,7 +17,12 @@ import util.XMLWriter;
  */
 public class UnitAction {
 
-    public static Random r = new Random();  // only used for non-deterministic events    
+    /**
+     * @deprecated not used by the game anymore: non-deterministic events draw
+     * from the context of the game state (see {@link GameState#getContext()})
+     */
+    @Deprecated
+    public static Random r = new Random();
 
     /**
      * The 'no-op' action
@@ -125,6 +130,18 @@ public class UnitAction {
      */
     ResourceUsage r_cache;
 
+    /**
+     * The table this action belongs to, for the actions shared by all units
+     * (see {@link UnitActionTable}), or null for actions that are not shared.
+     * The amount of resources of the shared move and produce actions depends
+     * on the unit, so the table caches it by the position and player of the
+     * unit (at index sharedIndex), instead of in r_cache. Both fields (and
+     * r_cache, for the other shared actions) are set before the table is
+     * published.
+     */
+    UnitActionTable table = null;
+    int sharedIndex = -1;
+
     /**
      * Creates an action with specified type
      *
@@ -233,7 +250,9 @@ public class UnitAction {
 
     /**
      * Returns the ResourceUsage associated with this action, given a Unit and a
-     * PhysicalGameState
+     * PhysicalGameState. The result is cached, and, for the actions of a
+     * {@link UnitActionTable}, shared and read-only, so it must be cloned
+     * before modifying it
      *
      * @param u
      * @param pgs
@@ -244,7 +263,25 @@ public class UnitAction {
             return r_cache;
         }
 
-        r_cache = new ResourceUsage();
+        if (table != null) {
+            // shared action: the usage depends on the position and player of the unit
+            return table.resourceUsage(this, u, pgs);
+        }
+
+        r_cache = computeResourceUsage(u, pgs);
+        return r_cache;
+    }
+
+    /**
+     * Computes the ResourceUsage associated with this action, given a Unit and a
+     * PhysicalGameState
+     *
+     * @param u
+     * @param pgs
+     * @return
+     */
+    ResourceUsage computeResourceUsage(Unit u, PhysicalGameState pgs) {
+        ResourceUsage ru = new ResourceUsage();
 
         switch (type) {
             case TYPE_MOVE: {
@@ -263,11 +300,11 @@ public class UnitAction {
                         pos--;
                         break;
                 }
-                r_cache.positionsUsed.add(pos);
+                ru.addPosition(pos);
             }
             break;
             case TYPE_PRODUCE: {
-                r_cache.resourcesUsed[u.getPlayer()] += unitType.cost;
+                ru.resourcesUsed[u.getPlayer()] += unitType.cost;
                 int pos = u.getX() + u.getY() * pgs.getWidth();
                 switch (parameter) {
                     case DIRECTION_UP:
@@ -283,12 +320,12 @@ public class UnitAction {
                         pos--;
                         break;
                 }
-                r_cache.positionsUsed.add(pos);
+                ru.addPosition(pos);
             }
             break;
         }
 
-        return r_cache;
+        return ru;
     }
 
     /**
@@ -340,16 +377,16 @@ public class UnitAction {
             case TYPE_MOVE: //moves the unit in the intended direction
                 switch (parameter) {
                     case DIRECTION_UP:
-                        u.setY(u.getY() - 1);
+                        s.moveUnit(u, u.getX(), u.getY() - 1);
                         break;
                     case DIRECTION_RIGHT:
-                        u.setX(u.getX() + 1);
+                        s.moveUnit(u, u.getX() + 1, u.getY());
                         break;
                     case DIRECTION_DOWN:
-                        u.setY(u.getY() + 1);
+                        s.moveUnit(u, u.getX(), u.getY() + 1);
                         break;
                     case DIRECTION_LEFT:
-                        u.setX(u.getX() - 1);
+                        s.moveUnit(u, u.getX() - 1, u.getY());
                         break;
                 }
                 break;
@@ -361,9 +398,9 @@ public class UnitAction {
                     if (u.getMinDamage() == u.getMaxDamage()) {
                         damage = u.getMinDamage();
                     } else {
-                        damage = u.getMinDamage() + r.nextInt(1 + (u.getMaxDamage() - u.getMinDamage()));
+                        damage = u.getMinDamage() + s.getContext().random.nextInt(1 + (u.getMaxDamage() - u.getMinDamage()));
                     }
-                    other.setHitPoints(other.getHitPoints() - damage);
+                    s.setUnitHitPoints(other, other.getHitPoints() - damage);
                     if (other.getHitPoints() <= 0) {
                         s.removeUnit(other);
                     }
@@ -390,11 +427,11 @@ public class UnitAction {
                 }
                 if (maybeAResource != null && maybeAResource.getType().isResource && u.getType().canHarvest && u.getResources() == 0) {
                     //indeed it is a resource, harvest from it
-                    maybeAResource.setResources(maybeAResource.getResources() - u.getHarvestAmount());
+                    s.setUnitResources(maybeAResource, maybeAResource.getResources() - u.getHarvestAmount());
                     if (maybeAResource.getResources() <= 0) {
                         s.removeUnit(maybeAResource);
                     }
-                    u.setResources(u.getHarvestAmount());
+                    s.setUnitResources(u, u.getHarvestAmount());
                 }
             }
             break;
@@ -419,8 +456,8 @@ public class UnitAction {
 
                 if (base != null && base.getType().isStockpile && u.getResources() > 0) {
                     Player p = pgs.getPlayer(u.getPlayer());
-                    p.setResources(p.getResources() + u.getResources());
-                    u.setResources(0);
+                    s.setPlayerResources(p, p.getResources() + u.getResources());
+                    s.setUnitResources(u, 0);
                 } else {// base is not there
 
                 }
@@ -446,10 +483,10 @@ public class UnitAction {
                         targetx--;
                         break;
                 }
-                newUnit = new Unit(u.getPlayer(), unitType, targetx, targety, 0);
-                pgs.addUnit(newUnit);
+                newUnit = new Unit(pgs, u.getPlayer(), unitType, targetx, targety, 0);
+                s.addUnit(newUnit);
                 Player p = pgs.getPlayer(u.getPlayer());
-                p.setResources(p.getResources() - newUnit.getCost());
+                s.setPlayerResources(p, p.getResources() - newUnit.getCost());
                 if (p.getResources() < 0) {
                     System.err.print("Illegal action executed! resources of player " + p.ID + " are now " + p.getResources() + "\n");
                     System.err.print(s);
@@ -603,7 +640,8 @@ public class UnitAction {
     }
 
     public void clearResourceUSageCache() {
-        r_cache = null;
+        // the usage of shared actions does not change, and they may be in use by other threads:
+        if (table == null) r_cache = null;
     }
 
     /**
@@ -0,0 +1,246 @@
+package rts;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * A table of canonical (shared) {@link UnitAction} instances for a given
+ * {@link UnitTypeTable}, used by {@link rts.units.Unit#getUnitActions(GameState, int)}
+ * to avoid allocating a new action for each legal move. It contains the move,
+ * harvest and return actions for each direction, the produce actions for each
+ * direction and unit type, the wait actions for short durations, and the
+ * attack actions for each cell.
+ *
+ * The actions in this table must not be modified, and the table can be used
+ * by several threads at once (e.g. games on maps of different sizes): the
+ * arrays it grows are replaced by fully built copies, never written after
+ * being published. The resource usage of the move and produce actions depends
+ * on the unit that executes them, so it is not cached in the actions
+ * themselves, but here, in a table per map size indexed by position and
+ * player (see {@link UnitAction#resourceUsage(rts.units.Unit, PhysicalGameState)}).
+ */
+public class UnitActionTable {
+    /**
+     * Wait actions are interned for durations below this value
+     */
+    public static final int MAX_INTERNED_NONE_DURATION = 64;
+
+    final UnitTypeTable utt;
+    final UnitAction none[] = new UnitAction[MAX_INTERNED_NONE_DURATION];
+    final UnitAction move[] = new UnitAction[4];
+    final UnitAction harvest[] = new UnitAction[4];
+    final UnitAction ret[] = new UnitAction[4];
+    volatile UnitAction produce[][];     // [unit type ID][direction]
+
+    // attack actions, indexed by [y][x]:
+    volatile UnitAction attack[][] = new UnitAction[0][];
+
+    // number of move and produce actions, whose resource usage is cached in usages:
+    int nShared = 0;
+    volatile UsageTable usages[] = new UsageTable[0];
+
+    /**
+     * Resource usages of the move and produce actions on a map of a given
+     * size, indexed by ((sharedIndex * height + y) * width + x) * 2 + player
+     */
+    static class UsageTable {
+        final int width, height, nShared;
+        final AtomicReferenceArray<ResourceUsage> usage;
+
+        UsageTable(int a_width, int a_height, int a_nShared) {
+            width = a_width;
+            height = a_height;
+            nShared = a_nShared;
+            usage = new AtomicReferenceArray<>(a_nShared * a_height * a_width * 2);
+        }
+    }
+
+    /**
+     * Creates the table of canonical actions of a UnitTypeTable. Use
+     * {@link UnitTypeTable#getUnitActionTable()} to get the table of a
+     * UnitTypeTable, rather than creating a new one.
+     * @param a_utt
+     */
+    public UnitActionTable(UnitTypeTable a_utt) {
+        utt = a_utt;
+        for (int i = 0; i < none.length; i++) {
+            none[i] = constant(new UnitAction(UnitAction.TYPE_NONE, i));
+        }
+        for (int d = 0; d < 4; d++) {
+            move[d] = intern(new UnitAction(UnitAction.TYPE_MOVE, d));
+            harvest[d] = constant(new UnitAction(UnitAction.TYPE_HARVEST, d));
+            ret[d] = constant(new UnitAction(UnitAction.TYPE_RETURN, d));
+        }
+        buildProduceActions();
+    }
+
+    synchronized void buildProduceActions() {
+        if (produce != null && produce.length == utt.getUnitTypes().size()) return;
+        UnitAction table[][] = new UnitAction[utt.getUnitTypes().size()][4];
+        for (UnitType ut : utt.getUnitTypes()) {
+            for (int d = 0; d < 4; d++) {
+                table[ut.ID][d] = intern(new UnitAction(UnitAction.TYPE_PRODUCE, d, ut));
+            }
+        }
+        produce = table;
+    }
+
+    /**
+     * Marks a move or produce action as shared, so that its resource usage is
+     * cached per position and player in this table rather than in the action
+     */
+    UnitAction intern(UnitAction a) {
+        a.table = this;
+        a.sharedIndex = nShared++;
+        return a;
+    }
+
+    /**
+     * Marks an action whose resource usage does not depend on the unit as
+     * shared, computing its (empty, read-only) resource usage before it is 
+     * published
+     */
+    UnitAction constant(UnitAction a) {
+        a.table = this;
+        a.r_cache = new ResourceUsage().readOnly();
+        return a;
+    }
+
+    /**
+     * Returns the resource usage of a shared move or produce action executed
+     * by a given unit, from the table of the size of the map. The instances in
+     * the table are read-only (see {@link ResourceUsage#readOnly()})
+     */
+    ResourceUsage resourceUsage(UnitAction a, Unit u, PhysicalGameState pgs) {
+        int width = pgs.getWidth(), height = pgs.getHeight();
+        int x = u.getX(), y = u.getY(), player = u.getPlayer();
+        if (x < 0 || y < 0 || x >= width || y >= height || player < 0 || player > 1) {
+            return a.computeResourceUsage(u, pgs);
+        }
+        UsageTable table = usageTable(width, height, a.sharedIndex);
+        int idx = ((a.sharedIndex * height + y) * width + x) * 2 + player;
+        ResourceUsage ru = table.usage.get(idx);
+        if (ru == null) {
+            // two threads may compute the same usage, but either one is correct:
+            ru = a.computeResourceUsage(u, pgs).readOnly();
+            table.usage.set(idx, ru);
+        }
+        return ru;
+    }
+
+    UsageTable usageTable(int width, int height, int sharedIndex) {
+        for (UsageTable table : usages) {
+            if (table.width == width && table.height == height && sharedIndex < table.nShared) return table;
+        }
+        synchronized (this) {
+            UsageTable tables[] = usages;
+            for (int i = 0; i < tables.length; i++) {
+                UsageTable table = tables[i];
+                if (table.width == width && table.height == height) {
+                    if (sharedIndex < table.nShared) return table;
+                    // produce actions have been added since the table was built:
+                    tables = tables.clone();
+                    tables[i] = new UsageTable(width, height, nShared);
+                    usages = tables;
+                    return tables[i];
+                }
+            }
+            UsageTable table = new UsageTable(width, height, nShared);
+            tables = Arrays.copyOf(tables, tables.length + 1);
+            tables[tables.length - 1] = table;
+            usages = tables;
+            return table;
+        }
+    }
+
+    /**
+     * Returns a wait action of a given duration
+     * @param duration
+     * @return
+     */
+    public UnitAction none(int duration) {
+        if (duration >= 0 && duration < none.length) return none[duration];
+        return new UnitAction(UnitAction.TYPE_NONE, duration);
+    }
+
+    /**
+     * Returns a move action in a given direction
+     * @param direction
+     * @return
+     */
+    public UnitAction move(int direction) {
+        return move[direction];
+    }
+
+    /**
+     * Returns a harvest action in a given direction
+     * @param direction
+     * @return
+     */
+    public UnitAction harvest(int direction) {
+        return harvest[direction];
+    }
+
+    /**
+     * Returns a return action in a given direction
+     * @param direction
+     * @return
+     */
+    public UnitAction ret(int direction) {
+        return ret[direction];
+    }
+
+    /**
+     * Returns an action to produce a unit of a given type in a given direction
+     * @param direction
+     * @param type
+     * @return
+     */
+    public UnitAction produce(int direction, UnitType type) {
+        UnitAction table[][] = produce;
+        if (type.ID < table.length && table[type.ID][direction].unitType == type) {
+            return table[type.ID][direction];
+        }
+        if (type.ID < utt.getUnitTypes().size() && utt.getUnitType(type.ID) == type) {
+            // unit types have been added to the UnitTypeTable since the table was built:
+            buildProduceActions();
+            table = produce;
+            if (type.ID < table.length) return table[type.ID][direction];
+        }
+        return new UnitAction(UnitAction.TYPE_PRODUCE, direction, type);
+    }
+
+    /**
+     * Returns an action to attack a given cell
+     * @param x
+     * @param y
+     * @param pgs the map, outside of which attack actions are not shared
+     * @return
+     */
+    public UnitAction attack(int x, int y, PhysicalGameState pgs) {
+        if (x < 0 || y < 0 || x >= pgs.getWidth() || y >= pgs.getHeight()) {
+            return new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, x, y);
+        }
+        UnitAction table[][] = attack;
+        if (y < table.length && table[y] != null && x < table[y].length && table[y][x] != null) {
+            return table[y][x];
+        }
+        return addAttack(x, y);
+    }
+
+    synchronized UnitAction addAttack(int x, int y) {
+        UnitAction table[][] = attack;
+        UnitAction row[] = y < table.length ? table[y] : null;
+        if (row != null && x < row.length && row[x] != null) return row[x];
+        UnitAction a = constant(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, x, y));
+        row = row == null ? new UnitAction[x + 1] : Arrays.copyOf(row, Math.max(row.length, x + 1));
+        row[x] = a;
+        table = Arrays.copyOf(table, Math.max(table.length, y + 1));
+        table[y] = row;
+        attack = table;
+        return a;
+    }
+}
@@ -0,0 +1,262 @@
+package rts;
+
+import ai.core.AI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * A set of games played in the same process, to train agents with
+ * reinforcement learning without going through sockets. The agent controls
+ * player 0 in every game, choosing an action for the unit in each cell of the
+ * map (see {@link GridActionSpace}), and player 1 is controlled by a copy of a
+ * given AI. Games are stepped in parallel on a pool of threads, and are reset
+ * automatically when they end, cycling through a set of maps.
+ *
+ * All the batched arrays are provided by the caller, and are laid out
+ * environment by environment:
+ * <pre>
+ * actions       [env][y][x][GridActionSpace.COMPONENTS]
+ * observations  [env][plane][y][x] (see {@link #getObservationSize()})
+ * rewards, dones [env]
+ * </pre>
+ * Observations are written with {@link ObservationPlanes}, from the point of
+ * view of player 0 if the games are partially observable.
+ */
+public class VecEnv {
+    UnitTypeTable utt;
+    GridActionSpace actionSpace;
+    PhysicalGameState maps[];
+    int width, height;
+    int maxCycles;
+    boolean partiallyObservable = false;
+
+    GameState games[];
+    AI opponents[];
+    int episodes[];         // number of episodes started by each environment
+    PlayerAction actions[]; // reused by each environment to issue the actions of the agent
+
+    ExecutorService pool = null;
+    int nThreads;
+
+    /**
+     * Creates the environments, and starts their first games
+     *
+     * @param a_utt
+     * @param mapFiles the maps to play in (which must have the same size),
+     * environment i plays its episodes in maps i, i+1, i+2, ... (modulo the
+     * number of maps)
+     * @param nEnvs number of environments
+     * @param opponent the AI controlling player 1 (each environment uses a clone)
+     * @param a_maxCycles games are ended (with reward 0) after this number of cycles
+     * @param a_nThreads number of threads used to step the environments
+     * @param seed seed of the simulation contexts of the environments
+     * @throws Exception if the maps cannot be loaded, or have different sizes
+     */
+    public VecEnv(UnitTypeTable a_utt, String mapFiles[], int nEnvs, AI opponent, int a_maxCycles, int a_nThreads, long seed) throws Exception {
+        utt = a_utt;
+        actionSpace = new GridActionSpace(utt);
+        maxCycles = a_maxCycles;
+        maps = new PhysicalGameState[mapFiles.length];
+        for (int i = 0; i < mapFiles.length; i++) {
+            maps[i] = PhysicalGameState.load(mapFiles[i], utt);
+            if (i > 0 && (maps[i].getWidth() != maps[0].getWidth() || maps[i].getHeight() != maps[0].getHeight())) {
+                throw new IllegalArgumentException("VecEnv: all the maps must have the same size (" + mapFiles[i] + ")");
+            }
+        }
+        width = maps[0].getWidth();
+        height = maps[0].getHeight();
+
+        games = new GameState[nEnvs];
+        opponents = new AI[nEnvs];
+        episodes = new int[nEnvs];
+        actions = new PlayerAction[nEnvs];
+        SimulationContext context = new SimulationContext(seed);
+        for (int i = 0; i < nEnvs; i++) {
+            opponents[i] = opponent.clone();
+            actions[i] = new PlayerAction();
+            games[i] = new GameState(maps[i % maps.length].clone(), utt, context.split());
+        }
+        nThreads = Math.max(1, Math.min(a_nThreads, nEnvs));
+        if (nThreads > 1) {
+            pool = Executors.newFixedThreadPool(nThreads, r -> {
+                Thread t = new Thread(r, "VecEnv");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public int getNumEnvs() {
+        return games.length;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public GridActionSpace getActionSpace() {
+        return actionSpace;
+    }
+
+    /**
+     * Returns the number of integers of the actions of one environment
+     * @return
+     */
+    public int getActionSize() {
+        return width * height * GridActionSpace.COMPONENTS;
+    }
+
+    /**
+     * Returns the number of integers of the observation of one environment
+     * @return
+     */
+    public int getObservationSize() {
+        return width * height * ObservationPlanes.PLANES;
+    }
+
+    /**
+     * Returns the number of entries of the action masks of one environment
+     * @return
+     */
+    public int getMaskSize() {
+        return width * height * actionSpace.getMaskSize();
+    }
+
+    /**
+     * Writes the legal actions of the units of player 0 in each environment
+     * (see {@link GameState#getActionMasks(int, GridActionSpace, boolean[], int)})
+     * @param masks [env][y][x][mask entry]
+     */
+    public void getActionMasks(boolean masks[]) {
+        for (int i = 0; i < games.length; i++) {
+            games[i].getActionMasks(0, actionSpace, masks, i * getMaskSize());
+        }
+    }
+
+    /**
+     * Sets whether the agent only observes the units within the sight of its
+     * units (the opponent AI always observes the whole game)
+     * @param a_partiallyObservable
+     */
+    public void setPartiallyObservable(boolean a_partiallyObservable) {
+        partiallyObservable = a_partiallyObservable;
+    }
+
+    /**
+     * Returns the game being played in an environment
+     * @param env
+     * @return
+     */
+    public GameState getGameState(int env) {
+        return games[env];
+    }
+
+    /**
+     * Restarts all the games
+     *
+     * @param observations where the observations of the new games are written
+     */
+    public void reset(int observations[]) {
+        for (int i = 0; i < games.length; i++) {
+            restart(i);
+            observe(i, observations);
+        }
+    }
+
+    /**
+     * Advances all the games one cycle. Games that end are restarted, and the
+     * observation returned for them is the one of the new game.
+     *
+     * @param agentActions the actions of player 0 in each environment
+     * @param observations where the observations are written
+     * @param rewards where the rewards are written (1 if player 0 won the game in
+     * this step, -1 if it lost, and 0 otherwise)
+     * @param dones where it is written whether the game of each environment ended
+     * @throws Exception if the opponent AI fails
+     */
+    public void step(int agentActions[], int observations[], double rewards[], boolean dones[]) throws Exception {
+        if (pool == null) {
+            for (int i = 0; i < games.length; i++) {
+                step(i, agentActions, observations, rewards, dones);
+            }
+            return;
+        }
+        List<Callable<Object>> tasks = new ArrayList<>(nThreads);
+        for (int t = 0; t < nThreads; t++) {
+            int first = t;
+            tasks.add(() -> {
+                // each thread steps a fixed subset of the environments:
+                for (int i = first; i < games.length; i += nThreads) {
+                    step(i, agentActions, observations, rewards, dones);
+                }
+                return null;
+            });
+        }
+        for (Future<Object> f : pool.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    void step(int env, int agentActions[], int observations[], double rewards[], boolean dones[]) throws Exception {
+        GameState gs = games[env];
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        PlayerAction pa = actions[env];
+        pa.clear();
+        int base = env * getActionSize();
+        for (Unit u : pgs.getUnits()) {
+            if (u.getPlayer() == 0 && gs.getActionAssignment(u) == null) {
+                UnitAction a = actionSpace.decode(u, agentActions, base + (u.getX() + u.getY() * width) * GridActionSpace.COMPONENTS, pgs);
+                if (a != null) pa.addUnitAction(u, a);
+            }
+        }
+        gs.issueSafe(pa);
+        gs.issueSafe(opponents[env].getAction(1, gs));
+        boolean gameover = gs.cycle();
+        if (gameover || gs.getTime() >= maxCycles) {
+            int winner = gs.winner();
+            rewards[env] = (winner == 0 ? 1 : (winner == 1 ? -1 : 0));
+            dones[env] = true;
+            opponents[env].gameOver(winner);
+            restart(env);
+        } else {
+            rewards[env] = 0;
+            dones[env] = false;
+        }
+        observe(env, observations);
+    }
+
+    void restart(int env) {
+        episodes[env]++;
+        PhysicalGameState map = maps[(env + episodes[env] - 1) % maps.length];
+        games[env] = new GameState(map.clone(), utt, games[env].getContext());
+        opponents[env].reset();
+    }
+
+    void observe(int env, int observations[]) {
+        ObservationPlanes.write(games[env], partiallyObservable ? 0 : -1, observations, env * getObservationSize());
+    }
+
+    /**
+     * Stops the threads used to step the environments
+     */
+    public void close() {
+        if (pool != null) pool.shutdownNow();
+        pool = null;
+    }
+}
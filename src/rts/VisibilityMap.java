@@ -0,0 +1,116 @@
+package rts;
+
+import java.util.Arrays;
+import rts.units.Unit;
+
+/**
+ * For each player and cell of the map, the number of units of that player
+ * that can see the cell (i.e., whose distance to the cell is not larger than
+ * their sight radius). It is built from a {@link PhysicalGameState} the first
+ * time the visibility of a cell is asked for (see
+ * {@link PhysicalGameState#observable(int, int, int)}), and then kept up to date
+ * as units are added, removed or moved, by adding or subtracting the sight mask
+ * of each unit, so that checking whether a cell is visible is a constant time
+ * operation.
+ */
+class VisibilityMap {
+    // sight masks for each sight radius (pairs of offsets dx, dy), shared by all the maps:
+    static volatile int masks[][] = new int[0][];
+
+    int counts[][];     // [player][x + y * width]
+    int width, height;
+
+    VisibilityMap(PhysicalGameState pgs) {
+        width = pgs.getWidth();
+        height = pgs.getHeight();
+        counts = new int[Math.max(2, pgs.getPlayers().size())][width * height];
+        for (Unit u : pgs.getUnits()) {
+            stamp(u, 1);
+        }
+    }
+
+    VisibilityMap(VisibilityMap other) {
+        width = other.width;
+        height = other.height;
+        counts = new int[other.counts.length][];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = other.counts[i].clone();
+        }
+    }
+
+    /**
+     * Returns the offsets of the cells within a given sight radius
+     *
+     * @param radius
+     * @return
+     */
+    static int[] mask(int radius) {
+        int table[][] = masks;
+        if (radius < table.length && table[radius] != null) {
+            return table[radius];
+        }
+        int n = 0;
+        int mask[] = new int[2 * (2 * radius + 1) * (2 * radius + 1)];
+        for (int dy = -radius; dy <= radius; dy++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                if (dx * dx + dy * dy <= radius * radius) {
+                    mask[n++] = dx;
+                    mask[n++] = dy;
+                }
+            }
+        }
+        mask = Arrays.copyOf(mask, n);
+        if (radius >= table.length) {
+            table = Arrays.copyOf(table, radius + 1);
+        } else {
+            table = table.clone();
+        }
+        table[radius] = mask;
+        masks = table;
+        return mask;
+    }
+
+    /**
+     * Adds (delta = 1) or removes (delta = -1) the cells seen by a unit
+     *
+     * @param u
+     * @param delta
+     */
+    void stamp(Unit u, int delta) {
+        stamp(u, u.getX(), u.getY(), delta);
+    }
+
+    /**
+     * Adds or removes the cells seen by a unit as if it was at a given position
+     *
+     * @param u
+     * @param ux
+     * @param uy
+     * @param delta
+     */
+    void stamp(Unit u, int ux, int uy, int delta) {
+        int player = u.getPlayer();
+        int radius = u.getType().sightRadius;
+        if (player < 0 || radius < 0) return;
+        if (player >= counts.length) {
+            int tmp[][] = Arrays.copyOf(counts, player + 1);
+            for (int i = counts.length; i < tmp.length; i++) {
+                tmp[i] = new int[width * height];
+            }
+            counts = tmp;
+        }
+        int c[] = counts[player];
+        int mask[] = mask(radius);
+        for (int i = 0; i < mask.length; i += 2) {
+            int x = ux + mask[i];
+            int y = uy + mask[i + 1];
+            if (x >= 0 && y >= 0 && x < width && y < height) {
+                c[x + y * width] += delta;
+            }
+        }
+    }
+
+    boolean visible(int player, int x, int y) {
+        return player >= 0 && player < counts.length && counts[player][x + y * width] > 0;
+    }
+}
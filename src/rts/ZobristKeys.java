@@ -0,0 +1,70 @@
+package rts;
+
+import rts.units.Unit;
+
+/**
+ * Zobrist keys of the components of a {@link GameState} (see
+ * {@link GameState#getHash()}). The hash of a state is the XOR of the keys of
+ * its units, action assignments, players and time. Since positions, hit
+ * points, resources or times have no fixed bounds, keys are not looked up in
+ * tables of random numbers, but computed by mixing the values of each
+ * component with the SplitMix64 finalizer.
+ * Keys only depend on the values compared by {@link GameState#equals(Object)}
+ * (not on unit IDs), so that equal states have equal hashes.
+ */
+class ZobristKeys {
+    static final long UNIT = 0x9E3779B97F4A7C15L;
+    static final long ASSIGNMENT = 0xC2B2AE3D27D4EB4FL;
+    static final long PLAYER = 0x165667B19E3779F9L;
+    static final long TIME = 0xD6E8FEB86659FD93L;
+
+    static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    static long unit(Unit u) {
+        long h = mix(UNIT + u.getType().ID);
+        h = mix(h + u.getPlayer());
+        h = mix(h + u.getX());
+        h = mix(h + u.getY());
+        h = mix(h + u.getHitPoints());
+        return mix(h + u.getResources());
+    }
+
+    /**
+     * The key of an assignment depends on the position of the unit (which
+     * does not change while the unit has an action assigned), and on the
+     * fields of the action that UnitAction.equals compares
+     */
+    static long assignment(UnitActionAssignment uaa) {
+        UnitAction a = uaa.action;
+        long h = mix(ASSIGNMENT + uaa.unit.getX());
+        h = mix(h + uaa.unit.getY());
+        h = mix(h + uaa.time);
+        h = mix(h + a.type);
+        switch (a.type) {
+            case UnitAction.TYPE_NONE:
+            case UnitAction.TYPE_MOVE:
+            case UnitAction.TYPE_HARVEST:
+            case UnitAction.TYPE_RETURN:
+                return mix(h + a.parameter);
+            case UnitAction.TYPE_ATTACK_LOCATION:
+                h = mix(h + a.x);
+                return mix(h + a.y);
+            default:
+                h = mix(h + a.parameter);
+                return mix(h + (a.unitType == null ? -1 : a.unitType.ID));
+        }
+    }
+
+    static long player(Player p) {
+        long h = mix(PLAYER + p.getID());
+        return mix(h + p.getResources());
+    }
+
+    static long time(int time) {
+        return mix(TIME + time);
+    }
+}
@@ -5,11 +5,13 @@ import java.io.Serializable;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import org.jdom.Element;
 import rts.GameState;
 import rts.PhysicalGameState;
 import rts.Player;
 import rts.UnitAction;
+import rts.UnitActionTable;
 import util.XMLWriter;
 
 /**
@@ -26,9 +28,23 @@ public class Unit implements Serializable {
 
     /**
      * Indicates the ID to assign to a new unit. It is incremented when the
-     * constructor without explicit ID is used
+     * constructor without explicit ID is used, and kept above the ID of any
+     * unit created with an explicit ID. Units created during a game get their
+     * ID from the game state instead (see
+     * {@link #Unit(PhysicalGameState, int, UnitType, int, int, int)}), so that
+     * IDs do not depend on other games or searches running in parallel, and
+     * do not update this counter. Updates are synchronized on the Unit class
      */
-    public static long next_ID = 0;
+    public static volatile long next_ID = 0;
+
+    /**
+     * Number of times the position of any unit has been changed with
+     * {@link #setX(int)} or {@link #setY(int)}, i.e. without going through
+     * {@link PhysicalGameState#moveUnit(Unit, int, int)}. Maps compare it with
+     * the value their unit indexes were checked for, to find out whether their
+     * units might have moved (see {@link #getDirectMoves()})
+     */
+    private static final AtomicLong directMoves = new AtomicLong();
 
     /**
      * The unique identifier of this unit
@@ -57,7 +73,9 @@ public class Unit implements Serializable {
 
     /**
      * Constructs a unit, specifying with all parameters, including the ID.
-     * {@link #next_ID} gets ID+1 if ID >= {@link #next_ID}
+     * {@link #next_ID} gets ID+1 if ID >= {@link #next_ID}. Units added to a
+     * game state should be created with
+     * {@link #Unit(PhysicalGameState, int, UnitType, int, int, int)}
      *
      * @param a_ID
      * @param a_player
@@ -75,10 +93,34 @@ public class Unit implements Serializable {
         hitpoints = a_type.hp;
         ID = a_ID;
         if (ID >= next_ID) {
-            next_ID = ID + 1;
+            synchronized (Unit.class) {
+                if (ID >= next_ID) next_ID = ID + 1;
+            }
         }
     }
 
+    /**
+     * Creates a unit to be added to a map, with an ID given by the map (see
+     * {@link PhysicalGameState#createUnitID()}). {@link #next_ID} is not
+     * modified
+     *
+     * @param a_map
+     * @param a_player
+     * @param a_type
+     * @param a_x
+     * @param a_y
+     * @param a_resources
+     */
+    public Unit(PhysicalGameState a_map, int a_player, UnitType a_type, int a_x, int a_y, int a_resources) {
+        player = a_player;
+        type = a_type;
+        x = a_x;
+        y = a_y;
+        resources = a_resources;
+        hitpoints = a_type.hp;
+        ID = a_map.createUnitID();
+    }
+
     /**
      * Creates a unit without specifying its ID. It is automatically assigned
      * from {@link #next_ID}, which is incremented.
@@ -96,7 +138,9 @@ public class Unit implements Serializable {
         y = a_y;
         resources = a_resources;
         hitpoints = a_type.hp;
-        ID = next_ID++;
+        synchronized (Unit.class) {
+            ID = next_ID++;
+        }
     }
 
     /**
@@ -114,7 +158,9 @@ public class Unit implements Serializable {
         y = a_y;
         resources = 0;
         hitpoints = a_type.hp;
-        ID = next_ID++;
+        synchronized (Unit.class) {
+            ID = next_ID++;
+        }
     }
 
     /**
@@ -173,7 +219,9 @@ public class Unit implements Serializable {
 
     /**
      * Changes the unique identifier Note: Do not use this function unless you
-     * know what you are doing!
+     * know what you are doing! If the unit is part of a
+     * {@link PhysicalGameState}, call
+     * {@link PhysicalGameState#rebuildUnitIndex()} afterwards.
      *
      * @param a_ID
      */
@@ -211,21 +259,54 @@ public class Unit implements Serializable {
     }
 
     /**
-     * Sets x coordinate
+     * Sets x coordinate. The maps the unit is in notice the move the next time
+     * their unit indexes are used (moving it with
+     * {@link PhysicalGameState#moveUnit(Unit, int, int)} is faster, since that
+     * map updates its indexes right away)
      *
      * @param a_x
      */
     public void setX(int a_x) {
         x = a_x;
+        directMoves.incrementAndGet();
     }
 
     /**
-     * Sets y coordinate
+     * Sets y coordinate. The maps the unit is in notice the move the next time
+     * their unit indexes are used (moving it with
+     * {@link PhysicalGameState#moveUnit(Unit, int, int)} is faster, since that
+     * map updates its indexes right away)
      *
      * @param a_y
      */
     public void setY(int a_y) {
         y = a_y;
+        directMoves.incrementAndGet();
+    }
+
+    /**
+     * Sets both coordinates without counting it as a direct move (see
+     * {@link #getDirectMoves()}). Used by
+     * {@link PhysicalGameState#moveUnit(Unit, int, int)}, which updates the
+     * indexes of the map itself: use {@link #setX(int)} and
+     * {@link #setY(int)} otherwise
+     *
+     * @param a_x
+     * @param a_y
+     */
+    public void setPosition(int a_x, int a_y) {
+        x = a_x;
+        y = a_y;
+    }
+
+    /**
+     * Returns the number of times the position of any unit has been changed
+     * with {@link #setX(int)} or {@link #setY(int)}
+     *
+     * @return
+     */
+    public static long getDirectMoves() {
+        return directMoves.get();
     }
 
     /**
@@ -369,7 +450,8 @@ public class Unit implements Serializable {
 
     /**
      * Returns a list of actions this unit can perform in a given game state. An
-     * idle action for noneDuration cycles is always generated
+     * idle action for noneDuration cycles is always generated. The actions are
+     * shared instances (see {@link UnitActionTable}), and must not be modified
      *
      * @param s
      * @param noneDuration the amount of cycles for the idle action that is
@@ -378,44 +460,69 @@ public class Unit implements Serializable {
      */
     public List<UnitAction> getUnitActions(GameState s, int noneDuration) {
         List<UnitAction> l = new ArrayList<>();
+        generateUnitActions(s, noneDuration, null, l);
+        return l;
+    }
 
+    /**
+     * Writes the actions this unit can perform in a given game state into
+     * 'buffer' (the same actions, and in the same order, as
+     * {@link #getUnitActions(GameState)}), without allocating any list. Returns
+     * the number of actions: if it is larger than the length of the buffer, only
+     * the first buffer.length actions were written, and the call should be
+     * repeated with a larger buffer.
+     *
+     * @param s
+     * @param buffer
+     * @return
+     */
+    public int getUnitActions(GameState s, UnitAction buffer[]) {
+        return generateUnitActions(s, 10, buffer, null);
+    }
+
+    /**
+     * Same as {@link #getUnitActions(GameState, UnitAction[])}, but with an idle
+     * action for noneDuration cycles
+     *
+     * @param s
+     * @param noneDuration
+     * @param buffer
+     * @return
+     */
+    public int getUnitActions(GameState s, int noneDuration, UnitAction buffer[]) {
+        return generateUnitActions(s, noneDuration, buffer, null);
+    }
+
+    /**
+     * Generates the actions this unit can perform, adding them to 'l' if it is
+     * not null, and to 'buffer' otherwise. Returns the number of actions
+     */
+    private int generateUnitActions(GameState s, int noneDuration, UnitAction buffer[], List<UnitAction> l) {
+        int n = 0;
         PhysicalGameState pgs = s.getPhysicalGameState();
         Player p = pgs.getPlayer(player);
+        UnitActionTable actions = s.getUnitTypeTable().getUnitActionTable();
 
         // retrieves units around me
-        Unit uup = null, uright = null, udown = null, uleft = null;
-        for (Unit u : pgs.getUnits()) {
-            if (u.x == x) {
-                if (u.y == y - 1) {
-                    uup = u;
-                } else if (u.y == y + 1) {
-                    udown = u;
-                }
-            } else {
-                if (u.y == y) {
-                    if (u.x == x - 1) {
-                        uleft = u;
-                    } else if (u.x == x + 1) {
-                        uright = u;
-                    }
-                }
-            }
-        }
+        Unit uup = pgs.getUnitAt(x, y - 1);
+        Unit uright = pgs.getUnitAt(x + 1, y);
+        Unit udown = pgs.getUnitAt(x, y + 1);
+        Unit uleft = pgs.getUnitAt(x - 1, y);
 
         // if this unit can attack, adds an attack action for each unit around it
         if (type.canAttack) {
             if (type.attackRange == 1) {
                 if (y > 0 && uup != null && uup.player != player && uup.player >= 0) {
-                    l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, uup.x, uup.y));
+                    n = add(actions.attack(uup.x, uup.y, pgs), n, buffer, l);
                 }
                 if (x < pgs.getWidth() - 1 && uright != null && uright.player != player && uright.player >= 0) {
-                    l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, uright.x, uright.y));
+                    n = add(actions.attack(uright.x, uright.y, pgs), n, buffer, l);
                 }
                 if (y < pgs.getHeight() - 1 && udown != null && udown.player != player && udown.player >= 0) {
-                    l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, udown.x, udown.y));
+                    n = add(actions.attack(udown.x, udown.y, pgs), n, buffer, l);
                 }
                 if (x > 0 && uleft != null && uleft.player != player && uleft.player >= 0) {
-                    l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, uleft.x, uleft.y));
+                    n = add(actions.attack(uleft.x, uleft.y, pgs), n, buffer, l);
                 }
             } else {
                 int sqrange = type.attackRange * type.attackRange;
@@ -426,7 +533,7 @@ public class Unit implements Serializable {
                     int sq_dx = (u.x - x) * (u.x - x);
                     int sq_dy = (u.y - y) * (u.y - y);
                     if (sq_dx + sq_dy <= sqrange) {
-                        l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, u.x, u.y));
+                        n = add(actions.attack(u.x, u.y, pgs), n, buffer, l);
                     }
                 }
             }
@@ -438,31 +545,31 @@ public class Unit implements Serializable {
             // harvest:
             if (resources == 0) {
                 if (y > 0 && uup != null && uup.type.isResource) {
-                    l.add(new UnitAction(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_UP));
+                    n = add(actions.harvest(UnitAction.DIRECTION_UP), n, buffer, l);
                 }
                 if (x < pgs.getWidth() - 1 && uright != null && uright.type.isResource) {
-                    l.add(new UnitAction(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_RIGHT));
+                    n = add(actions.harvest(UnitAction.DIRECTION_RIGHT), n, buffer, l);
                 }
                 if (y < pgs.getHeight() - 1 && udown != null && udown.type.isResource) {
-                    l.add(new UnitAction(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_DOWN));
+                    n = add(actions.harvest(UnitAction.DIRECTION_DOWN), n, buffer, l);
                 }
                 if (x > 0 && uleft != null && uleft.type.isResource) {
-                    l.add(new UnitAction(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_LEFT));
+                    n = add(actions.harvest(UnitAction.DIRECTION_LEFT), n, buffer, l);
                 }
             }
             // return:
             if (resources > 0) {
                 if (y > 0 && uup != null && uup.type.isStockpile && uup.player == player) {
-                    l.add(new UnitAction(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_UP));
+                    n = add(actions.ret(UnitAction.DIRECTION_UP), n, buffer, l);
                 }
                 if (x < pgs.getWidth() - 1 && uright != null && uright.type.isStockpile && uright.player == player) {
-                    l.add(new UnitAction(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_RIGHT));
+                    n = add(actions.ret(UnitAction.DIRECTION_RIGHT), n, buffer, l);
                 }
                 if (y < pgs.getHeight() - 1 && udown != null && udown.type.isStockpile && udown.player == player) {
-                    l.add(new UnitAction(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_DOWN));
+                    n = add(actions.ret(UnitAction.DIRECTION_DOWN), n, buffer, l);
                 }
                 if (x > 0 && uleft != null && uleft.type.isStockpile && uleft.player == player) {
-                    l.add(new UnitAction(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_LEFT));
+                    n = add(actions.ret(UnitAction.DIRECTION_LEFT), n, buffer, l);
                 }
             }
         }
@@ -477,16 +584,16 @@ public class Unit implements Serializable {
                 int tleft = (x > 0 ? pgs.getTerrain(x - 1, y) : PhysicalGameState.TERRAIN_WALL);
 
                 if (tup == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x, y - 1) == null) {
-                    l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_UP, ut));
+                    n = add(actions.produce(UnitAction.DIRECTION_UP, ut), n, buffer, l);
                 }
                 if (tright == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x + 1, y) == null) {
-                    l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_RIGHT, ut));
+                    n = add(actions.produce(UnitAction.DIRECTION_RIGHT, ut), n, buffer, l);
                 }
                 if (tdown == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x, y + 1) == null) {
-                    l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_DOWN, ut));
+                    n = add(actions.produce(UnitAction.DIRECTION_DOWN, ut), n, buffer, l);
                 }
                 if (tleft == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x - 1, y) == null) {
-                    l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_LEFT, ut));
+                    n = add(actions.produce(UnitAction.DIRECTION_LEFT, ut), n, buffer, l);
                 }
             }
         }
@@ -499,23 +606,32 @@ public class Unit implements Serializable {
             int tleft = (x > 0 ? pgs.getTerrain(x - 1, y) : PhysicalGameState.TERRAIN_WALL);
 
             if (tup == PhysicalGameState.TERRAIN_NONE && uup == null) {
-                l.add(new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_UP));
+                n = add(actions.move(UnitAction.DIRECTION_UP), n, buffer, l);
             }
             if (tright == PhysicalGameState.TERRAIN_NONE && uright == null) {
-                l.add(new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_RIGHT));
+                n = add(actions.move(UnitAction.DIRECTION_RIGHT), n, buffer, l);
             }
             if (tdown == PhysicalGameState.TERRAIN_NONE && udown == null) {
-                l.add(new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_DOWN));
+                n = add(actions.move(UnitAction.DIRECTION_DOWN), n, buffer, l);
             }
             if (tleft == PhysicalGameState.TERRAIN_NONE && uleft == null) {
-                l.add(new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_LEFT));
+                n = add(actions.move(UnitAction.DIRECTION_LEFT), n, buffer, l);
             }
         }
 
         // units can always stay idle:
-        l.add(new UnitAction(UnitAction.TYPE_NONE, noneDuration));
+        n = add(actions.none(noneDuration), n, buffer, l);
 
-        return l;
+        return n;
+    }
+
+    private static int add(UnitAction a, int n, UnitAction buffer[], List<UnitAction> l) {
+        if (l != null) {
+            l.add(a);
+        } else if (n < buffer.length) {
+            buffer[n] = a;
+        }
+        return n + 1;
     }
 
     /**
@@ -601,9 +717,6 @@ public class Unit implements Serializable {
         String hitpointsStr = e.getAttributeValue("hitpoints");
 
         long ID = Long.parseLong(IDStr);
-        if (ID >= next_ID) {
-            next_ID = ID + 1;
-        }
         UnitType type = utt.getUnitType(typeName);
         int player = Integer.parseInt(playerStr);
         int x = Integer.parseInt(xStr);
@@ -8,6 +8,7 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import org.jdom.Element;
+import rts.UnitActionTable;
 import util.XMLWriter;
 
 /**
@@ -62,6 +63,11 @@ public class UnitTypeTable  {
      * Which move conflict resolution is being adopted
      */
     int moveConflictResolutionStrategy = MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH;
+    
+    /**
+     * The canonical unit actions of this table (created when first needed)
+     */
+    volatile UnitActionTable unitActionTable = null;
         
     /**
      * Creates a UnitTypeTable with version {@link #VERSION_ORIGINAL} and
@@ -323,6 +329,22 @@ public class UnitTypeTable  {
         return unitTypes;
     }
     
+    /**
+     * Returns the table of canonical (shared) unit actions for the unit types
+     * of this table
+     * @return
+     */
+    public UnitActionTable getUnitActionTable() {
+        UnitActionTable table = unitActionTable;
+        if (table == null) {
+            synchronized (this) {
+                if (unitActionTable == null) unitActionTable = new UnitActionTable(this);
+                table = unitActionTable;
+            }
+        }
+        return table;
+    }
+    
     /**
      * Returns the integer corresponding to the move conflict resolution strategy in use
      * @return
@@ -0,0 +1,126 @@
+package tests.ai.mcts;
+
+import ai.mcts.ActionCodes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import rts.UnitAction;
+import rts.units.Unit;
+import util.Pair;
+
+/**
+ * Tests of the keys given to player actions by ActionCodes.
+ */
+public class ActionCodesTest {
+
+    /**
+     * Returns the choices of a number of units with a given number of actions
+     * each (the units themselves are not used by ActionCodes).
+     */
+    static List<Pair<Unit, List<UnitAction>>> choices(int nactions[]) {
+        List<Pair<Unit, List<UnitAction>>> choices = new ArrayList<>();
+        for (int n : nactions) {
+            List<UnitAction> actions = new ArrayList<>();
+            for (int i = 0; i < n; i++) actions.add(new UnitAction(UnitAction.TYPE_NONE, i));
+            choices.add(new Pair<>(null, actions));
+        }
+        return choices;
+    }
+
+    /**
+     * Checks that different player actions get different keys, both when the
+     * codes fit in a long (where all the player actions are enumerated) and
+     * when they do not, and that the same player action always gets the same
+     * key and code.
+     * @throws java.lang.Exception
+     */
+    public void testInjective() throws Exception {
+        System.out.println("Injective");
+
+        // long codes:
+        int nactions[] = {3, 1, 4, 2, 5};
+        ActionCodes codes = new ActionCodes(choices(nactions));
+        int total = 1;
+        for (int n : nactions) total *= n;
+        boolean used[] = new boolean[total];
+        int indices[] = new int[nactions.length];
+        for (int i = 0; i < total; i++) {
+            long key = codes.getKey(indices);
+            if (key < 0 || key >= total || used[(int)key]) throw new Exception("testInjective failed for " + Arrays.toString(indices));
+            used[(int)key] = true;
+            if (!codes.getCode(key).equals(key)) throw new Exception("testInjective failed (code) for " + Arrays.toString(indices));
+            // next combination, as a mixed radix counter:
+            for (int j = 0; j < indices.length && ++indices[j] == nactions[j]; j++) indices[j] = 0;
+        }
+
+        // codes that do not fit in a long (40^20 > 2^63):
+        nactions = new int[20];
+        Arrays.fill(nactions, 40);
+        codes = new ActionCodes(choices(nactions));
+        Map<String, Long> keys = new HashMap<>();
+        Map<Long, Object> codesByKey = new HashMap<>();
+        SplittableRandom r = new SplittableRandom(1);
+        for (int i = 0; i < 10000; i++) {
+            indices = new int[nactions.length];
+            // few values per unit, so that the same player actions come up again:
+            for (int j = 0; j < indices.length; j++) indices[j] = (r.nextInt(4) == 0 ? 39 : 0);
+            if (i == 0) Arrays.fill(indices, 39);
+            long key = codes.getKey(indices);
+            Long previous = keys.putIfAbsent(Arrays.toString(indices), key);
+            if (previous != null && previous != key) throw new Exception("testInjective failed (different keys) for " + Arrays.toString(indices));
+            Object code = codesByKey.putIfAbsent(key, codes.getCode(key));
+            if (previous == null && code != null) throw new Exception("testInjective failed (repeated key) for " + Arrays.toString(indices));
+            if (code != null && !code.equals(codes.getCode(key))) throw new Exception("testInjective failed (code) for " + Arrays.toString(indices));
+        }
+        if (keys.size() == 10000) throw new Exception("testInjective failed: no player action was repeated");
+    }
+
+
+    /**
+     * Checks that the keys of the player actions are still consistent when
+     * several threads ask for them at the same time (as the threads of a tree
+     * parallel NaiveMCTS search do) in a node whose codes do not fit in a long.
+     * @throws java.lang.Exception
+     */
+    public void testConcurrentBigCodes() throws Exception {
+        System.out.println("ConcurrentBigCodes");
+
+        int nactions[] = new int[20];
+        Arrays.fill(nactions, 40);
+        ActionCodes codes = new ActionCodes(choices(nactions));
+        int nthreads = 4, n = 20000;
+        // all the threads ask for the same player actions, in the same order:
+        int indices[][] = new int[n][nactions.length];
+        SplittableRandom r = new SplittableRandom(1);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < nactions.length; j++) indices[i][j] = (r.nextInt(4) == 0 ? 39 : 0);
+        }
+        long keys[][] = new long[nthreads][n];
+        Thread threads[] = new Thread[nthreads];
+        for (int t = 0; t < nthreads; t++) {
+            final long threadKeys[] = keys[t];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < n; i++) threadKeys[i] = codes.getKey(indices[i]);
+            });
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        Map<String, Long> keysByAction = new HashMap<>();
+        Map<Long, String> actionsByKey = new HashMap<>();
+        for (int t = 0; t < nthreads; t++) {
+            for (int i = 0; i < n; i++) {
+                String action = Arrays.toString(indices[i]);
+                long key = keys[t][i];
+                Long previous = keysByAction.putIfAbsent(action, key);
+                if (previous != null && previous != key) throw new Exception("testConcurrentBigCodes failed (different keys) for " + action);
+                String other = actionsByKey.putIfAbsent(key, action);
+                if (other != null && !other.equals(action)) throw new Exception("testConcurrentBigCodes failed (repeated key) for " + action);
+                if (!codes.getCode(key).equals(codes.getCode(keysByAction.get(action)))) throw new Exception("testConcurrentBigCodes failed (code) for " + action);
+            }
+        }
+    }
+}
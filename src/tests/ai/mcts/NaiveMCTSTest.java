@@ -0,0 +1,308 @@
+package tests.ai.mcts;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import ai.mcts.MCTSNode;
+import ai.mcts.naivemcts.NaiveMCTS;
+import ai.mcts.naivemcts.NaiveMCTSNode;
+import ai.mcts.naivemcts.UnitActionTableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.SimulationContext;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * Tests of the parallel search, tree reuse and transpositions of NaiveMCTS.
+ */
+public class NaiveMCTSTest {
+
+    static final String MAPS[] = {"maps/8x8/basesWorkers8x8.xml", "maps/16x16/basesWorkers16x16.xml"};
+
+    /**
+     * A check run by play on each search, given the state it started from
+     */
+    interface Check {
+        void check(NaiveMCTS ai, GameState s) throws Exception;
+    }
+
+    /**
+     * Creates a NaiveMCTS limited by iterations rather than time, and seeded
+     * with 1, so that its searches are reproducible.
+     */
+    static NaiveMCTS search(UnitTypeTable utt, int iterations) {
+        NaiveMCTS ai = new NaiveMCTS(utt);
+        ai.setTimeBudget(-1);
+        ai.setIterationsBudget(iterations);
+        ai.setSeed(1);
+        return ai;
+    }
+
+    /**
+     * Plays a game seeded with 1 in a map, with "ai" as player 0 against a
+     * RandomBiasedAI, until it is over or the given cycle is reached. Each
+     * search starts from a clone of the game with the simulation context of the AI,
+     * and the checks (if not null) are run after the search has started and
+     * after it has been computed.
+     * @return the actions played by "ai"
+     */
+    static List<PlayerAction> play(UnitTypeTable utt, String map, NaiveMCTS ai, int cycles, Check started, Check searched) throws Exception {
+        GameState gs = new GameState(PhysicalGameState.load(map, utt), utt, new SimulationContext(1));
+        AI opponent = new RandomBiasedAI();
+        List<PlayerAction> played = new ArrayList<>();
+        boolean gameover = false;
+        while (!gameover && gs.getTime() < cycles) {
+            if (gs.canExecuteAnyAction(0)) {
+                GameState s = gs.clone();
+                s.setContext(ai.getSimulationContext());
+                ai.startNewComputation(0, s);
+                if (started != null) started.check(ai, s);
+                ai.computeDuringOneGameFrame();
+                if (searched != null) searched.check(ai, s);
+                PlayerAction pa = ai.getBestActionSoFar();
+                played.add(pa);
+                gs.issueSafe(pa);
+            }
+            gs.issueSafe(opponent.getAction(1, gs));
+            gameover = gs.cycle();
+        }
+        ai.reset();
+        return played;
+    }
+
+    /**
+     * Whether two actions assign the same actions to the same units, in the
+     * same order
+     */
+    static boolean same(PlayerAction pa1, PlayerAction pa2) {
+        if (pa1.size() != pa2.size()) return false;
+        for (int i = 0; i < pa1.size(); i++) {
+            if (pa1.getUnit(i).getID() != pa2.getUnit(i).getID()) return false;
+            if (!pa1.getUnitAction(i).equals(pa2.getUnitAction(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a root-parallel NaiveMCTS with a single thread picks the
+     * same actions as the serial search, and that a root-parallel search with
+     * several threads is reproducible from the seed of the game.
+     * @throws java.lang.Exception
+     */
+    public void testRootParallel() throws Exception {
+        System.out.println("RootParallel");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        for (String map : MAPS) {
+            for (int threads = 1; threads <= 2; threads++) {
+                NaiveMCTS ai1 = search(utt, 100), ai2 = search(utt, 100);
+                // with one thread, ai1 is the serial search:
+                if (threads > 1) ai1.setThreads(threads);
+                ai2.setThreads(threads);
+                List<PlayerAction> played1 = play(utt, map, ai1, 200, null, null);
+                List<PlayerAction> played2 = play(utt, map, ai2, 200, null, null);
+                if (played1.size() != played2.size()) throw new Exception("testRootParallel failed with " + threads + " threads in " + map + ": " + played1.size() + " vs " + played2.size() + " decisions");
+                for (int i = 0; i < played1.size(); i++) {
+                    if (!same(played1.get(i), played2.get(i))) throw new Exception("testRootParallel failed with " + threads + " threads in " + map + " at decision " + i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that, after a tree-parallel search, the root has been visited
+     * once per iteration of the search, and that in every node the
+     * statistics of the unit action tables add up to the ones of the children
+     * (so that the virtual losses added while selecting have been replaced by
+     * the evaluations).
+     * @throws java.lang.Exception
+     */
+    public void testTreeParallel() throws Exception {
+        System.out.println("TreeParallel");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        for (String map : MAPS) {
+            NaiveMCTS ai = search(utt, 200);
+            ai.setThreads(3);
+            ai.setTreeParallel(true);
+            // the iterations and root visits before each search (the root might be reused):
+            long runs[] = {0, 0};
+            play(utt, map, ai, 200,
+                (a, s) -> {
+                    runs[0] = a.total_runs;
+                    runs[1] = a.getTree().visit_count;
+                },
+                (a, s) -> {
+                    MCTSNode root = a.getTree();
+                    if (root.visit_count - runs[1] != a.total_runs - runs[0]) {
+                        throw new Exception("testTreeParallel failed in " + map + " at " + s.getTime() + ": " + (root.visit_count - runs[1]) + " visits for " + (a.total_runs - runs[0]) + " iterations");
+                    }
+                    checkStatistics(a.getTree(), map, s.getTime());
+                    checkCreationIDs(a.getTree(), new HashSet<>(), map, s.getTime());
+                });
+        }
+    }
+
+    static void checkCreationIDs(MCTSNode node, Set<Integer> ids, String map, int time) throws Exception {
+        if (!ids.add(node.creation_ID)) throw new Exception("testTreeParallel failed in " + map + " at " + time + ": two nodes with creation ID " + node.creation_ID);
+        if (node.children == null) return;
+        for (MCTSNode child : node.children) checkCreationIDs(child, ids, map, time);
+    }
+
+    static void checkStatistics(NaiveMCTSNode node, String map, int time) throws Exception {
+        if (node.children == null) return;
+        int visits = 0;
+        double accum = 0;
+        for (MCTSNode child : node.children) {
+            visits += child.visit_count;
+            accum += child.accum_evaluation;
+            checkStatistics((NaiveMCTSNode)child, map, time);
+        }
+        if (visits > node.visit_count) throw new Exception("testTreeParallel failed in " + map + " at " + time + ": " + visits + " visits in the children of a node with " + node.visit_count);
+        for (UnitActionTableEntry e : node.unitActionTable) {
+            int v = 0;
+            double a = 0;
+            for (int i = 0; i < e.nactions; i++) {
+                v += e.getVisitCount(i);
+                a += e.getAccumEvaluation(i);
+            }
+            if (v != visits || Math.abs(a - accum) > 1e-6 * Math.max(1, Math.abs(accum))) {
+                throw new Exception("testTreeParallel failed in " + map + " at " + time + ": the actions of " + e.u + " have " + v + " visits and " + a + " evaluation, and the children " + visits + " and " + accum);
+            }
+        }
+    }
+
+    /**
+     * Checks that, when the tree of the previous search is reused, the state
+     * of its new root is equal to the state the search starts from, and that the tree
+     * is reused at least once in a game.
+     * @throws java.lang.Exception
+     */
+    public void testReuseTree() throws Exception {
+        System.out.println("ReuseTree");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        for (String map : MAPS) {
+            for (boolean transpositions : new boolean[]{false, true}) {
+                NaiveMCTS ai = search(utt, 200);
+                ai.setReuseTree(true);
+                ai.setTranspositions(transpositions);
+                int reused[] = {0};
+                play(utt, map, ai, 300, (a, s) -> {
+                    MCTSNode root = a.getTree();
+                    if (root.visit_count > 0) {
+                        if (root.gs.getTime() != s.getTime() || root.gs.getHash() != s.getHash() || !root.gs.equals(s)) {
+                            throw new Exception("testReuseTree failed in " + map + " at " + s.getTime());
+                        }
+                        reused[0]++;
+                    }
+                }, null);
+                if (reused[0] == 0) throw new Exception("testReuseTree failed in " + map + ": the tree was never reused");
+            }
+        }
+    }
+
+    /**
+     * Checks that a node is not reused for a state with the same hash whose
+     * units are in a different order (so that their actions would be executed
+     * in a different order), but it is for an equal state.
+     * @throws java.lang.Exception
+     */
+    public void testReuseTreeUnitOrder() throws Exception {
+        System.out.println("ReuseTreeUnitOrder");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt, new SimulationContext(1));
+            NaiveMCTSNode root = new NaiveMCTSNode(0, 1, gs, null, 1, 0, true);
+            // moves the first unit to the end of the list of units:
+            GameState reordered = gs.clone();
+            Unit u = reordered.getUnits().get(0);
+            reordered.getPhysicalGameState().removeUnit(u);
+            reordered.getPhysicalGameState().addUnit(u);
+            reordered.resetHash();
+            if (reordered.getHash() != gs.getHash() || reordered.equals(gs)) throw new Exception("testReuseTreeUnitOrder failed in " + map + ": the states should only differ in the order of their units");
+            if (root.findDescendant(reordered) != null) throw new Exception("testReuseTreeUnitOrder failed in " + map + ": a node was reused for a state with a different unit order");
+            if (root.findDescendant(gs.clone()) != root) throw new Exception("testReuseTreeUnitOrder failed in " + map + ": a node was not reused for an equal state");
+        }
+    }
+
+    /**
+     * Checks that, with transpositions, the nodes of a search (including the
+     * ones of a reused subtree) have different states, so that the states
+     * reached through different actions share one node, and that this
+     * happens at least once in a game.
+     * @throws java.lang.Exception
+     */
+    public void testTranspositions() throws Exception {
+        System.out.println("Transpositions");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        for (String map : MAPS) {
+            NaiveMCTS ai = search(utt, 200);
+            ai.setReuseTree(true);
+            ai.setTranspositions(true);
+            int shared[] = {0};
+            play(utt, map, ai, 300, null, (a, s) -> {
+                Map<Long, MCTSNode> nodes = new HashMap<>();
+                Map<MCTSNode, Integer> parents = new IdentityHashMap<>();
+                collect(a.getTree(), nodes, parents, map, s.getTime());
+                for (int n : parents.values()) {
+                    if (n > 1) shared[0]++;
+                }
+            });
+            if (shared[0] == 0) throw new Exception("testTranspositions failed in " + map + ": no node was shared");
+        }
+    }
+
+    /**
+     * Checks that transpositions and tree parallelization cannot be enabled
+     * together, in either order.
+     * @throws java.lang.Exception
+     */
+    public void testTranspositionsNotTreeParallel() throws Exception {
+        System.out.println("TranspositionsNotTreeParallel");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        for (boolean transpositionsFirst : new boolean[]{false, true}) {
+            NaiveMCTS ai = search(utt, 100);
+            boolean rejected = false;
+            try {
+                if (transpositionsFirst) {
+                    ai.setTranspositions(true);
+                    ai.setTreeParallel(true);
+                } else {
+                    ai.setTreeParallel(true);
+                    ai.setTranspositions(true);
+                }
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            if (!rejected || (ai.getTranspositions() && ai.getTreeParallel())) throw new Exception("testTranspositionsNotTreeParallel failed");
+        }
+    }
+
+    /**
+     * Collects the nodes below a node by the hash of their state, counting
+     * the parents of each
+     */
+    static void collect(MCTSNode node, Map<Long, MCTSNode> nodes, Map<MCTSNode, Integer> parents, String map, int time) throws Exception {
+        if (node.children == null) return;
+        for (MCTSNode child : node.children) {
+            Integer n = parents.get(child);
+            parents.put(child, n == null ? 1 : n + 1);
+            if (n != null) continue;
+            MCTSNode other = nodes.put(child.gs.getHash(), child);
+            if (other != null) throw new Exception("testTranspositions failed in " + map + " at " + time + ": two nodes for the same state");
+            collect(child, nodes, parents, map, time);
+        }
+    }
+}
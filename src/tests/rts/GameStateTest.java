@@ -0,0 +1,625 @@
+package tests.rts;
+
+import ai.RandomAI;
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.jdom.input.SAXBuilder;
+import rts.GameState;
+import rts.GridActionSpace;
+import rts.ObservationPlanes;
+import rts.PartiallyObservableGameState;
+import rts.PhysicalGameState;
+import rts.ResourceUsage;
+import rts.SimulationContext;
+import rts.UnitAction;
+import rts.UnitActionAssignment;
+import rts.UnitActionTable;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+import util.XMLWriter;
+
+/**
+ * Tests of the incremental bookkeeping of class GameState.
+ */
+public class GameStateTest {
+
+    static final String MAPS[] = {"maps/8x8/basesWorkers8x8.xml", "maps/melee14x12Mixed18.xml", "maps/16x16/basesWorkers16x16.xml"};
+
+    /**
+     * Runs 'frames' frames of a game between two AIs.
+     */
+    static void play(GameState gs, AI ai0, AI ai1, int frames) throws Exception {
+        int end = gs.getTime() + frames;
+        boolean gameover = false;
+        while (!gameover && gs.getTime() < end) {
+            if (gs.isComplete()) {
+                gameover = gs.cycle();
+            } else {
+                gs.issue(ai0.getAction(0, gs));
+                gs.issue(ai1.getAction(1, gs));
+            }
+        }
+    }
+
+    /**
+     * Checks that GameState.undo restores the state exactly (including the
+     * unit indexes of the PhysicalGameState), with nested undo points.
+     * @throws java.lang.Exception
+     */
+    public void testUndo() throws Exception {
+        System.out.println("Undo");
+
+        UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL_FINETUNED, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING);
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+            while (!gs.gameover() && gs.getTime() < 1000) {
+                String before = gs.toString();
+                gs.pushUndoPoint();
+                play(gs, ai0, ai1, 20);
+                String middle = gs.toString();
+                gs.pushUndoPoint();
+                play(gs, ai0, ai1, 40);
+                gs.undo();
+                if (!gs.toString().equals(middle)) throw new Exception("testUndo failed (nested undo point) in " + map + " at " + gs.getTime());
+                gs.undo();
+                if (!gs.toString().equals(before)) throw new Exception("testUndo failed in " + map + ":\n" + before + "\n" + gs);
+                PhysicalGameState pgs = gs.getPhysicalGameState();
+                for (Unit u : pgs.getUnits()) {
+                    if (pgs.getUnitAt(u.getX(), u.getY()) != u || pgs.getUnit(u.getID()) != u) {
+                        throw new Exception("testUndo failed (unit index) in " + map + " for " + u);
+                    }
+                }
+                play(gs, ai0, ai1, 10);
+            }
+        }
+    }
+
+    /**
+     * Checks that the hash maintained incrementally by GameState matches the 
+     * hash computed from scratch, and that it is consistent with equals (which
+     * does not rely on it).
+     * @throws java.lang.Exception
+     */
+    public void testHash() throws Exception {
+        System.out.println("Hash");
+
+        UnitTypeTable utts[] = {new UnitTypeTable(),
+            new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL_FINETUNED, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM),
+            new UnitTypeTable(UnitTypeTable.VERSION_NON_DETERMINISTIC, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING)};
+        for (UnitTypeTable utt : utts) {
+            for (String map : MAPS) {
+                GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+                AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+                long previous = gs.getHash();
+                while (!gs.gameover() && gs.getTime() < 1000) {
+                    if (gs.getTime() % 50 == 0) {
+                        gs.pushUndoPoint();
+                        play(gs, ai0, ai1, 20);
+                        gs.undo();
+                        if (gs.getHash() != previous) throw new Exception("testHash failed (undo) in " + map + " at " + gs.getTime());
+                    }
+                    play(gs, ai0, ai1, 1);
+                    GameState gs2 = gs.clone();
+                    if (gs.getHash() != gs2.getHash()) throw new Exception("testHash failed in " + map + " at " + gs.getTime() + ":\n" + gs);
+                    if (!gs.equals(gs2) || gs.hashCode() != gs2.hashCode()) throw new Exception("testHash failed (equals) in " + map + " at " + gs.getTime());
+                    previous = gs.getHash();
+                }
+
+                // a unit modified directly leaves the hash out of date, which must not make equal states unequal:
+                GameState gs2 = gs.clone();
+                gs2.getHash();
+                Unit u = gs.getUnits().get(0), u2 = gs2.getUnits().get(0);
+                u.setHitPoints(u.getHitPoints() + 1);
+                u2.setHitPoints(u2.getHitPoints() + 1);
+                gs2.resetHash();
+                gs2.getHash();
+                if (!gs.equals(gs2) || !gs2.equals(gs)) throw new Exception("testHash failed (equals after a direct edit) in " + map);
+            }
+        }
+    }
+
+    /**
+     * Checks that GameState.cycleUntil reaches the same state as calling cycle
+     * repeatedly, also after undoing changes.
+     * @throws java.lang.Exception
+     */
+    public void testCycleUntil() throws Exception {
+        System.out.println("CycleUntil");
+
+        UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL_FINETUNED, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING);
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+            boolean gameover = false;
+            while (!gameover && gs.getTime() < 1000) {
+                if (gs.isComplete()) {
+                    GameState gs2 = gs.clone();
+                    if (gs.getTime() % 3 == 0) {
+                        // exercise the queue after an undo:
+                        gs.pushUndoPoint();
+                        gs.advanceToNextEvent();
+                        gs.undo();
+                    }
+                    gameover = gs.cycleUntil(gs.getTime() + 5);
+                    boolean gameover2 = false;
+                    do {
+                        gameover2 = gs2.cycle();
+                    } while (gs2.getTime() < gs.getTime());
+                    if (gameover != gameover2 || !gs.equals(gs2)) {
+                        throw new Exception("testCycleUntil failed in " + map + ":\n" + gs + "\n" + gs2);
+                    }
+                } else {
+                    gs.issue(ai0.getAction(0, gs));
+                    gs.issue(ai1.getAction(1, gs));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks GameState.free and GameState.getAllFree (which use a reservation 
+     * grid once there are enough action assignments) against the definition.
+     * @throws java.lang.Exception
+     */
+    public void testFree() throws Exception {
+        System.out.println("Free");
+
+        UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL_FINETUNED, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM);
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            PhysicalGameState pgs = gs.getPhysicalGameState();
+            AI ai0 = new RandomAI(utt), ai1 = new RandomAI(utt);
+            while (!gs.gameover() && gs.getTime() < 500) {
+                play(gs, ai0, ai1, 1);
+                boolean free[][] = gs.getAllFree();
+                for (int x = 0; x < pgs.getWidth(); x++) {
+                    for (int y = 0; y < pgs.getHeight(); y++) {
+                        boolean expected = pgs.getTerrain(x, y) == PhysicalGameState.TERRAIN_NONE;
+                        for (Unit u : pgs.getUnits()) {
+                            if (u.getX() == x && u.getY() == y) expected = false;
+                            UnitActionAssignment uaa = gs.getActionAssignment(u);
+                            if (uaa != null && (uaa.action.getType() == UnitAction.TYPE_MOVE || uaa.action.getType() == UnitAction.TYPE_PRODUCE) &&
+                                u.getX() + UnitAction.DIRECTION_OFFSET_X[uaa.action.getDirection()] == x &&
+                                u.getY() + UnitAction.DIRECTION_OFFSET_Y[uaa.action.getDirection()] == y) expected = false;
+                        }
+                        if (gs.free(x, y) != expected || free[x][y] != expected) {
+                            throw new Exception("testFree failed in " + map + " at " + gs.getTime() + " for (" + x + "," + y + ")");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that canExecuteAnyAction, isComplete, winner and gameover (which 
+     * use unit counts maintained incrementally) agree with their definition, also 
+     * after undoing changes.
+     * @throws java.lang.Exception
+     */
+    public void testUnitCounts() throws Exception {
+        System.out.println("UnitCounts");
+
+        UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL_FINETUNED, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING);
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+            while (!gs.gameover() && gs.getTime() < 1500) {
+                if (gs.getTime() % 20 == 0) {
+                    gs.pushUndoPoint();
+                    play(gs, ai0, ai1, 30);
+                    gs.undo();
+                }
+                play(gs, ai0, ai1, 1);
+                int counts[] = new int[2];
+                boolean idle[] = new boolean[2];
+                for (Unit u : gs.getUnits()) {
+                    if (u.getPlayer() >= 0) {
+                        counts[u.getPlayer()]++;
+                        if (gs.getActionAssignment(u) == null) idle[u.getPlayer()] = true;
+                    }
+                }
+                int winner = (counts[0] > 0 && counts[1] == 0 ? 0 : (counts[1] > 0 && counts[0] == 0 ? 1 : -1));
+                if (gs.canExecuteAnyAction(0) != idle[0] || gs.canExecuteAnyAction(1) != idle[1] ||
+                    gs.winner() != winner || gs.gameover() != (counts[0] == 0 || counts[1] == 0) ||
+                    gs.isComplete() != (!idle[0] && !idle[1])) {
+                    throw new Exception("testUnitCounts failed in " + map + " at " + gs.getTime());
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the information GameState derives from the assignments of
+     * the units is not out of date after the assignments are modified directly
+     * through getUnitActions, comparing it with the one of a clone.
+     * @throws java.lang.Exception
+     */
+    public void testDirectAssignmentEdits() throws Exception {
+        System.out.println("DirectAssignmentEdits");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+            int edits = 0;
+            while (!gs.gameover() && gs.getTime() < 500) {
+                play(gs, ai0, ai1, 1);
+                if (gs.getTime() % 10 != 0 || gs.getUnitActions().isEmpty()) continue;
+                checkDerived(gs, map);
+                // removes an assignment, and makes another unit wait for one cycle instead:
+                Unit u = gs.getUnitActions().keySet().iterator().next();
+                gs.getUnitActions().remove(u);
+                checkDerived(gs, map);
+                for (Unit u2 : gs.getUnits()) {
+                    if (u2.getPlayer() >= 0 && gs.getActionAssignment(u2) == null && u2 != u) {
+                        gs.getUnitActions().put(u2, new UnitActionAssignment(u2, new UnitAction(UnitAction.TYPE_NONE, 1), gs.getTime()));
+                        break;
+                    }
+                }
+                GameState gs2 = gs.clone();
+                gs.cycle();
+                gs2.cycle();
+                if (!gs.equals(gs2)) throw new Exception("testDirectAssignmentEdits failed in " + map + " at " + gs.getTime() + ": cycle");
+                checkDerived(gs, map);
+                edits++;
+            }
+            if (edits == 0) throw new Exception("testDirectAssignmentEdits failed in " + map + ": no assignment was edited");
+        }
+    }
+
+    static void checkDerived(GameState gs, String map) throws Exception {
+        GameState gs2 = gs.clone();
+        for (int p = 0; p < 2; p++) {
+            if (gs.canExecuteAnyAction(p) != gs2.canExecuteAnyAction(p)) throw new Exception("testDirectAssignmentEdits failed in " + map + " at " + gs.getTime() + ": canExecuteAnyAction(" + p + ")");
+        }
+        if (gs.getHash() != gs2.getHash() || !gs.equals(gs2) || !gs2.equals(gs)) throw new Exception("testDirectAssignmentEdits failed in " + map + " at " + gs.getTime() + ": hash");
+        if (gs.isComplete() != gs2.isComplete()) throw new Exception("testDirectAssignmentEdits failed in " + map + " at " + gs.getTime() + ": isComplete");
+        if (gs.getNextCompletionTime() != gs2.getNextCompletionTime()) throw new Exception("testDirectAssignmentEdits failed in " + map + " at " + gs.getTime() + ": getNextCompletionTime");
+        boolean free[][] = gs.getAllFree(), free2[][] = gs2.getAllFree();
+        for (int y = 0; y < gs.getPhysicalGameState().getHeight(); y++) {
+            for (int x = 0; x < gs.getPhysicalGameState().getWidth(); x++) {
+                if (gs.free(x, y) != gs2.free(x, y) || free[x][y] != free2[x][y]) throw new Exception("testDirectAssignmentEdits failed in " + map + " at " + gs.getTime() + ": free(" + x + "," + y + ")");
+            }
+        }
+    }
+
+    /**
+     * Checks that games played from the same state with equally seeded 
+     * simulation contexts are identical (with random AIs, non-deterministic 
+     * damage and random conflict resolution).
+     * @throws java.lang.Exception
+     */
+    public void testContext() throws Exception {
+        System.out.println("Context");
+
+        UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_NON_DETERMINISTIC, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM);
+        for (String map : MAPS) {
+            PhysicalGameState pgs = PhysicalGameState.load(map, utt);
+            GameState gs1 = new GameState(pgs.clone(), utt, new SimulationContext(map.length()));
+            GameState gs2 = new GameState(pgs.clone(), utt, new SimulationContext(map.length()));
+            AI ai0 = new RandomAI(utt), ai1 = new RandomBiasedAI();
+            while (!gs1.gameover() && gs1.getTime() < 1000) {
+                play(gs1, ai0, ai1, 1);
+                play(gs2, ai0, ai1, 1);
+                if (!gs1.equals(gs2)) throw new Exception("testContext failed in " + map + " at " + gs1.getTime());
+            }
+        }
+    }
+
+    /**
+     * Checks that the IDs of the units produced in a game only depend on the
+     * game (and not on other games played at the same time), and that undo 
+     * reverts them.
+     * @throws java.lang.Exception
+     */
+    public void testUnitIDs() throws Exception {
+        System.out.println("UnitIDs");
+
+        UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL_FINETUNED, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING);
+        for (String map : MAPS) {
+            PhysicalGameState pgs = PhysicalGameState.load(map, utt);
+            GameState gs1 = new GameState(pgs.clone(), utt, new SimulationContext(1));
+            GameState gs2 = new GameState(pgs.clone(), utt, new SimulationContext(1));
+            GameState other = new GameState(pgs.clone(), utt, new SimulationContext(2));
+            AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+            while (!gs1.gameover() && gs1.getTime() < 1000) {
+                long globalID = Unit.next_ID;
+                play(gs1, ai0, ai1, 1);
+                // units produced in another game must not affect the IDs of this one:
+                play(other, ai0, ai1, 1);
+                play(gs2, ai0, ai1, 1);
+                if (Unit.next_ID != globalID) throw new Exception("testUnitIDs failed (global counter) in " + map + " at " + gs1.getTime());
+                if (gs1.getUnits().size() != gs2.getUnits().size()) throw new Exception("testUnitIDs failed in " + map + " at " + gs1.getTime());
+                for (int i = 0; i < gs1.getUnits().size(); i++) {
+                    if (gs1.getUnits().get(i).getID() != gs2.getUnits().get(i).getID()) throw new Exception("testUnitIDs failed in " + map + " at " + gs1.getTime());
+                }
+                gs2.pushUndoPoint();
+                long id = gs2.getPhysicalGameState().createUnitID();
+                gs2.undo();
+                if (gs2.getPhysicalGameState().createUnitID() != id) throw new Exception("testUnitIDs failed (undo) in " + map + " at " + gs2.getTime());
+                gs1.getPhysicalGameState().createUnitID();    // to keep both games in sync
+                for (Unit u : gs2.getUnits()) {
+                    if (u.getID() >= id) throw new Exception("testUnitIDs failed (repeated ID) in " + map + " for " + u);
+                }
+                if (gs2.getTime() % 100 == 0) {
+                    // the XML/JSON formats do not include the ID counter, and a loaded state
+                    // derives it from its units, so that it does not repeat their IDs:
+                    StringWriter xml = new StringWriter(), json = new StringWriter();
+                    gs2.toxml(new XMLWriter(xml));
+                    gs2.toJSON(json);
+                    if (xml.toString().contains("nextUnitID") || json.toString().contains("nextUnitID")) {
+                        throw new Exception("testUnitIDs failed (format) in " + map + " at " + gs2.getTime());
+                    }
+                    GameState fromXML = GameState.fromXML(new SAXBuilder().build(new StringReader(xml.toString())).getRootElement(), utt);
+                    GameState fromJSON = GameState.fromJSON(json.toString(), utt);
+                    long max = -1;
+                    for (Unit u : gs2.getUnits()) max = Math.max(max, u.getID());
+                    if (fromXML.getPhysicalGameState().createUnitID() != max + 1 || fromJSON.getPhysicalGameState().createUnitID() != max + 1) {
+                        throw new Exception("testUnitIDs failed (snapshot) in " + map + " at " + gs2.getTime());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the visibility maintained incrementally by PhysicalGameState
+     * against the definition (distance to a unit of the player not larger than
+     * its sight radius), and the units kept by PartiallyObservableGameState.
+     * @throws java.lang.Exception
+     */
+    public void testObservable() throws Exception {
+        System.out.println("Observable");
+
+        UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL_FINETUNED, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING);
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            PhysicalGameState pgs = gs.getPhysicalGameState();
+            AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+            while (!gs.gameover() && gs.getTime() < 1000) {
+                if (gs.getTime() % 20 == 0) {
+                    gs.pushUndoPoint();
+                    play(gs, ai0, ai1, 30);
+                    gs.undo();
+                }
+                play(gs, ai0, ai1, 1);
+                for (int player = 0; player < 2; player++) {
+                    PartiallyObservableGameState pogs = new PartiallyObservableGameState(gs, player);
+                    for (int x = 0; x < pgs.getWidth(); x++) {
+                        for (int y = 0; y < pgs.getHeight(); y++) {
+                            boolean expected = false;
+                            for (Unit u : pgs.getUnits()) {
+                                if (u.getPlayer() == player && 
+                                    Math.sqrt((u.getX() - x) * (u.getX() - x) + (u.getY() - y) * (u.getY() - y)) <= u.getType().sightRadius) expected = true;
+                            }
+                            if (pgs.observable(player, x, y) != expected || pogs.observable(x, y) != expected) {
+                                throw new Exception("testObservable failed in " + map + " at " + gs.getTime() + " for (" + x + "," + y + ")");
+                            }
+                            Unit u = pgs.getUnitAt(x, y);
+                            if (u != null && (pogs.getPhysicalGameState().getUnitAt(x, y) == u) != (expected || u.getPlayer() == player)) {
+                                throw new Exception("testObservable failed (units) in " + map + " at " + gs.getTime() + " for " + u);
+                            }
+                        }
+                    }
+                    // the units of the partially observable state are the ones of the game, 
+                    // so its visibility changes when they move:
+                    if (gs.getTime() % 10 == 0) {
+                        gs.pushUndoPoint();
+                        play(gs, ai0, ai1, 10);
+                        checkObservable(pogs, player, map);
+                        gs.undo();
+                        checkObservable(pogs, player, map);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the visibility of a partially observable state against the sight
+     * radius of its units
+     */
+    static void checkObservable(PartiallyObservableGameState pogs, int player, String map) throws Exception {
+        PhysicalGameState pgs = pogs.getPhysicalGameState();
+        for (int x = 0; x < pgs.getWidth(); x++) {
+            for (int y = 0; y < pgs.getHeight(); y++) {
+                boolean expected = false;
+                for (Unit u : pgs.getUnits()) {
+                    if (u.getPlayer() == player && 
+                        Math.sqrt((u.getX() - x) * (u.getX() - x) + (u.getY() - y) * (u.getY() - y)) <= u.getType().sightRadius) expected = true;
+                }
+                if (pogs.observable(x, y) != expected) {
+                    throw new Exception("testObservable failed (moved units) in " + map + " at " + pogs.getTime() + " for (" + x + "," + y + ")");
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that binary snapshots reconstruct the same state, with and
+     * without the terrain.
+     * @throws java.lang.Exception
+     */
+    public void testBytes() throws Exception {
+        System.out.println("Bytes");
+
+        UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL_FINETUNED, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING);
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+            while (!gs.gameover() && gs.getTime() < 1000) {
+                play(gs, ai0, ai1, 7);
+                GameState gs2 = GameState.fromBytes(gs.toBytes(), utt);
+                GameState gs3 = GameState.fromBytes(gs.toBytes(false), utt, gs.getPhysicalGameState());
+                for (GameState restored : new GameState[]{gs2, gs3}) {
+                    if (!gs.equals(restored) || !gs.toString().equals(restored.toString()) || gs.getHash() != restored.getHash()) {
+                        throw new Exception("testBytes failed in " + map + " at " + gs.getTime() + ":\n" + gs + "\n" + restored);
+                    }
+                }
+                if (!Arrays.equals(gs.toBytes(), gs2.toBytes())) throw new Exception("testBytes failed (round trip) in " + map + " at " + gs.getTime());
+            }
+        }
+    }
+
+    /**
+     * Checks that the observation planes written for a player match the ones
+     * of the corresponding PartiallyObservableGameState, and that the int and
+     * ByteBuffer versions agree.
+     * @throws java.lang.Exception
+     */
+    public void testObservationPlanes() throws Exception {
+        System.out.println("ObservationPlanes");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            int size = ObservationPlanes.size(gs.getPhysicalGameState());
+            int planes[] = new int[size + 3], expected[] = new int[size + 3];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size + 3);
+            AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+            while (!gs.gameover() && gs.getTime() < 1000) {
+                play(gs, ai0, ai1, 5);
+                for (int player = -1; player < 2; player++) {
+                    ObservationPlanes.write(gs, player, planes, 3);
+                    ObservationPlanes.write(player < 0 ? gs : new PartiallyObservableGameState(gs, player), expected, 3);
+                    buffer.position(3);
+                    ObservationPlanes.write(gs, player, buffer);
+                    if (!Arrays.equals(planes, expected) || buffer.position() != size + 3) {
+                        throw new Exception("testObservationPlanes failed in " + map + " at " + gs.getTime() + " for player " + player);
+                    }
+                    for (int i = 3; i < size + 3; i++) {
+                        if (buffer.get(i) != planes[i]) throw new Exception("testObservationPlanes failed (ByteBuffer) in " + map + " at " + gs.getTime());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the action masks against Unit.canExecuteAction, for all the
+     * values of each component of the actions.
+     * @throws java.lang.Exception
+     */
+    public void testActionMasks() throws Exception {
+        System.out.println("ActionMasks");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        GridActionSpace space = new GridActionSpace(utt);
+        UnitActionTable table = utt.getUnitActionTable();
+        int size = space.getMaskSize();
+        for (String map : MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            PhysicalGameState pgs = gs.getPhysicalGameState();
+            boolean masks[] = new boolean[pgs.getWidth() * pgs.getHeight() * size];
+            AI ai0 = new RandomBiasedAI(), ai1 = new RandomBiasedAI();
+            while (!gs.gameover() && gs.getTime() < 1000) {
+                if (gs.isComplete()) {
+                    gs.cycle();
+                    continue;
+                }
+                for (int player = 0; player < 2; player++) {
+                    gs.getActionMasks(player, space, masks, 0);
+                    boolean expected[] = new boolean[masks.length];
+                    for (Unit u : pgs.getUnits()) {
+                        if (u.getPlayer() != player || gs.getActionAssignment(u) != null) continue;
+                        int offset = (u.getX() + u.getY() * pgs.getWidth()) * size;
+                        expected[offset + UnitAction.TYPE_NONE] = true;
+                        for (int d = 0; d < 4; d++) {
+                            set(expected, offset, space, GridActionSpace.MOVE_DIRECTION, d, u.canExecuteAction(table.move(d), gs));
+                            set(expected, offset, space, GridActionSpace.HARVEST_DIRECTION, d, u.canExecuteAction(table.harvest(d), gs));
+                            set(expected, offset, space, GridActionSpace.RETURN_DIRECTION, d, u.canExecuteAction(table.ret(d), gs));
+                            for (UnitType ut : utt.getUnitTypes()) {
+                                boolean legal = u.canExecuteAction(table.produce(d, ut), gs);
+                                set(expected, offset, space, GridActionSpace.PRODUCE_DIRECTION, d, legal);
+                                set(expected, offset, space, GridActionSpace.PRODUCE_TYPE, ut.ID, legal);
+                            }
+                        }
+                        int r = space.getAttackRange();
+                        for (int dy = -r; dy <= r; dy++) {
+                            for (int dx = -r; dx <= r; dx++) {
+                                boolean legal = u.canExecuteAction(table.attack(u.getX() + dx, u.getY() + dy, pgs), gs);
+                                set(expected, offset, space, GridActionSpace.ATTACK_TARGET, (dx + r) + (dy + r) * (2 * r + 1), legal);
+                            }
+                        }
+                    }
+                    if (!Arrays.equals(masks, expected)) throw new Exception("testActionMasks failed in " + map + " at " + gs.getTime() + " for player " + player);
+                }
+                gs.issue(ai0.getAction(0, gs));
+                gs.issue(ai1.getAction(1, gs));
+            }
+        }
+    }
+
+    /**
+     * Plays games on maps of different sizes in turns with a single
+     * UnitTypeTable, checking that the shared attack actions do not depend on
+     * the map size, and that the resource usages cached for the shared actions
+     * match those of unshared copies.
+     * @throws java.lang.Exception
+     */
+    public void testSharedActionsAcrossMaps() throws Exception {
+        System.out.println("SharedActionsAcrossMaps");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        UnitActionTable table = utt.getUnitActionTable();
+        GameState games[] = new GameState[MAPS.length];
+        AI ais[] = new AI[MAPS.length];
+        for (int i = 0; i < MAPS.length; i++) {
+            games[i] = new GameState(PhysicalGameState.load(MAPS[i], utt), utt);
+            ais[i] = new RandomBiasedAI();
+        }
+        UnitAction attack = table.attack(1, 1, games[0].getPhysicalGameState());
+        for (int step = 0; step < 500; step++) {
+            for (int i = 0; i < MAPS.length; i++) {
+                GameState gs = games[i];
+                PhysicalGameState pgs = gs.getPhysicalGameState();
+                if (table.attack(1, 1, pgs) != attack) throw new Exception("testSharedActionsAcrossMaps failed: attack action not shared in " + MAPS[i]);
+                if (gs.gameover()) continue;
+                if (gs.isComplete()) {
+                    gs.cycle();
+                    continue;
+                }
+                for (Unit u : pgs.getUnits()) {
+                    if (u.getPlayer() < 0) continue;
+                    for (UnitAction a : u.getUnitActions(gs)) {
+                        String expected = new UnitAction(a).resourceUsage(u, pgs).toString();
+                        if (!a.resourceUsage(u, pgs).toString().equals(expected)) {
+                            throw new Exception("testSharedActionsAcrossMaps failed in " + MAPS[i] + " at " + gs.getTime() + " for " + a);
+                        }
+                        // the usages cached in the table are shared, so they cannot be modified:
+                        ResourceUsage ru = a.resourceUsage(u, pgs);
+                        if (a.getType() == UnitAction.TYPE_MOVE && !ru.isReadOnly()) {
+                            throw new Exception("testSharedActionsAcrossMaps failed in " + MAPS[i] + ": modifiable usage of " + a);
+                        }
+                        if (ru.isReadOnly()) {
+                            try {
+                                ru.addPosition(0);
+                                throw new Exception("testSharedActionsAcrossMaps failed in " + MAPS[i] + ": the usage of " + a + " was modified");
+                            } catch (UnsupportedOperationException e) {
+                            }
+                            if (ru.clone().isReadOnly()) throw new Exception("testSharedActionsAcrossMaps failed in " + MAPS[i] + ": read-only copy of the usage of " + a);
+                        }
+                    }
+                }
+                gs.issue(ais[i].getAction(0, gs));
+                gs.issue(ais[i].getAction(1, gs));
+            }
+        }
+    }
+
+    static void set(boolean mask[], int offset, GridActionSpace space, int component, int value, boolean legal) {
+        if (!legal) return;
+        mask[offset + space.getComponentOffset(component) + value] = true;
+        // the entry of the action type (the types are numbered like the components that follow TYPE):
+        int type = (component == GridActionSpace.PRODUCE_TYPE ? UnitAction.TYPE_PRODUCE :
+                    component == GridActionSpace.ATTACK_TARGET ? UnitAction.TYPE_ATTACK_LOCATION : component);
+        mask[offset + type] = true;
+    }
+}
@@ -37,5 +37,129 @@ public class PhysicalGameStateTest {
         }
     }
     
+    /**
+     * Test of the spatial unit index of class PhysicalGameState: getUnitAt
+     * must agree with a linear scan over the units after moves, removals and
+     * cloning.
+     * @throws java.lang.Exception
+     */
+    public void testUnitGridIndex() throws Exception {
+        System.out.println("UnitGridIndex");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        PhysicalGameState pgs = PhysicalGameState.load("maps/16x16/basesWorkers16x16.xml", utt);
+        Unit worker = null;
+        for (Unit u : pgs.getUnits()) {
+            if (u.getType().canMove) worker = u;
+        }
+        pgs.moveUnit(worker, worker.getX(), worker.getY() + 1);
+        Unit removed = pgs.getUnits().get(0);
+        pgs.removeUnit(removed);
+        removed.setX(worker.getX() + 1);    // units that are not in the map anymore are not indexed
+
+        // changes made without going through the map, seen by a clone sharing the units:
+        PhysicalGameState view = pgs.cloneKeepingUnits();
+        int x0 = -1, y0 = -1;
+        for (int y = 0; y < pgs.getHeight(); y++) {
+            for (int x = 0; x < pgs.getWidth(); x++) {
+                if (pgs.getUnitAt(x, y) == null && (x != worker.getX() || y != worker.getY())) {
+                    x0 = x;
+                    y0 = y;
+                }
+            }
+        }
+        int x1 = worker.getX(), y1 = worker.getY();
+        worker.setX(x0);
+        worker.setY(y0);
+        Unit last = pgs.getUnits().remove(pgs.getUnits().size() - 1);
+        pgs.getUnits().add(new Unit(last.getPlayer(), last.getType(), x1, y1, 0));
+
+        for (PhysicalGameState p : new PhysicalGameState[]{pgs, view, pgs.clone(), pgs.cloneKeepingUnits()}) {
+            for (int y = 0; y < p.getHeight(); y++) {
+                for (int x = 0; x < p.getWidth(); x++) {
+                    Unit expected = null;
+                    for (Unit u : p.getUnits()) {
+                        if (u.getX() == x && u.getY() == y) expected = u;
+                    }
+                    if (p.getUnitAt(x, y) != expected) throw new Exception("testUnitGridIndex test failed at " + x + "," + y + "!");
+                }
+            }
+            if (p.getUnitsAround(worker.getX(), worker.getY(), 1).size() != 
+                p.getUnitsInRectangle(worker.getX() - 1, worker.getY() - 1, 3, 3).size()) {
+                throw new Exception("testUnitGridIndex test failed (area queries)!");
+            }
+        }
+    }
+    
+    /**
+     * Test of the spatial unit index of class PhysicalGameState when the units
+     * are shared with clones made with cloneKeepingUnits: a move through any
+     * of the maps, or made directly, must be seen by all of them.
+     * @throws java.lang.Exception
+     */
+    public void testUnitGridIndexSharedUnits() throws Exception {
+        System.out.println("UnitGridIndexSharedUnits");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        PhysicalGameState pgs = PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", utt);
+        Unit worker = null;
+        for (Unit u : pgs.getUnits()) {
+            if (u.getType().canMove) worker = u;
+        }
+        PhysicalGameState view = pgs.cloneKeepingUnits();
+        PhysicalGameState viewOfView = view.cloneKeepingUnits();
+        PhysicalGameState maps[] = {pgs, view, viewOfView};
+
+        for (int step = 0; step <= maps.length; step++) {
+            int x0 = -1, y0 = -1;
+            for (int y = 0; y < pgs.getHeight() && x0 == -1; y++) {
+                for (int x = 0; x < pgs.getWidth() && x0 == -1; x++) {
+                    if (pgs.getUnitAt(x, y) == null) {
+                        x0 = x;
+                        y0 = y;
+                    }
+                }
+            }
+            if (step < maps.length) {
+                maps[step].moveUnit(worker, x0, y0);
+            } else {
+                worker.setX(x0);
+                worker.setY(y0);
+            }
+            for (PhysicalGameState p : maps) {
+                for (int y = 0; y < p.getHeight(); y++) {
+                    for (int x = 0; x < p.getWidth(); x++) {
+                        Unit expected = null;
+                        for (Unit u : p.getUnits()) {
+                            if (u.getX() == x && u.getY() == y) expected = u;
+                        }
+                        if (p.getUnitAt(x, y) != expected) throw new Exception("testUnitGridIndexSharedUnits test failed at " + x + "," + y + "!");
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test of the ID index of class PhysicalGameState, through cloning and
+     * removals.
+     * @throws java.lang.Exception
+     */
+    public void testUnitIDIndex() throws Exception {
+        System.out.println("UnitIDIndex");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        PhysicalGameState pgs = PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", utt);
+        Unit removed = pgs.getUnits().get(0);
+        pgs.removeUnit(removed);
+        if (pgs.getUnit(removed.getID()) != null) throw new Exception("testUnitIDIndex test failed (removed unit found)!");
+
+        for (PhysicalGameState p : new PhysicalGameState[]{pgs, pgs.clone(), pgs.cloneKeepingUnits(), pgs.cloneIncludingTerrain()}) {
+            for (Unit u : p.getUnits()) {
+                if (p.getUnit(u.getID()) != u) throw new Exception("testUnitIDIndex test failed for unit " + u + "!");
+            }
+        }
+    }
+    
 }
  
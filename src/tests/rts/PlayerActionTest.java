@@ -0,0 +1,104 @@
+package tests.rts;
+
+import java.util.ArrayList;
+import java.util.List;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * Tests of class PlayerAction.
+ */
+public class PlayerActionTest {
+
+    /**
+     * Checks that sameActions only accepts actions that assign the same unit
+     * actions to the same units (in any order), while equals also accepts an
+     * action that has fewer units.
+     * @throws java.lang.Exception
+     */
+    public void testSameActions() throws Exception {
+        System.out.println("SameActions");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        GameState gs = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", utt), utt);
+        List<Unit> units = new ArrayList<>();
+        for (Unit u : gs.getPhysicalGameState().getUnits()) {
+            if (u.getPlayer() == 0) units.add(u);
+        }
+        if (units.size() < 2) throw new Exception("testSameActions failed: the map needs two units of player 0");
+        Unit u1 = units.get(0), u2 = units.get(1);
+        UnitAction none = new UnitAction(UnitAction.TYPE_NONE, 1);
+        UnitAction wait = new UnitAction(UnitAction.TYPE_NONE, 10);
+
+        PlayerAction both = new PlayerAction();
+        both.addUnitAction(u1, none);
+        both.addUnitAction(u2, none);
+        PlayerAction reversed = new PlayerAction();
+        reversed.addUnitAction(u2, none);
+        reversed.addUnitAction(u1, none);
+        PlayerAction one = new PlayerAction();
+        one.addUnitAction(u1, none);
+        PlayerAction other = new PlayerAction();
+        other.addUnitAction(u1, none);
+        other.addUnitAction(u2, wait);
+        // the units of a clone of the state are different objects with the same IDs:
+        GameState gs2 = gs.clone();
+        PlayerAction cloned = new PlayerAction();
+        cloned.addUnitAction(gs2.getUnit(u1.getID()), none);
+        cloned.addUnitAction(gs2.getUnit(u2.getID()), none);
+
+        if (!both.sameActions(both) || !both.sameActions(reversed) || !both.sameActions(cloned)) throw new Exception("testSameActions failed: equal actions are not the same");
+        if (!both.equals(one) || !one.equals(both)) throw new Exception("testSameActions failed: equals is expected to ignore the units of only one action");
+        if (both.sameActions(one) || one.sameActions(both)) throw new Exception("testSameActions failed: actions with different units are the same");
+        if (both.sameActions(other) || other.sameActions(both)) throw new Exception("testSameActions failed: actions with different unit actions are the same");
+        if (both.sameActions(null)) throw new Exception("testSameActions failed: an action is the same as null");
+
+        // with more actions, units are looked up in the index of the action:
+        UnitType worker = utt.getUnitType("Worker");
+        PlayerAction many = new PlayerAction(), copies = new PlayerAction(), fewer = new PlayerAction();
+        List<Unit> workers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) workers.add(new Unit(100 + i, 0, worker, i % 8, i / 8, 0));
+        for (int i = 0; i < 20; i++) {
+            many.addUnitAction(workers.get(i), i % 2 == 0 ? none : wait);
+            Unit copy = new Unit(workers.get(19 - i));
+            copies.addUnitAction(copy, (19 - i) % 2 == 0 ? none : wait);
+            if (i > 0) fewer.addUnitAction(copy, (19 - i) % 2 == 0 ? none : wait);
+        }
+        if (!many.sameActions(copies) || !copies.sameActions(many)) throw new Exception("testSameActions failed: equal indexed actions are not the same");
+        if (many.sameActions(fewer) || fewer.sameActions(many)) throw new Exception("testSameActions failed: indexed actions with different units are the same");
+    }
+
+    /**
+     * Checks that, when issueSafe replaces the units of an action by the units
+     * of the state in the same positions (which might have different IDs), the
+     * action can still be looked up by the new units once it is indexed.
+     * @throws java.lang.Exception
+     */
+    public void testIssueSafeReplacesUnits() throws Exception {
+        System.out.println("IssueSafeReplacesUnits");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        UnitType worker = utt.getUnitType("Worker");
+        PhysicalGameState pgs = new PhysicalGameState(8, 8);
+        pgs.addPlayer(new Player(0, 5));
+        pgs.addPlayer(new Player(1, 5));
+        for (int i = 0; i < 20; i++) pgs.addUnit(new Unit(100 + i, 0, worker, i % 8, i / 8, 0));
+        GameState gs = new GameState(pgs, utt);
+        UnitAction none = new UnitAction(UnitAction.TYPE_NONE, 10);
+
+        // the action is for units in the same positions, but with other IDs:
+        PlayerAction pa = new PlayerAction();
+        for (int i = 0; i < 20; i++) pa.addUnitAction(new Unit(200 + i, 0, worker, i % 8, i / 8, 0), none);
+        if (pa.getAction(pa.getUnit(0)) != none) throw new Exception("testIssueSafeReplacesUnits failed: the action of a unit is not found");
+        gs.issueSafe(pa);
+        for (Unit u : pgs.getUnits()) {
+            if (pa.getAction(u) != none || !pa.hasUnitAction(u)) throw new Exception("testIssueSafeReplacesUnits failed: the action of " + u + " is not found after issueSafe");
+        }
+    }
+}
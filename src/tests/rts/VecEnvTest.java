@@ -0,0 +1,55 @@
+package tests.rts;
+
+import ai.RandomBiasedAI;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import rts.GridActionSpace;
+import rts.VecEnv;
+import rts.units.UnitTypeTable;
+
+/**
+ * Tests of class VecEnv.
+ */
+public class VecEnvTest {
+
+    /**
+     * Checks that stepping the environments in parallel gives the same
+     * results as stepping them sequentially, and that games are restarted.
+     * @throws java.lang.Exception
+     */
+    public void testParallelStep() throws Exception {
+        System.out.println("ParallelStep");
+
+        UnitTypeTable utt = new UnitTypeTable();
+        String maps[] = {"maps/8x8/basesWorkers8x8.xml", "maps/8x8/bases8x8.xml"};
+        VecEnv env1 = new VecEnv(utt, maps, 6, new RandomBiasedAI(), 200, 1, 42);
+        VecEnv env4 = new VecEnv(utt, maps, 6, new RandomBiasedAI(), 200, 4, 42);
+        int actions[] = new int[env1.getNumEnvs() * env1.getActionSize()];
+        int obs1[] = new int[env1.getNumEnvs() * env1.getObservationSize()];
+        int obs4[] = new int[obs1.length];
+        double rewards1[] = new double[env1.getNumEnvs()], rewards4[] = new double[env1.getNumEnvs()];
+        boolean dones1[] = new boolean[env1.getNumEnvs()], dones4[] = new boolean[env1.getNumEnvs()];
+        GridActionSpace space = env1.getActionSpace();
+        SplittableRandom r = new SplittableRandom(0);
+
+        env1.reset(obs1);
+        env4.reset(obs4);
+        int nDone = 0;
+        for (int step = 0; step < 500; step++) {
+            for (int i = 0; i < actions.length; i++) {
+                actions[i] = r.nextInt(space.getComponentSize(i % GridActionSpace.COMPONENTS));
+            }
+            env1.step(actions, obs1, rewards1, dones1);
+            env4.step(actions, obs4, rewards4, dones4);
+            if (!Arrays.equals(obs1, obs4) || !Arrays.equals(rewards1, rewards4) || !Arrays.equals(dones1, dones4)) {
+                throw new Exception("testParallelStep failed at step " + step);
+            }
+            for (boolean done : dones1) {
+                if (done) nDone++;
+            }
+        }
+        env1.close();
+        env4.close();
+        if (nDone == 0) throw new Exception("testParallelStep failed (no game was restarted)");
+    }
+}
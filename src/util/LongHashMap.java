@@ -0,0 +1,140 @@
+package util;
+
+/**
+ * A map from long keys to objects that does not box its keys. The entries are
+ * stored in two parallel arrays, in the order in which they were added (see
+ * {@link #keyAt(int)} and {@link #valueAt(int)}), and are found through an
+ * open addressing hash table (with linear probing) from keys to positions in
+ * those arrays. Entries cannot be removed.
+ *
+ * @param <V>
+ */
+public class LongHashMap<V> {
+    long keys[];
+    Object values[];
+    int size = 0;
+
+    /**
+     * Open addressing hash table from keys to positions in the arrays
+     * (position + 1, 0 means an empty slot). It is kept at most half full.
+     */
+    int index[];
+
+    public LongHashMap() {
+        this(4);
+    }
+
+    /**
+     * @param capacity the number of entries that can be added before the
+     * arrays need to grow
+     */
+    public LongHashMap(int capacity) {
+        capacity = Math.max(capacity, 1);
+        keys = new long[capacity];
+        values = new Object[capacity];
+        int slots = 2;
+        while (slots < capacity * 2) slots *= 2;
+        index = new int[slots];
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    int find(long key) {
+        int mask = index.length - 1;
+        for (int slot = hash(key) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[index[slot] - 1] == key) return index[slot] - 1;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) != -1;
+    }
+
+    /**
+     * @param key
+     * @return the value associated with the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int position = find(key);
+        return position == -1 ? null : (V) values[position];
+    }
+
+    /**
+     * Associates a value with a key (replacing the previous value, which keeps
+     * its position, if there was one)
+     *
+     * @param key
+     * @param value
+     * @return the previous value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int position = find(key);
+        if (position != -1) {
+            V previous = (V) values[position];
+            values[position] = value;
+            return previous;
+        }
+        if (size == keys.length) grow();
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        if (size * 2 > index.length) {
+            rehash(index.length * 2);
+        } else {
+            insert(key, size);
+        }
+        return null;
+    }
+
+    /**
+     * @param i
+     * @return the key of the i-th entry (in the order in which they were added)
+     */
+    public long keyAt(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @param i
+     * @return the value of the i-th entry (in the order in which they were added)
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int i) {
+        return (V) values[i];
+    }
+
+    void grow() {
+        long keys2[] = new long[keys.length * 2];
+        Object values2[] = new Object[values.length * 2];
+        System.arraycopy(keys, 0, keys2, 0, size);
+        System.arraycopy(values, 0, values2, 0, size);
+        keys = keys2;
+        values = values2;
+    }
+
+    void rehash(int slots) {
+        index = new int[slots];
+        for (int i = 0; i < size; i++) insert(keys[i], i + 1);
+    }
+
+    void insert(long key, int positionPlusOne) {
+        int mask = index.length - 1;
+        int slot = hash(key) & mask;
+        while (index[slot] != 0) slot = (slot + 1) & mask;
+        index[slot] = positionPlusOne;
+    }
+}
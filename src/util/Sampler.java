@@ -12,6 +12,7 @@ package util;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 public class Sampler {
     static Random generator = new Random();
@@ -136,6 +137,34 @@ public class Sampler {
         throw new Exception("Input distribution empty in Sampler.weighted!");
     }
 
+    /*
+     * Returns an element among the first "length" elements of the distribution, using the 
+     * weights as their relative probabilities (so that distribution arrays can be reused),
+     * and a given random number generator (e.g., the one of the game being simulated)
+     */
+    public static int weighted(double[] distribution, int length, SplittableRandom random) throws Exception {
+        double total = 0, accum = 0, tmp;
+
+        for(int i = 0; i < length; i++) {
+            total += distribution[i];
+        }
+
+        if(total == 0)
+            return random.nextInt(length);
+
+        tmp = random.nextDouble() * total;
+
+        for(int i = 0; i < length; i++) {
+            accum += distribution[i];
+
+            if(accum >= tmp) {
+                return i;
+            }
+        }
+
+        throw new Exception("Input distribution empty in Sampler.weighted!");
+    }
+
     /*
      * Returns an element in the distribution, using the weights as their relative probabilities
      */
@@ -162,6 +191,33 @@ public class Sampler {
         throw new Exception("Input distribution empty in Sampler.weighted!");
     }
 
+    /*
+     * Returns an element in the distribution, using the weights as their relative probabilities,
+     * and a given random number generator
+     */
+    public static Object weighted(List<Double> distribution, List<?> outputs, SplittableRandom random) throws Exception {
+        double total = 0, accum = 0, tmp;
+
+        for(double f : distribution) {
+            total += f;
+        }
+
+        if(total == 0)
+            return outputs.get(random.nextInt(outputs.size()));
+
+        tmp = random.nextDouble() * total;
+
+        for(int i = 0; i < distribution.size(); i++) {
+            accum += distribution.get(i);
+
+            if(accum >= tmp) {
+                return outputs.get(i);
+            }
+        }
+
+        throw new Exception("Input distribution empty in Sampler.weighted!");
+    }
+
     /*
      * Returns an element in the distribution following the probabilities, but using 'e' as the exploration factor.
      * For instance: